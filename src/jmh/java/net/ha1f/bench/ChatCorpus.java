@@ -0,0 +1,42 @@
+package net.ha1f.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Messages of {@code chat-corpus.txt}, repeated by weight and shuffled with a fixed seed.
+ */
+final class ChatCorpus {
+
+    private ChatCorpus() {
+    }
+
+    static String[] load() {
+        final List<String> messages = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                ChatCorpus.class.getResourceAsStream("/chat-corpus.txt"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final int space = line.indexOf(' ');
+                final int weight = Integer.parseInt(line.substring(0, space));
+                for (int i = 0; i < weight; i++) {
+                    messages.add(line.substring(space + 1));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Collections.shuffle(messages, new Random(42));
+        return messages.toArray(new String[0]);
+    }
+}
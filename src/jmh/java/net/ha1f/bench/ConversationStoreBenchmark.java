@@ -0,0 +1,78 @@
+package net.ha1f.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.linecorp.bot.model.event.source.UserSource;
+
+import net.ha1f.conversation.Conversation;
+import net.ha1f.conversation.ConversationStore;
+import net.ha1f.log.EventLog;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ConversationStoreBenchmark {
+
+    private static final int CONVERSATIONS = 50000;
+
+    @State(Scope.Benchmark)
+    public static class Store {
+        ConversationStore store;
+        String[] ids;
+        UserSource[] sources;
+
+        @Setup
+        public void setUp() {
+            store = new ConversationStore(64, CONVERSATIONS * 2, 1440, 30, "", 0,
+                                          new EventLog(16, EventLog.Overflow.DROP, 0));
+            ids = new String[CONVERSATIONS];
+            sources = new UserSource[CONVERSATIONS];
+            for (int i = 0; i < CONVERSATIONS; i++) {
+                ids[i] = "U" + Integer.toHexString(i * 0x9e3779b1);
+                sources[i] = new UserSource(ids[i]);
+                store.message(sources[i], "greeting");
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            store.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int next() {
+            next = next + 1 == CONVERSATIONS ? 0 : next + 1;
+            return next;
+        }
+    }
+
+    @Benchmark
+    public Conversation get(Store store, Cursor cursor) {
+        return store.store.get(store.ids[cursor.next()]);
+    }
+
+    @Benchmark
+    public Conversation message(Store store, Cursor cursor) {
+        return store.store.message(store.sources[cursor.next()], "greeting");
+    }
+}
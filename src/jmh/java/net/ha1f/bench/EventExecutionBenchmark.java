@@ -0,0 +1,87 @@
+package net.ha1f.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.ha1f.event.EventExecutor;
+import net.ha1f.event.SourceThrottle;
+import net.ha1f.log.EventLog;
+import net.ha1f.metrics.BotMetrics;
+
+/**
+ * Events per second when every handler blocks on a LINE API call, by {@link EventExecutor.Mode}.
+ * Webhooks arrive on a pool the size of Tomcat's default {@code server.tomcat.max-threads};
+ * {@code CALLER} is today's thread-per-request mode. {@code VIRTUAL} fails to set up below Java 21.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventExecutionBenchmark {
+
+    private static final int EVENTS = 2000;
+    private static final int REQUEST_THREADS = 200;
+
+    @Param({ "CALLER", "POOL", "VIRTUAL" })
+    private EventExecutor.Mode mode;
+
+    @Param({ "20" })
+    private long apiLatencyMillis;
+
+    private ExecutorService requestThreads;
+    private EventExecutor executor;
+
+    @Setup
+    public void setUp() {
+        requestThreads = Executors.newFixedThreadPool(REQUEST_THREADS);
+        final EventLog eventLog = new EventLog(1024, EventLog.Overflow.DROP, 0);
+        final SourceThrottle unthrottled = new SourceThrottle(false, 0, 1, 0, 1, 1, SourceThrottle.Excess.DROP, 0,
+                                                              eventLog);
+        // 一度に届く EVENTS 件をどれも捨てずに待たせる
+        executor = new EventExecutor(unthrottled, eventLog, new BotMetrics(), mode, 64, EVENTS);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        requestThreads.shutdownNow();
+        executor.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void dispatchBlockingHandlers() throws InterruptedException {
+        final CountDownLatch handled = new CountDownLatch(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            requestThreads.execute(() -> {
+                try {
+                    executor.dispatch(null, () -> {
+                        // execute() で LINE API の返事を待つ代わり
+                        TimeUnit.MILLISECONDS.sleep(apiLatencyMillis);
+                        handled.countDown();
+                    });
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        handled.await();
+    }
+}
@@ -0,0 +1,75 @@
+package net.ha1f.bench;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.linecorp.bot.model.ReplyMessage;
+import com.linecorp.bot.model.message.TextMessage;
+import com.linecorp.bot.model.response.BotApiResponse;
+
+import net.ha1f.metrics.BotMetrics;
+import net.ha1f.reply.ReplyDispatcher;
+import net.ha1f.reply.ReplySelector;
+import net.ha1f.rule.ReloadableTextRules;
+import net.ha1f.rule.ReplyDecision;
+import net.ha1f.rule.TextDecisionCache;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReplyConstructionBenchmark {
+
+    private String[] corpus;
+    private int next;
+
+    private TextDecisionCache decisions;
+    private ReplySelector selector;
+    private ReplyDispatcher dispatcher;
+
+    @Setup
+    public void setUp() {
+        corpus = ChatCorpus.load();
+        decisions = new TextDecisionCache(new ReloadableTextRules(""), true, 4096, 32);
+        selector = new ReplySelector(true, 10000, 60);
+        dispatcher = new ReplyDispatcher(StubLineMessagingService.create(), new BotMetrics(), 8, 1024,
+                                         ReplyDispatcher.Overflow.REJECT, 0);
+    }
+
+    private String nextMessage() {
+        final String message = corpus[next];
+        next = next + 1 == corpus.length ? 0 : next + 1;
+        return message;
+    }
+
+    @Benchmark
+    public ReplyMessage buildReply() {
+        final ReplyDecision decision = decisions.decide(nextMessage());
+        final String text = selector.compose("group", decision);
+        return new ReplyMessage("token", Collections.singletonList(new TextMessage(text)));
+    }
+
+    /**
+     * Decision, selection and dispatch to a stub API that answers at once.
+     */
+    @Benchmark
+    public CompletableFuture<BotApiResponse> dispatchReply() {
+        final ReplyDecision decision = decisions.decide(nextMessage());
+        final String text = selector.compose("group", decision);
+        return dispatcher.reply("token", Collections.singletonList(new TextMessage(text)));
+    }
+}
@@ -0,0 +1,55 @@
+package net.ha1f.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.ha1f.sticker.StickerReplies;
+import net.ha1f.sticker.StickerReply;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StickerLookupBenchmark {
+
+    // 両パックの全スタンプと、フォールバックになるものと、知らないパック
+    private String[][] stickers;
+    private int next;
+    private StickerReplies replies;
+
+    @Setup
+    public void setUp() {
+        replies = StickerReplies.fromClasspath("/stickers.json");
+        final String[] hakata = { "7496267", "7496257", "7496263", "7496271", "7496237", "7496266", "7496262",
+                                  "7496250" };
+        stickers = new String[hakata.length + 40 + 2][];
+        int i = 0;
+        for (String id : hakata) {
+            stickers[i++] = new String[] { "1184321", id };
+        }
+        for (int id = 10221072; id <= 10221111; id++) {
+            stickers[i++] = new String[] { "1252013", String.valueOf(id) };
+        }
+        stickers[i++] = new String[] { "2", "19" };
+        stickers[i] = new String[] { "11537", "52002734" };
+    }
+
+    @Benchmark
+    public StickerReply find() {
+        final String[] sticker = stickers[next];
+        next = next + 1 == stickers.length ? 0 : next + 1;
+        return replies.find(sticker[0], sticker[1]);
+    }
+}
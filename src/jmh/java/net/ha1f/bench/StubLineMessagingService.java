@@ -0,0 +1,58 @@
+package net.ha1f.bench;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import com.linecorp.bot.client.LineMessagingService;
+import com.linecorp.bot.model.response.BotApiResponse;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * {@link LineMessagingService} whose calls succeed immediately without any I/O.
+ */
+final class StubLineMessagingService {
+
+    private static final BotApiResponse OK = new BotApiResponse("ok", Collections.emptyList());
+
+    private StubLineMessagingService() {
+    }
+
+    static LineMessagingService create() {
+        return (LineMessagingService) Proxy.newProxyInstance(
+                LineMessagingService.class.getClassLoader(),
+                new Class<?>[] { LineMessagingService.class },
+                (proxy, method, args) -> completedCall());
+    }
+
+    @SuppressWarnings("unchecked")
+    static Call<BotApiResponse> completedCall() {
+        return (Call<BotApiResponse>) Proxy.newProxyInstance(
+                Call.class.getClassLoader(),
+                new Class<?>[] { Call.class },
+                (call, method, args) -> {
+                    switch (method.getName()) {
+                        case "execute":
+                            return Response.success(OK);
+                        case "enqueue":
+                            ((Callback<BotApiResponse>) args[0]).onResponse((Call<BotApiResponse>) call,
+                                                                            Response.success(OK));
+                            return null;
+                        case "isExecuted":
+                            return true;
+                        case "isCanceled":
+                            return false;
+                        case "clone":
+                            return completedCall();
+                        case "hashCode":
+                            return System.identityHashCode(call);
+                        case "equals":
+                            return call == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,69 @@
+package net.ha1f.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.ha1f.rule.DefaultTextRules;
+import net.ha1f.rule.ReloadableTextRules;
+import net.ha1f.rule.ReplyDecision;
+import net.ha1f.rule.TextDecisionCache;
+import net.ha1f.rule.TextRuleEngine;
+import net.ha1f.text.NormalizedText;
+import net.ha1f.text.TextNormalizer;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TextClassificationBenchmark {
+
+    private String[] corpus;
+    private int next;
+
+    private TextNormalizer normalizer;
+    private NormalizedText normalized;
+    private TextRuleEngine engine;
+    private TextDecisionCache cache;
+
+    @Setup
+    public void setUp() {
+        corpus = ChatCorpus.load();
+        normalizer = new TextNormalizer();
+        normalized = new NormalizedText();
+        engine = DefaultTextRules.engine();
+        cache = new TextDecisionCache(new ReloadableTextRules(""), true, 4096, 32);
+    }
+
+    private String nextMessage() {
+        final String message = corpus[next];
+        next = next + 1 == corpus.length ? 0 : next + 1;
+        return message;
+    }
+
+    @Benchmark
+    public NormalizedText normalize() {
+        return normalizer.normalize(nextMessage(), normalized);
+    }
+
+    @Benchmark
+    public ReplyDecision decide() {
+        return engine.decide(nextMessage());
+    }
+
+    @Benchmark
+    public ReplyDecision decideCached() {
+        return cache.decide(nextMessage());
+    }
+}
@@ -0,0 +1,277 @@
+package net.ha1f.load;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import com.linecorp.bot.client.LineMessagingService;
+import com.linecorp.bot.model.ReplyMessage;
+import com.linecorp.bot.model.response.BotApiResponse;
+
+import net.ha1f.LinebotApplication;
+import net.ha1f.capture.CaptureReader;
+import net.ha1f.capture.CaptureRecord;
+import net.ha1f.reply.ReplyDispatcher;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Plays a capture written with {@code ha1f.capture.enabled=true} back through the handlers of the bot, with a
+ * LINE API that answers at once and remembers the replies, and compares them with the replies in the capture.
+ *
+ * <pre>
+ * ./gradlew replay -Preplay.args="capture=capture pace=original speed=2"
+ * ./gradlew replay -Preplay.args="capture=capture/capture-1500000000000-0000.bin pace=fast ha1f.rules.file=new-rules.json"
+ * </pre>
+ *
+ * {@code pace=original} keeps the gaps between the captured events (divided by {@code speed}), {@code pace=fast}
+ * sends them one after another. Options starting with {@code ha1f.} are passed to the bot as properties.
+ * Replies picked at random among several candidates show up as differences.
+ */
+public final class CaptureReplay {
+
+    private static final int SAMPLES = 10;
+
+    /**
+     * Not a {@code @Configuration}, so that component scanning does not pick it up in the load test.
+     */
+    static class ReplayBeans {
+        static final Map<String, List<String>> REPLIES = new ConcurrentHashMap<>();
+        static final AtomicLong CALLS = new AtomicLong();
+
+        @Bean
+        @Primary
+        public LineMessagingService replayMessagingService() {
+            return (LineMessagingService) Proxy.newProxyInstance(
+                    LineMessagingService.class.getClassLoader(), new Class<?>[] { LineMessagingService.class },
+                    (proxy, method, args) -> {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return "equals".equals(method.getName()) ? proxy == args[0] : method.invoke(this, args);
+                        }
+                        CALLS.incrementAndGet();
+                        if (args != null && args.length == 1 && args[0] instanceof ReplyMessage) {
+                            final ReplyMessage reply = (ReplyMessage) args[0];
+                            REPLIES.put(reply.getReplyToken(), reply.getMessages().stream()
+                                                                     .map(CaptureRecord::describe)
+                                                                     .collect(Collectors.toList()));
+                        }
+                        return new AnsweredCall<>(new BotApiResponse("ok", Collections.emptyList()));
+                    });
+        }
+    }
+
+    /**
+     * A call that has already succeeded.
+     */
+    private static final class AnsweredCall<T> implements Call<T> {
+        private final T body;
+
+        AnsweredCall(T body) {
+            this.body = body;
+        }
+
+        @Override
+        public Response<T> execute() {
+            return Response.success(body);
+        }
+
+        @Override
+        public void enqueue(Callback<T> callback) {
+            callback.onResponse(this, Response.success(body));
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return false;
+        }
+
+        @Override
+        public Call<T> clone() {
+            return new AnsweredCall<>(body);
+        }
+
+        @Override
+        public okhttp3.Request request() {
+            return null;
+        }
+    }
+
+    private final LinebotApplication bot;
+    private final boolean originalPace;
+    private final double speed;
+
+    private final Map<String, List<String>> captured = new LinkedHashMap<>();
+    private long events;
+    private long skipped;
+
+    private CaptureReplay(LinebotApplication bot, Map<String, String> options) {
+        this.bot = bot;
+        final String pace = options.getOrDefault("pace", "original");
+        if (!"original".equals(pace) && !"fast".equals(pace)) {
+            throw new IllegalArgumentException("pace must be original or fast: " + pace);
+        }
+        originalPace = "original".equals(pace);
+        speed = Double.parseDouble(options.getOrDefault("speed", "1"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        final List<String> properties = new ArrayList<>();
+        properties.add("server.port=0");
+        properties.add("line.bot.channel-token=replay-token");
+        properties.add("line.bot.channel-secret=replay-channel-secret");
+        // 再生した分を記録したり、中身を取りに行ったりしない
+        properties.add("ha1f.capture.enabled=false");
+        properties.add("ha1f.media.enabled=false");
+        properties.add("ha1f.broadcast.resume=false");
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("expected key=value: " + arg);
+            }
+            if (arg.startsWith("ha1f.")) {
+                properties.add(arg);
+            } else {
+                options.put(arg.substring(0, separator), arg.substring(separator + 1));
+            }
+        }
+        final Path capture = Paths.get(options.getOrDefault("capture", "capture"));
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(LinebotApplication.class,
+                                                                                   ReplayBeans.class)
+                .properties(properties.toArray(new String[0]))
+                .run()) {
+            final CaptureReplay replay = new CaptureReplay(context.getBean(LinebotApplication.class), options);
+            System.out.println("replaying " + capture + (replay.originalPace ? " at " + replay.speed + "x" : " fast"));
+            final long start = System.nanoTime();
+            final long dispatched;
+            try (CaptureReader reader = new CaptureReader(capture)) {
+                dispatched = replay.run(reader, start);
+            }
+            awaitIdle(context.getBean(ReplyDispatcher.class));
+            replay.report(dispatched - start, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the last event was handed to the bot
+     */
+    private long run(CaptureReader reader, long start) throws Exception {
+        long firstMicros = -1;
+        CaptureRecord record;
+        while ((record = reader.next()) != null) {
+            if (record.isReply()) {
+                captured.put(record.getReplyToken(), record.getReplies());
+                continue;
+            }
+            if (firstMicros < 0) {
+                firstMicros = record.getArrivalMicros();
+            }
+            if (originalPace) {
+                final long scheduled = start + (long) (TimeUnit.MICROSECONDS.toNanos(
+                        record.getArrivalMicros() - firstMicros) / speed);
+                long wait;
+                while ((wait = scheduled - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            if (bot.dispatch(record.getEvent())) {
+                events++;
+            } else {
+                skipped++;
+            }
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Waits until the replies queued by the handlers are sent, and no more have come for a while.
+     */
+    private static void awaitIdle(ReplyDispatcher dispatcher) throws InterruptedException {
+        final long quietNanos = TimeUnit.MILLISECONDS.toNanos(500);
+        final long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        long calls = -1;
+        long quietSince = System.nanoTime();
+        while (System.nanoTime() < deadline) {
+            final long now = System.nanoTime();
+            if (dispatcher.getQueueDepth() > 0 || dispatcher.getInFlight() > 0
+                || ReplayBeans.CALLS.get() != calls) {
+                calls = ReplayBeans.CALLS.get();
+                quietSince = now;
+            } else if (now - quietSince >= quietNanos) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        System.out.println("replies still pending after a minute");
+    }
+
+    private void report(long dispatchNanos, long totalNanos) {
+        final Map<String, List<String>> replayed = ReplayBeans.REPLIES;
+        long same = 0;
+        long missing = 0;
+        final List<String> samples = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : captured.entrySet()) {
+            final List<String> reply = replayed.get(entry.getKey());
+            if (reply == null) {
+                missing++;
+                sample(samples, entry.getKey(), entry.getValue(), null);
+            } else if (Objects.equals(reply, entry.getValue())) {
+                same++;
+            } else {
+                sample(samples, entry.getKey(), entry.getValue(), reply);
+            }
+        }
+        final long different = captured.size() - same - missing;
+        long extra = 0;
+        for (Map.Entry<String, List<String>> entry : replayed.entrySet()) {
+            if (!captured.containsKey(entry.getKey())) {
+                extra++;
+                sample(samples, entry.getKey(), null, entry.getValue());
+            }
+        }
+        System.out.println();
+        System.out.printf("events           %d replayed, %d skipped%n", events, skipped);
+        System.out.printf("throughput       %.1f events/s handed over, %.1f events/s until the last reply%n",
+                          events / (dispatchNanos / 1e9), events / (totalNanos / 1e9));
+        System.out.printf("replies          %d same, %d different, %d missing, %d extra (captured %d, replayed %d)%n",
+                          same, different, missing, extra, captured.size(), replayed.size());
+        samples.forEach(System.out::println);
+    }
+
+    private static void sample(List<String> samples, String replyToken, List<String> captured,
+                               List<String> replayed) {
+        if (samples.size() < SAMPLES) {
+            samples.add("  " + replyToken + ": " + (captured != null ? captured : "-") + " -> "
+                        + (replayed != null ? replayed : "-"));
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package net.ha1f.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures cold starts: starts the bot in a fresh JVM, sends a signed text webhook until one is accepted and
+ * waits for the reply to reach {@link StubLineApiServer}. Both times are taken from the moment the process is
+ * launched, and each mode is started {@code runs} times in turn.
+ *
+ * <pre>
+ * ./gradlew cdsArchive startupBenchmark -PstartupBenchmark.args="runs=10 modes=baseline,fast,fast-cds"
+ * </pre>
+ *
+ * {@code baseline} is the usual startup, {@code fast} the {@code fast} profile, and {@code fast-cds} the
+ * {@code fast} profile with the class data sharing archive from {@code ./gradlew cdsArchive}.
+ */
+public final class StartupBenchmark {
+
+    private static final String CHANNEL_SECRET = "startup-channel-secret";
+
+    private final String java;
+    private final String classpath;
+    private final Path archive;
+    private final long timeoutNanos;
+    private final StubLineApiServer stub;
+    private final WebhookEvents events;
+    private final Path logs;
+
+    private StartupBenchmark(Map<String, String> options, StubLineApiServer stub) throws Exception {
+        java = options.getOrDefault("java", System.getProperty("java.home") + File.separator + "bin"
+                                            + File.separator + "java");
+        classpath = options.get("classpath");
+        if (classpath == null) {
+            throw new IllegalArgumentException("classpath= is required");
+        }
+        archive = Paths.get(options.getOrDefault("archive", "build/cds/app.jsa"));
+        timeoutNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("timeout", "120")));
+        this.stub = stub;
+        events = new WebhookEvents(CHANNEL_SECRET);
+        logs = Files.createTempDirectory("startup-benchmark");
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("expected key=value: " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        final int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+        final List<String> modes = Arrays.asList(options.getOrDefault("modes", "baseline,fast,fast-cds").split(","));
+
+        try (StubLineApiServer stub = new StubLineApiServer(0, 0, 0.0)) {
+            final StartupBenchmark benchmark = new StartupBenchmark(options, stub);
+            final Map<String, List<long[]>> results = new LinkedHashMap<>();
+            for (String mode : modes) {
+                if ("fast-cds".equals(mode) && !Files.exists(benchmark.archive)) {
+                    System.out.println("skipping fast-cds: no " + benchmark.archive + ", run ./gradlew cdsArchive");
+                    continue;
+                }
+                results.put(mode, new ArrayList<>());
+            }
+            // 順に回して、マシンの調子の変化がどのモードにも同じように出るようにする
+            for (int run = 1; run <= runs; run++) {
+                for (Map.Entry<String, List<long[]>> mode : results.entrySet()) {
+                    final long[] times = benchmark.start(mode.getKey(), run);
+                    System.out.printf("%-10s run %d: accepted %d ms, first reply %d ms%n",
+                                      mode.getKey(), run, times[0], times[1]);
+                    mode.getValue().add(times);
+                }
+            }
+            System.out.println();
+            System.out.printf("%-10s %28s %28s%n", "mode", "webhook accepted (ms)", "first reply (ms)");
+            results.forEach((mode, times) -> System.out.printf("%-10s %28s %28s%n", mode,
+                                                                summary(times, 0), summary(times, 1)));
+        }
+    }
+
+    private List<String> command(String mode, int port) {
+        final List<String> command = new ArrayList<>();
+        command.add(java);
+        if ("fast-cds".equals(mode)) {
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        command.add("-cp");
+        command.add(classpath);
+        command.add("net.ha1f.LinebotApplication");
+        command.add("--server.port=" + port);
+        command.add("--line.bot.channel-token=startup-token");
+        command.add("--line.bot.channel-secret=" + CHANNEL_SECRET);
+        command.add("--line.bot.api-end-point=" + stub.getEndpoint());
+        command.add("--ha1f.broadcast.resume=false");
+        if (!"baseline".equals(mode)) {
+            command.add("--spring.profiles.active=fast");
+            // 相手はスタブなので、API クライアントの接続も温める
+            command.add("--ha1f.startup.warm-http=true");
+        }
+        return command;
+    }
+
+    /**
+     * @return milliseconds from launch until the webhook was accepted and until the reply was sent
+     */
+    private long[] start(String mode, int run) throws Exception {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        final URL webhook = new URL("http://127.0.0.1:" + port + "/callback");
+        final File log = logs.resolve(mode + '-' + run + ".log").toFile();
+        stub.reset();
+
+        final long launchedAt = System.nanoTime();
+        final Process process = new ProcessBuilder(command(mode, port)).redirectErrorStream(true)
+                                                                       .redirectOutput(log)
+                                                                       .start();
+        try {
+            final long deadline = launchedAt + timeoutNanos;
+            while (!accepted(webhook)) {
+                if (!process.isAlive() || System.nanoTime() > deadline) {
+                    throw new IllegalStateException(mode + " did not accept a webhook, see " + log);
+                }
+                Thread.sleep(5);
+            }
+            final long acceptedAt = System.nanoTime();
+            while (stub.getReplies() == 0) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException(mode + " did not reply, see " + log);
+                }
+                Thread.sleep(1);
+            }
+            final long repliedAt = System.nanoTime();
+            return new long[] { TimeUnit.NANOSECONDS.toMillis(acceptedAt - launchedAt),
+                                TimeUnit.NANOSECONDS.toMillis(repliedAt - launchedAt) };
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private boolean accepted(URL webhook) {
+        final byte[] body = events.text("おはよう");
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) webhook.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            connection.setRequestProperty("X-Line-Signature", events.signature(body));
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            final int status = connection.getResponseCode();
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    while (in.read() >= 0) {
+                        // 読み切る
+                    }
+                }
+            }
+            return status == 200;
+        } catch (IOException e) {
+            // まだポートが開いていない
+            return false;
+        }
+    }
+
+    private static String summary(List<long[]> times, int index) {
+        final long[] sorted = times.stream().mapToLong(t -> t[index]).sorted().toArray();
+        if (sorted.length == 0) {
+            return "-";
+        }
+        return String.format("median %d, min %d, max %d", sorted[sorted.length / 2], sorted[0],
+                             sorted[sorted.length - 1]);
+    }
+}
@@ -0,0 +1,156 @@
+package net.ha1f.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the LINE Messaging API.
+ * Every call waits {@code latencyMillis} (±{@code jitterMillis}) and fails with 500 at {@code errorRate},
+ * and the server tracks how many calls are in flight at once.
+ * Message content is served as {@code CONTENT_BYTES} of filler.
+ */
+final class StubLineApiServer implements AutoCloseable {
+
+    private static final byte[] OK = "{}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ERROR = "{\"message\":\"stub error\"}".getBytes(StandardCharsets.UTF_8);
+    static final int CONTENT_BYTES = 256 * 1024;
+    private static final byte[] CONTENT = new byte[CONTENT_BYTES];
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "stub-line-api");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double errorRate;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final LongAdder inFlightSamples = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder replies = new LongAdder();
+    private final LongAdder leaves = new LongAdder();
+    private final LongAdder contents = new LongAdder();
+
+    StubLineApiServer(long latencyMillis, long jitterMillis, double errorRate) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.errorRate = errorRate;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + '/';
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        final int concurrent = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(concurrent, Math::max);
+        inFlightSamples.add(concurrent);
+        calls.increment();
+        try (InputStream body = exchange.getRequestBody()) {
+            final byte[] buffer = new byte[4096];
+            while (body.read(buffer) >= 0) {
+                // 読み捨てる
+            }
+            final String path = exchange.getRequestURI().getPath();
+            final boolean content = path.endsWith("/content");
+            if (path.endsWith("/leave")) {
+                leaves.increment();
+            } else if (path.endsWith("/reply")) {
+                replies.increment();
+            } else if (content) {
+                contents.increment();
+            }
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(-jitterMillis, jitterMillis + 1) : 0);
+            if (delay > 0) {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }
+            final boolean error = random.nextDouble() < errorRate;
+            final byte[] response = error ? ERROR : content ? CONTENT : OK;
+            if (error) {
+                errors.increment();
+            }
+            exchange.getResponseHeaders().set("Content-Type", content && !error ? "image/jpeg" : "application/json");
+            exchange.sendResponseHeaders(error ? 500 : 200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    /**
+     * Forgets what the warm-up did.
+     */
+    void reset() {
+        maxInFlight.set(inFlight.get());
+        inFlightSamples.reset();
+        calls.reset();
+        errors.reset();
+        replies.reset();
+        leaves.reset();
+        contents.reset();
+    }
+
+    long getCalls() {
+        return calls.sum();
+    }
+
+    long getErrors() {
+        return errors.sum();
+    }
+
+    long getReplies() {
+        return replies.sum();
+    }
+
+    long getLeaves() {
+        return leaves.sum();
+    }
+
+    long getContents() {
+        return contents.sum();
+    }
+
+    int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    /**
+     * Mean number of calls in flight, as seen by each arriving call.
+     */
+    double getMeanInFlight() {
+        final long calls = getCalls();
+        return calls == 0 ? 0.0 : (double) inFlightSamples.sum() / calls;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
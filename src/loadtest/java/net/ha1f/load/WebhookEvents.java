@@ -0,0 +1,81 @@
+package net.ha1f.load;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Builds webhook bodies in the LINE callback format and their {@code X-Line-Signature}.
+ * The mix is mostly text, as in production, with some stickers, images, follows and beacons.
+ */
+final class WebhookEvents {
+
+    private static final String[] TEXTS = {
+            "はるふ", "おはよう", "おやすみ〜", "ありがとう！", "かわいい", "はるふ好き？", "なにしてるの？",
+            "疲れたなあ", "ハグして", "www", "笑笑", "はるふまたね！", "今日の天気は？", "おなかすいた",
+            "がんばる", "ただいま", "すごい！", "うける", "今日は雨だね", "明日は晴れるといいなあ"
+    };
+    private static final String[][] STICKERS = {
+            { "1184321", "10790463" }, { "1252013", "12288396" }, { "1252013", "12288411" }, { "1", "1" }
+    };
+
+    private final Mac mac;
+    private final AtomicLong sequence = new AtomicLong();
+
+    WebhookEvents(String channelSecret) throws GeneralSecurityException {
+        mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(channelSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    }
+
+    String signature(byte[] body) {
+        final Mac mac;
+        try {
+            mac = (Mac) this.mac.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        return Base64.getEncoder().encodeToString(mac.doFinal(body));
+    }
+
+    /**
+     * A webhook with one text message from a fixed user.
+     */
+    byte[] text(String text) {
+        final long id = sequence.incrementAndGet();
+        final String event = "{\"type\":\"message\",\"replyToken\":\"token" + id
+                             + "\",\"source\":{\"type\":\"user\",\"userId\":\"U1\"},\"timestamp\":"
+                             + System.currentTimeMillis() + ",\"message\":{\"type\":\"text\",\"id\":\"" + id
+                             + "\",\"text\":\"" + text + "\"}}";
+        return ("{\"events\":[" + event + "]}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    byte[] next() {
+        final long id = sequence.incrementAndGet();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final String source = "{\"type\":\"user\",\"userId\":\"U" + random.nextInt(1000) + "\"}";
+        final String common = "\"replyToken\":\"token" + id + "\",\"source\":" + source
+                              + ",\"timestamp\":" + System.currentTimeMillis();
+        final int roll = random.nextInt(100);
+        final String event;
+        if (roll < 70) {
+            event = "{\"type\":\"message\"," + common + ",\"message\":{\"type\":\"text\",\"id\":\"" + id
+                    + "\",\"text\":\"" + TEXTS[random.nextInt(TEXTS.length)] + "\"}}";
+        } else if (roll < 85) {
+            final String[] sticker = STICKERS[random.nextInt(STICKERS.length)];
+            event = "{\"type\":\"message\"," + common + ",\"message\":{\"type\":\"sticker\",\"id\":\"" + id
+                    + "\",\"packageId\":\"" + sticker[0] + "\",\"stickerId\":\"" + sticker[1] + "\"}}";
+        } else if (roll < 93) {
+            event = "{\"type\":\"message\"," + common + ",\"message\":{\"type\":\"image\",\"id\":\"" + id + "\"}}";
+        } else if (roll < 97) {
+            event = "{\"type\":\"follow\"," + common + '}';
+        } else {
+            event = "{\"type\":\"beacon\"," + common + ",\"beacon\":{\"hwid\":\"d41d8cd98f\",\"type\":\"enter\"}}";
+        }
+        return ("{\"events\":[" + event + "]}").getBytes(StandardCharsets.UTF_8);
+    }
+}
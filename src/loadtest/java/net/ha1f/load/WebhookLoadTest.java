@@ -0,0 +1,183 @@
+package net.ha1f.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import net.ha1f.LinebotApplication;
+import net.ha1f.reply.ReplyDispatcher;
+
+/**
+ * Drives the whole bot over HTTP: signed webhooks in, LINE API calls out to {@link StubLineApiServer}.
+ * Webhooks are sent on a fixed schedule and latency is measured from the scheduled time,
+ * so a stalled server shows up in the percentiles instead of lowering the send rate.
+ *
+ * <pre>
+ * ./gradlew loadTest -PloadTest.args="rate=500 duration=60 latency-ms=80 error-rate=0.01"
+ * </pre>
+ *
+ * {@code media=true} also archives image content into a temporary directory.
+ */
+public final class WebhookLoadTest {
+
+    private static final String CHANNEL_SECRET = "loadtest-channel-secret";
+
+    private final int rate;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final int connections;
+    private final URL webhook;
+    private final WebhookEvents events;
+
+    private long[] latencies;
+    private final AtomicInteger recorded = new AtomicInteger();
+    private final LongAdder failures = new LongAdder();
+
+    private WebhookLoadTest(Map<String, String> options, int port) throws Exception {
+        rate = Integer.parseInt(options.getOrDefault("rate", "200"));
+        warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        connections = Integer.parseInt(options.getOrDefault("connections", "64"));
+        webhook = new URL("http://127.0.0.1:" + port + options.getOrDefault("path", "/callback"));
+        events = new WebhookEvents(CHANNEL_SECRET);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = parse(args);
+        try (StubLineApiServer stub = new StubLineApiServer(
+                Long.parseLong(options.getOrDefault("latency-ms", "50")),
+                Long.parseLong(options.getOrDefault("jitter-ms", "10")),
+                Double.parseDouble(options.getOrDefault("error-rate", "0.01")));
+             ConfigurableApplicationContext context = new SpringApplicationBuilder(LinebotApplication.class)
+                     .properties("server.port=0",
+                                 "line.bot.channel-token=loadtest-token",
+                                 "line.bot.channel-secret=" + CHANNEL_SECRET,
+                                 "line.bot.api-end-point=" + stub.getEndpoint(),
+                                 "ha1f.media.enabled=" + options.getOrDefault("media", "false"),
+                                 "ha1f.media.dir=" + Files.createTempDirectory("loadtest-media"))
+                     .run()) {
+            final int port = context.getEnvironment().getProperty("local.server.port", Integer.class);
+            final WebhookLoadTest test = new WebhookLoadTest(options, port);
+
+            System.out.println("warming up for " + test.warmupSeconds + "s at " + test.rate + " events/s");
+            test.run(test.warmupSeconds);
+            stub.reset();
+            final ReplyDispatcher dispatcher = context.getBean(ReplyDispatcher.class);
+            final long rejectedBefore = dispatcher.getRejectedCount();
+
+            System.out.println("measuring for " + test.durationSeconds + "s at " + test.rate + " events/s");
+            final long elapsed = test.run(test.durationSeconds);
+            test.report(elapsed, stub, dispatcher.getRejectedCount() - rejectedBefore);
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("expected key=value: " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    /**
+     * @return elapsed nanoseconds until the last webhook returned
+     */
+    private long run(int seconds) throws InterruptedException {
+        final int total = rate * seconds;
+        latencies = new long[total];
+        recorded.set(0);
+        failures.reset();
+        final ExecutorService senders = Executors.newFixedThreadPool(connections);
+        final long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        final long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            final long scheduled = start + i * interval;
+            long wait;
+            while ((wait = scheduled - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            senders.execute(() -> send(scheduled));
+        }
+        senders.shutdown();
+        senders.awaitTermination(1, TimeUnit.HOURS);
+        return System.nanoTime() - start;
+    }
+
+    private void send(long scheduled) {
+        final byte[] body = events.next();
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) webhook.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            connection.setRequestProperty("X-Line-Signature", events.signature(body));
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            final int status = connection.getResponseCode();
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                drain(in);
+            }
+            if (status != 200) {
+                failures.increment();
+            }
+        } catch (IOException e) {
+            failures.increment();
+        }
+        latencies[recorded.getAndIncrement()] = System.nanoTime() - scheduled;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        final byte[] buffer = new byte[1024];
+        while (in.read(buffer) >= 0) {
+            // 接続を使い回せるように読み切る
+        }
+    }
+
+    private void report(long elapsed, StubLineApiServer stub, long rejected) {
+        final long[] sorted = Arrays.copyOf(latencies, recorded.get());
+        Arrays.sort(sorted);
+        final double seconds = elapsed / 1e9;
+        System.out.println();
+        System.out.printf("webhooks         %d sent, %d failed%n", sorted.length, failures.sum());
+        System.out.printf("throughput       %.1f events/s (target %d)%n", sorted.length / seconds, rate);
+        System.out.printf("webhook latency  p50 %.2f ms, p99 %.2f ms, p999 %.2f ms, max %.2f ms%n",
+                          millis(sorted, 0.5), millis(sorted, 0.99), millis(sorted, 0.999),
+                          millis(sorted, 1.0));
+        System.out.printf("LINE API calls   %d (%d replies, %d leaves, %d contents), %d errors, %d rejected by the queue%n",
+                          stub.getCalls(), stub.getReplies(), stub.getLeaves(), stub.getContents(), stub.getErrors(),
+                          rejected);
+        System.out.printf("API concurrency  mean %.1f, max %d%n", stub.getMeanInFlight(), stub.getMaxInFlight());
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        final int index = Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
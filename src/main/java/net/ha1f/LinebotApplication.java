@@ -2,26 +2,24 @@ package net.ha1f;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
-import java.util.regex.Pattern;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 
 import com.linecorp.bot.client.LineMessagingService;
-import com.linecorp.bot.model.ReplyMessage;
 import com.linecorp.bot.model.event.BeaconEvent;
 import com.linecorp.bot.model.event.Event;
 import com.linecorp.bot.model.event.FollowEvent;
 import com.linecorp.bot.model.event.MessageEvent;
+import com.linecorp.bot.model.event.UnfollowEvent;
 import com.linecorp.bot.model.event.message.AudioMessageContent;
 import com.linecorp.bot.model.event.message.ImageMessageContent;
+import com.linecorp.bot.model.event.message.MessageContent;
 import com.linecorp.bot.model.event.message.StickerMessageContent;
 import com.linecorp.bot.model.event.message.TextMessageContent;
 import com.linecorp.bot.model.event.message.VideoMessageContent;
@@ -34,462 +32,184 @@ import com.linecorp.bot.model.response.BotApiResponse;
 import com.linecorp.bot.spring.boot.annotation.EventMapping;
 import com.linecorp.bot.spring.boot.annotation.LineMessageHandler;
 
+import net.ha1f.broadcast.FollowerRegistry;
+import net.ha1f.capture.EventCapture;
+import net.ha1f.channel.BotChannel;
+import net.ha1f.channel.ChannelRegistry;
+import net.ha1f.conversation.ConversationStore;
+import net.ha1f.event.BeaconDebouncer;
+import net.ha1f.event.EventDeduplicator;
+import net.ha1f.event.EventExecutor;
+import net.ha1f.log.EventLog;
+import net.ha1f.media.MediaArchive;
+import net.ha1f.metrics.BotMetrics;
+import net.ha1f.reply.LeavePipeline;
+import net.ha1f.reply.ReplyDispatcher;
+import net.ha1f.reply.ReplySelector;
+import net.ha1f.rule.ReplyDecision;
+import net.ha1f.sticker.StickerReplies;
+import net.ha1f.sticker.StickerReply;
+
 import retrofit2.Call;
 
 @SpringBootApplication
 @LineMessageHandler
 public class LinebotApplication {
 
-    private static final Pattern NOCONTENT_PATTERN = Pattern.compile("^[ぁ-ん]?[?？!！…・。、,.〜ーｗw笑 ]*$");
-    private static final Pattern SUFFIX_MARK = Pattern.compile("(なん|なの|やなぁ|だよ|やろ|やん|やんけ|[?？!！。、,.〜ーｗw笑])+$");
-
-    private static final List<String> GOODBYE_SUFFIXS = ImmutableList.of("退出",
-                                                                         "退出して",
-                                                                         "でていって",
-                                                                         "出ていって",
-                                                                         "退出願います",
-                                                                         "ばいばい",
-                                                                         "バイバイ",
-                                                                         "さよなら",
-                                                                         "さよーなら",
-                                                                         "さようなら",
-                                                                         "またね");
-    private static final Pattern HAPPY_INTERJECTION = Pattern.compile(
-            "^((わーい|いぇい|やった|いえーい)+|嬉しい|うれしい|うれちい|うれち|うれし|最高|幸せ|しあわせ|優しい|やさしい)+$");
-
-    private static final Map<String, List<String>> GREETINGS =
-            new ImmutableMap.Builder<String, List<String>>()
-                    .put("おはよう", ImmutableList.of("おはよう"))
-                    .put("こんにちは", ImmutableList.of("こんにちは"))
-                    .put("おはよ", ImmutableList.of("おはよう"))
-                    .put("おやすみ", ImmutableList.of("おやすみ"))
-                    .put("よろしくね", ImmutableList.of("こちらこそ"))
-                    .put("はるふ", ImmutableList.of("はるふだよ"))
-                    .put("いってらっしゃい", ImmutableList.of("いってきます"))
-                    .put("いってきます", ImmutableList.of("いってらっしゃい", "がんばってね"))
-                    .put("行ってきます", ImmutableList.of("いってらっしゃい", "がんばってね"))
-                    .put("ただいま", ImmutableList.of("おかえり"))
-                    .put("おかえり", ImmutableList.of("ただいま"))
-                    .put("じゃあ", ImmutableList.of("じゃあ"))
-                    .put("オムライス", ImmutableList.of("ポム"))
-                    .build();
+    private final StickerReplies stickerReplies = StickerReplies.fromClasspath("/stickers.json");
 
     @Autowired
-    private LineMessagingService lineMessagingService;
+    private ReplyDispatcher replyDispatcher;
 
-    public static void main(String[] args) {
-        SpringApplication.run(LinebotApplication.class, args);
-    }
+    @Autowired
+    private LeavePipeline leavePipeline;
 
-    private static void logEvent(Event event) {
-        System.out.println("event received");
-    }
+    @Autowired
+    private ChannelRegistry channels;
+
+    @Autowired
+    private ReplySelector replySelector;
+
+    @Autowired
+    private BotMetrics metrics;
+
+    @Autowired
+    private EventLog eventLog;
+
+    @Autowired
+    private EventDeduplicator deduplicator;
+
+    @Autowired
+    private EventExecutor eventExecutor;
+
+    @Autowired
+    private MediaArchive mediaArchive;
+
+    @Autowired
+    private ConversationStore conversations;
+
+    @Autowired
+    private BeaconDebouncer beaconDebouncer;
+
+    @Autowired
+    private FollowerRegistry followers;
 
-    private static void logResponse(BotApiResponse response) {
-        System.out.println("message sent");
+    @Autowired
+    private EventCapture capture;
+
+    public static void main(String[] args) {
+        SpringApplication.run(LinebotApplication.class, args);
     }
 
-    private Call<BotApiResponse> leaveRequest(Source source) throws Exception {
+    private Call<BotApiResponse> leaveRequest(LineMessagingService client, Source source) throws Exception {
         if (source instanceof GroupSource) {
-            return lineMessagingService.leaveGroup(((GroupSource) source).getGroupId());
+            return client.leaveGroup(((GroupSource) source).getGroupId());
         }
         if (source instanceof RoomSource) {
-            return lineMessagingService.leaveRoom(((RoomSource) source).getRoomId());
+            return client.leaveRoom(((RoomSource) source).getRoomId());
         }
         return null;
     }
 
-    private BotApiResponse replyWithMessages(String replyToken, List<Message> messages) throws Exception {
-        final BotApiResponse apiResponse = lineMessagingService
-                .replyMessage(new ReplyMessage(replyToken, messages))
-                .execute().body();
-        logResponse(apiResponse);
-        return apiResponse;
+    /**
+     * @return {@code false} if LINE delivered the event again and it should be ignored
+     */
+    private boolean accept(Event event) {
+        eventLog.event(event);
+        // 再送も含めて届いたとおりに記録する
+        capture.event(event);
+        return deduplicator.firstDelivery(event);
     }
 
-    private Function<List<Message>, BotApiResponse> getReplier(String replyToken) {
-        return (List<Message> messages) -> {
-            try {
-                return replyWithMessages(replyToken, messages);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+    private CompletableFuture<BotApiResponse> logged(String replyToken, CompletableFuture<BotApiResponse> future) {
+        final long startedAt = System.nanoTime();
+        future.whenComplete((response, error) -> {
+            if (error != null) {
+                eventLog.failure(replyToken, startedAt, error);
+            } else {
+                eventLog.response(replyToken, startedAt, response);
             }
-        };
+        });
+        return future;
     }
 
-    private static <T> T chooseOne(final List<T> candidates) {
-        Random r = new Random(System.currentTimeMillis());
-        return candidates.get(r.nextInt(candidates.size()));
+    private CompletableFuture<BotApiResponse> replyWithMessages(BotChannel channel, String replyToken,
+                                                                List<Message> messages) {
+        capture.reply(replyToken, messages);
+        return logged(replyToken, replyDispatcher.reply(channel.getClient(), replyToken, messages));
     }
 
-    private static String randomized(final String text) {
-        return text + chooseOne(ImmutableList.of(
-                "！",
-                "〜",
-                "〜〜",
-                "！！",
-                "〜！"
-        ));
+    private Function<List<Message>, CompletableFuture<BotApiResponse>> getReplier(BotChannel channel,
+                                                                                  String replyToken) {
+        return (List<Message> messages) -> replyWithMessages(channel, replyToken, messages);
     }
 
-    private BotApiResponse replyTextMessage(MessageEvent<TextMessageContent> event) throws Exception {
+    private CompletableFuture<BotApiResponse> replyTextMessage(BotChannel channel,
+                                                               MessageEvent<TextMessageContent> event)
+            throws Exception {
 
-        final String senderId = event.getSource().getSenderId();
-        final Function<List<Message>, BotApiResponse> replier = getReplier(event.getReplyToken());
-        final Function<String, BotApiResponse> singleTextReplier = (String text) ->
+        final Function<List<Message>, CompletableFuture<BotApiResponse>> replier =
+                getReplier(channel, event.getReplyToken());
+        final Function<String, CompletableFuture<BotApiResponse>> singleTextReplier = (String text) ->
                 replier.apply(Collections.singletonList(new TextMessage(text)));
 
-        final String originalText = event.getMessage().getText();
-        final Boolean isQuestion = ImmutableList.of("?", "？").stream().anyMatch(originalText::endsWith);
-        String text = SUFFIX_MARK.matcher(originalText).replaceFirst("");
-        final Boolean isNoContent = NOCONTENT_PATTERN.matcher(originalText).matches();
-
-        if (isQuestion) {
-            text = Pattern.compile("(なの|なん)*(かなあ|かなぁ)+$").matcher(text).replaceFirst("");
-        }
-
-        // wwみたいなときはオウム返し
-        if (isNoContent || text.isEmpty()) {
-            return singleTextReplier.apply(originalText);
-        }
+        final String senderId = event.getSource().getSenderId();
+        // 少し前の返事に続けて答えるルールがある
+        final ReplyDecision decision = channel.getDecisions().decide(event.getMessage().getText())
+                                              .after(conversations.previousRule(senderId));
+        metrics.countRule(decision.getRule());
+        conversations.message(event.getSource(), decision.getRule());
 
         // 退出コマンド
-        if (text.contains("はるふ") && GOODBYE_SUFFIXS.stream().anyMatch(text::endsWith)) {
-            Call<BotApiResponse> leaveCall = leaveRequest(event.getSource());
-            if (leaveCall != null) {
-                singleTextReplier.apply(randomized("また遊んでね")); // ignore response
-                final BotApiResponse leaveResponse = leaveCall.execute().body();
-                logResponse(leaveResponse);
-                return leaveResponse;
-            } else {
-                return singleTextReplier.apply("二人きりの時間を楽しもうな！");
-            }
-        }
-
-        // 挨拶
-        final List<String> greeting = GREETINGS.get(text);
-        if (greeting != null) {
-            return singleTextReplier.apply(randomized(chooseOne(greeting)));
-        }
-
-        if (text.contains("はるふ") && !isQuestion) {
-            if (ImmutableList.of("すき", "好き", "えらい").stream().anyMatch(text::contains)) {
-                final List<String> candidates = ImmutableList.of("照れるやん！！",
-                                                                 "嬉しい",
-                                                                 "ありがとう",
-                                                                 "好き・・・"
-                );
-                return singleTextReplier.apply(chooseOne(candidates));
-            }
-            if (text.contains("ひど")) {
-                final List<String> candidates = ImmutableList.of("ごめんね",
-                                                                 "ひどいね",
-                                                                 "・・・ごめん"
-                );
-                return singleTextReplier.apply(chooseOne(candidates));
-            }
-        }
-
-        if (ImmutableList.of("すき", "好き").stream().anyMatch(text::endsWith)) {
-            if (isQuestion) {
-                final List<String> candidates = ImmutableList.of(
-                        "好きに決まってるやん？",
-                        "決まってるやん？",
-                        "わかってるやん？",
-                        "好きすぎ"
-                );
-                return singleTextReplier.apply(chooseOne(candidates));
-            } else {
-                final List<String> candidates = ImmutableList.of(
-                        "すき",
-                        "はるふも",
-                        "わかる"
-                );
-                return singleTextReplier.apply(chooseOne(candidates));
-            }
-        }
-
-        if (ImmutableList.of("嫌い", "きらい", "うざい").stream().anyMatch(text::endsWith)) {
-            if (isQuestion) {
-                final List<String> candidates = ImmutableList.of(
-                        "なんでそんなこと聞くん？",
-                        "そんなわけなくない？？"
-                );
-                return singleTextReplier.apply(chooseOne(candidates));
-            } else {
-                final List<String> candidates = ImmutableList.of(
-                        "うそ",
-                        "ごめん、でも僕は好きやで",
-                        "やだ！！"
-                );
-                return singleTextReplier.apply(chooseOne(candidates));
+        if (decision.isLeave()) {
+            Call<BotApiResponse> leaveCall = leaveRequest(channel.getClient(), event.getSource());
+            // 1:1 のトークからは退出できない
+            if (leaveCall == null) {
+                return singleTextReplier.apply(replySelector.choose(decision.getFallback()));
             }
-        }
-
-        // 独り言に応える
-        if (ImmutableList.of("つかれた", "疲れた", "がんばった", "頑張った", "しんどい", "つらい", "ねむい", "眠い").stream()
-                         .anyMatch(text::contains)) {
-            final List<String> candidates = ImmutableList.of("頑張ったね！お疲れ様！",
-                                                             "今度ご飯行こうね",
-                                                             "今度あそびに行こうね",
-                                                             "いつも頑張ってるの知ってるよ",
-                                                             "次あった時ぎゅってしような",
-                                                             "頑張りすぎないようにね",
-                                                             "大丈夫？おっぱい揉む？",
-                                                             "お疲れ様やで",
-                                                             "ぎゅってしたい"
-            );
-            return singleTextReplier.apply(chooseOne(candidates));
-        }
-        if (ImmutableList.of("さみしい", "寂しい", "あいたい", "会いたい").stream().anyMatch(text::contains)) {
-            final List<String> candidates = ImmutableList.of("はるふがいる！",
-                                                             "元気出して！",
-                                                             "今度ご飯行こうな",
-                                                             "次あった時ぎゅってしような",
-                                                             "今度あそびに行こうね",
-                                                             "おいで",
-                                                             "会いたい",
-                                                             "ぎゅってしたい"
-            );
-            return singleTextReplier.apply(chooseOne(candidates));
-        }
-
-        if (text.endsWith("すごい")) {
-            if (isQuestion) {
-                return singleTextReplier.apply("すごい！");
-            } else {
-                return singleTextReplier.apply("すごいね！");
+            // 返事の結果は無視して、送り終えてから退出する
+            final CompletableFuture<BotApiResponse> left = leavePipeline.leave(
+                    () -> singleTextReplier.apply(replySelector.compose(senderId, decision)), leaveCall);
+            if (left == null) {
+                // 終了中は退出しないので、お別れも 1:1 向けの返事も言わない
+                return CompletableFuture.completedFuture(null);
             }
+            left.thenRun(() -> conversations.left(event.getSource()));
+            return logged(event.getReplyToken(), left);
         }
 
-        if (HAPPY_INTERJECTION.matcher(text).matches()) {
-            final List<String> candidates = ImmutableList.of("わーい！",
-                                                             "やったー！",
-                                                             "いぇい！",
-                                                             "嬉しい！",
-                                                             "うれし〜",
-                                                             "あり〜");
-            return singleTextReplier.apply(chooseOne(candidates));
-        }
-
-        if (ImmutableList.of("ありがとう", "感謝", "thanks", "ありがと").stream().anyMatch(text::endsWith)) {
-            final List<String> candidates = ImmutableList.of("いえいえ", "こちらこそ！", "どういたしまして〜😊", "ありがと！");
-            return singleTextReplier.apply(chooseOne(candidates));
-        }
-
-        if (ImmutableList.of("死にたい", "しにたい").stream().anyMatch(text::contains)) {
-            final List<String> candidates = ImmutableList.of("死なないで",
-                                                             "元気出して",
-                                                             "はるふがいるやで",
-                                                             "はるふはいつもそばにいるよ");
-            return singleTextReplier.apply(randomized(chooseOne(candidates)));
-        }
-
-        // お願いに答える
-        if (text.endsWith("ほめて")) {
-            final List<String> candidates = ImmutableList.of("すごい！",
-                                                             "がんばったね！",
-                                                             "お疲れ様！",
-                                                             "いつも頑張ってるの知ってるよ！",
-                                                             "さすがすぎる！"
-            );
-            return singleTextReplier.apply(chooseOne(candidates));
-        }
-        if (ImmutableList.of("あそんで", "遊んで", "あそぼ", "ハグして", "遊びたい", "あそびたい").stream().anyMatch(text::endsWith)) {
-            final List<String> candidates = ImmutableList.of("あそぼ",
-                                                             "あそんで",
-                                                             "約束やで",
-                                                             "ハグしよ"
-            );
-            return singleTextReplier.apply(randomized(chooseOne(candidates)));
-        }
-        if (ImmutableList.of("して", "したい", "したいの").stream().anyMatch(text::endsWith)) {
-            String normalized = text.replace("して", "")
-                                    .replace("したいの", "")
-                                    .replace("したい", "");
-            if ("もしか".equals(normalized)) {
-                return singleTextReplier.apply(randomized("もしかする"));
-            }
-            final List<String> candidates = ImmutableList.of("まかせて",
-                                                             "まかしとき",
-                                                             "約束やで",
-                                                             normalized + "する"
-            );
-            return singleTextReplier.apply(randomized(chooseOne(candidates)));
-        }
-
-        // その他はやでをつける
-        if (text.endsWith("やで")) {
-            return singleTextReplier.apply(text);
-        } else {
-            return singleTextReplier.apply(text + "やで");
-        }
+        return singleTextReplier.apply(replySelector.compose(senderId, decision));
     }
 
     @EventMapping
     public void handleTextMessageEvent(MessageEvent<TextMessageContent> event) throws Exception {
-        logEvent(event);
-        replyTextMessage(event);
-    }
-
-    private BotApiResponse replyStickerMessage(MessageEvent<StickerMessageContent> event) throws Exception {
-        final Function<List<Message>, BotApiResponse> replier = getReplier(event.getReplyToken());
-
-        final String packageId = event.getMessage().getPackageId();
-        final String stickerId = event.getMessage().getStickerId();
-
-        if ("1184321".equals(packageId)) {
-            // 博多弁
-            if ("7496267".equals(stickerId)) {
-                // ばりむかつく
-                return replier.apply(Collections.singletonList(new TextMessage("ムカつかんで！！")));
-            } else if ("7496257".equals(stickerId)) {
-                // もうねるけん おやすみー
-                return replier.apply(Collections.singletonList(new TextMessage("もうねちゃうんね・・・おやすみ〜")));
-            } else if ("7496263".equals(stickerId)) {
-                // たのしみにしとーけん
-                return replier.apply(Collections.singletonList(new TextMessage("ぼくもたのしみ！！")));
-            } else if ("7496271".equals(stickerId)) {
-                // よかろうもん
-                return replier.apply(Collections.singletonList(new TextMessage("博多弁かわいいね！よきよき！")));
-            } else if ("7496237".equals(stickerId)) {
-                // よかよか
-                return replier.apply(Collections.singletonList(new TextMessage("よきよき！")));
-            } else if ("7496266".equals(stickerId)) {
-                // ばりきつ
-                return replier.apply(Collections.singletonList(new TextMessage("きつない！！")));
-            } else if ("7496262".equals(stickerId)) {
-                // よかろ？
-                return replier.apply(Collections.singletonList(new TextMessage("めっちゃいい！！")));
-            } else {
-                return replier.apply(Collections.singletonList(new TextMessage("博多弁かわいいね")));
+        final long startedAt = System.nanoTime();
+        final BotChannel channel = channels.current();
+        try {
+            if (!accept(event)) {
+                return;
             }
+            eventExecutor.dispatch(event.getSource(), () -> replyTextMessage(channel, event));
+        } finally {
+            metrics.recordHandler("text", System.nanoTime() - startedAt);
         }
+    }
 
-        if ("1252013".equals(packageId)) {
-            // 関西弁のうるせぇトリ
-            if ("10221072".equals(stickerId)) {
-                // もぐもぐ
-                return replier.apply(Collections.singletonList(new TextMessage("もぐもぐもぐもぐ")));
-            } else if ("10221073".equals(stickerId)) {
-                // ナイス, いいね, goodjob
-                return replier.apply(Collections.singletonList(new TextMessage("(≧∇≦)b")));
-            } else if ("10221074".equals(stickerId)) {
-                // おはようさん
-                return replier.apply(Collections.singletonList(new TextMessage(randomized("おはおは"))));
-            } else if ("10221075".equals(stickerId)) {
-                // 屁こいて寝るわ
-                return replier.apply(Collections.singletonList(new TextMessage("おやすみ・・・🍠")));
-            } else if ("10221076".equals(stickerId)) {
-                // なんでやねん（ペチ）
-                return replier.apply(Collections.singletonList(new TextMessage("なんでもやねん")));
-            } else if ("10221077".equals(stickerId)) {
-                // なんでやねん！
-                return replier.apply(Collections.singletonList(new TextMessage("ええやん！！")));
-            } else if ("10221078".equals(stickerId)) {
-                // アカーン
-                return replier.apply(Collections.singletonList(new TextMessage("あかーーーーーーん！！！！！")));
-            } else if ("10221079".equals(stickerId)) {
-                // オモロｗ
-                return replier.apply(Collections.singletonList(new TextMessage("わらう")));
-            } else if ("10221080".equals(stickerId)) {
-                // せやろ♪
-                return replier.apply(Collections.singletonList(new TextMessage("せやせや♪")));
-            } else if ("10221081".equals(stickerId)) {
-                // せやな
-                return replier.apply(Collections.singletonList(new TextMessage("せやで。")));
-            } else if ("10221082".equals(stickerId)) {
-                // ええやん！
-                return replier.apply(Collections.singletonList(new TextMessage("いいねいいね〜〜〜！！")));
-            } else if ("10221083".equals(stickerId)) {
-                // ええで！
-                return replier.apply(Collections.singletonList(new TextMessage("よっしゃ！")));
-            } else if ("10221084".equals(stickerId)) {
-                // おおきに
-                return replier.apply(Collections.singletonList(new TextMessage(randomized("いえいえ"))));
-            } else if ("10221085".equals(stickerId)) {
-                // ほんまおおきに
-                return replier.apply(Collections.singletonList(new TextMessage(randomized("いえいえいえいえ"))));
-            } else if ("10221086".equals(stickerId)) {
-                // かんにんやで
-                return replier.apply(Collections.singletonList(new TextMessage(randomized("ええんやで"))));
-            } else if ("10221087".equals(stickerId)) {
-                // 知らんがな
-                return replier.apply(Collections.singletonList(new TextMessage(randomized("知っててくれ"))));
-            } else if ("10221088".equals(stickerId)) {
-                // もう嫌や
-                return replier.apply(Collections.singletonList(new TextMessage("よしよし！大丈夫！はるふがいるよ！")));
-            } else if ("10221089".equals(stickerId)) {
-                // チラッ
-                return replier.apply(Collections.singletonList(new TextMessage("チラッ")));
-            } else if ("10221090".equals(stickerId)) {
-                // かまってーな
-                return replier.apply(Collections.singletonList(new TextMessage(randomized("もち！かまう"))));
-            } else if ("10221091".equals(stickerId)) {
-                // めっちゃ好き
-                return replier.apply(
-                        Collections.singletonList(new TextMessage(randomized("ありがと〜！はるふも！めっちゃ好き"))));
-            } else if ("10221092".equals(stickerId)) {
-                // おまっとさん
-                return replier.apply(Collections.singletonList(new TextMessage(randomized("おめっとさん（？）"))));
-            } else if ("10221093".equals(stickerId)) {
-                // はよ！（イライラ）
-                return replier.apply(Collections.singletonList(new TextMessage(randomized("うるさい"))));
-            } else if ("10221094".equals(stickerId)) {
-                // たこ焼きぶつけたろか!!
-                return replier.apply(Collections.singletonList(new TextMessage(randomized("いいよ、ぶつけて😊"))));
-            } else if ("10221095".equals(stickerId)) {
-                // えげつねぇ
-                return replier.apply(Collections.singletonList(new TextMessage("ひぇぇぇぇぇ")));
-            } else if ("10221096".equals(stickerId)) {
-                // まかしとき！
-                return replier.apply(Collections.singletonList(new TextMessage("素敵✨")));
-            } else if ("10221097".equals(stickerId)) {
-                // めっちゃ嬉しい
-                return replier.apply(Collections.singletonList(new TextMessage("よかた！はるふも嬉しい！")));
-            } else if ("10221098".equals(stickerId)) {
-                // 頑張りや！
-                return replier.apply(Collections.singletonList(new TextMessage(randomized("ありがと！がんばる"))));
-            } else if ("10221099".equals(stickerId)) {
-                // 惚れてまうやろ
-                return replier.apply(Collections.singletonList(new TextMessage("きゅん💕")));
-            } else if ("10221100".equals(stickerId)) {
-                // ホンマ？
-                return replier.apply(Collections.singletonList(new TextMessage(randomized("ほんまやで"))));
-            } else if ("10221101".equals(stickerId)) {
-                // 知らんけど
-                return replier.apply(Collections.singletonList(new TextMessage(randomized("知ってて"))));
-            } else if ("10221102".equals(stickerId)) {
-                // せやかて・・・
-                return replier.apply(Collections.singletonList(new TextMessage("うんうん")));
-            } else if ("10221103".equals(stickerId)) {
-                // なんやて！？
-                return replier.apply(Collections.singletonList(new TextMessage("😜")));
-            } else if ("10221104".equals(stickerId)) {
-                // もーしらん！
-                return replier.apply(Collections.singletonList(new TextMessage("ごめんや・・・")));
-            } else if ("10221105".equals(stickerId)) {
-                // しらー
-                return replier.apply(Collections.singletonList(new TextMessage("しら〜")));
-            } else if ("10221106".equals(stickerId)) {
-                // 涙ふきや
-                return replier.apply(Collections.singletonList(new TextMessage("ありがとう・・・ぐすん")));
-            } else if ("10221107".equals(stickerId)) {
-                // おつかれさん
-                return replier.apply(Collections.singletonList(new TextMessage("ありがと〜そっちもね！")));
-            } else if ("10221108".equals(stickerId)) {
-                // ありえへん
-                return replier.apply(Collections.singletonList(new TextMessage("それがあり得るんだなぁ。みつを")));
-            } else if ("10221109".equals(stickerId)) {
-                // アホちゃうか
-                return replier.apply(Collections.singletonList(new TextMessage("😜😜😜😜")));
-            } else if ("10221110".equals(stickerId)) {
-                // まいど〜
-                return replier.apply(Collections.singletonList(new TextMessage("まいどまいど〜")));
-            } else if ("10221111".equals(stickerId)) {
-                // ほな！
-                return replier.apply(Collections.singletonList(new TextMessage("うんうん！またね！")));
+    private CompletableFuture<BotApiResponse> replyStickerMessage(BotChannel channel,
+                                                                  MessageEvent<StickerMessageContent> event)
+            throws Exception {
+        final Function<List<Message>, CompletableFuture<BotApiResponse>> replier =
+                getReplier(channel, event.getReplyToken());
+
+        final StickerReply reply = stickerReplies.find(event.getMessage().getPackageId(),
+                                                       event.getMessage().getStickerId());
+        // 知らないパッケージは種類が際限なく増えるのでまとめて数える
+        metrics.countStickerPack(reply != null ? event.getMessage().getPackageId() : "unknown");
+        if (reply != null) {
+            if (reply.isRandomized()) {
+                return replier.apply(Collections.singletonList(new TextMessage(replySelector.randomized(reply.getText()))));
             }
+            return replier.apply(reply.getMessages());
         }
 
         return replier.apply(
@@ -500,64 +220,162 @@ public class LinebotApplication {
 
     @EventMapping
     public void handleStickerMessage(MessageEvent<StickerMessageContent> event) throws Exception {
-        logEvent(event);
-        final BotApiResponse apiResponse = replyStickerMessage(event);
-        System.out.println("Sent messages: " + apiResponse);
+        final long startedAt = System.nanoTime();
+        final BotChannel channel = channels.current();
+        try {
+            if (!accept(event)) {
+                return;
+            }
+            eventExecutor.dispatch(event.getSource(), () -> replyStickerMessage(channel, event));
+        } finally {
+            metrics.recordHandler("sticker", System.nanoTime() - startedAt);
+        }
     }
 
     @EventMapping
     public void handleImageMessage(MessageEvent<ImageMessageContent> event) throws Exception {
-        logEvent(event);
-        final BotApiResponse apiResponse = lineMessagingService
-                .replyMessage(new ReplyMessage(event.getReplyToken(),
-                                               Collections.singletonList(new TextMessage("画像送信ありがとうございます！"))))
-                .execute().body();
-        System.out.println("Sent messages: " + apiResponse);
+        final long startedAt = System.nanoTime();
+        final BotChannel channel = channels.current();
+        try {
+            if (!accept(event)) {
+                return;
+            }
+            mediaArchive.archive(channel.getClient(), event.getMessage().getId(), MediaArchive.Kind.IMAGE);
+            eventExecutor.dispatch(event.getSource(), () -> replyWithMessages(
+                    channel, event.getReplyToken(), Collections.singletonList(new TextMessage("画像送信ありがとうございます！"))));
+        } finally {
+            metrics.recordHandler("image", System.nanoTime() - startedAt);
+        }
     }
 
     @EventMapping
     public void handleVideoMessage(MessageEvent<VideoMessageContent> event) throws Exception {
-        logEvent(event);
-        final BotApiResponse apiResponse = lineMessagingService
-                .replyMessage(new ReplyMessage(event.getReplyToken(),
-                                               Collections.singletonList(new TextMessage("動画送信ありがとうございます！"))))
-                .execute().body();
-        logResponse(apiResponse);
+        final long startedAt = System.nanoTime();
+        final BotChannel channel = channels.current();
+        try {
+            if (!accept(event)) {
+                return;
+            }
+            mediaArchive.archive(channel.getClient(), event.getMessage().getId(), MediaArchive.Kind.VIDEO);
+            eventExecutor.dispatch(event.getSource(), () -> replyWithMessages(
+                    channel, event.getReplyToken(), Collections.singletonList(new TextMessage("動画送信ありがとうございます！"))));
+        } finally {
+            metrics.recordHandler("video", System.nanoTime() - startedAt);
+        }
     }
 
     @EventMapping
     public void handleAudioMessage(MessageEvent<AudioMessageContent> event) throws Exception {
-        logEvent(event);
-        final BotApiResponse apiResponse = lineMessagingService
-                .replyMessage(new ReplyMessage(event.getReplyToken(),
-                                               Collections.singletonList(new TextMessage("音声送信ありがとうございます！"))))
-                .execute().body();
-        logResponse(apiResponse);
+        final long startedAt = System.nanoTime();
+        final BotChannel channel = channels.current();
+        try {
+            if (!accept(event)) {
+                return;
+            }
+            mediaArchive.archive(channel.getClient(), event.getMessage().getId(), MediaArchive.Kind.AUDIO);
+            eventExecutor.dispatch(event.getSource(), () -> replyWithMessages(
+                    channel, event.getReplyToken(), Collections.singletonList(new TextMessage("音声送信ありがとうございます！"))));
+        } finally {
+            metrics.recordHandler("audio", System.nanoTime() - startedAt);
+        }
     }
 
     @EventMapping
     public void handleFollowEvent(FollowEvent event) throws Exception {
-        logEvent(event);
-        final Function<List<Message>, BotApiResponse> replier = getReplier(event.getReplyToken());
-        final BotApiResponse apiResponse = replier.apply(
-                ImmutableList.of(new TextMessage("友だち追加ありがとう〜"),
-                                 new TextMessage("退出させるときは、はるふまたね!っていってみてね！")));
-        logResponse(apiResponse);
+        final long startedAt = System.nanoTime();
+        final BotChannel channel = channels.current();
+        try {
+            if (!accept(event)) {
+                return;
+            }
+            // broadcast は既定のチャネルの友だちだけに送る
+            if (channel.isDefault()) {
+                followers.follow(event.getSource().getUserId());
+            }
+            final Function<List<Message>, CompletableFuture<BotApiResponse>> replier =
+                    getReplier(channel, event.getReplyToken());
+            replier.apply(ImmutableList.of(new TextMessage("友だち追加ありがとう〜"),
+                                           new TextMessage("退出させるときは、はるふまたね!っていってみてね！")));
+        } finally {
+            metrics.recordHandler("follow", System.nanoTime() - startedAt);
+        }
+    }
+
+    @EventMapping
+    public void handleUnfollowEvent(UnfollowEvent event) {
+        final long startedAt = System.nanoTime();
+        final BotChannel channel = channels.current();
+        try {
+            if (!accept(event)) {
+                return;
+            }
+            if (channel.isDefault()) {
+                followers.unfollow(event.getSource().getUserId());
+            }
+        } finally {
+            metrics.recordHandler("unfollow", System.nanoTime() - startedAt);
+        }
     }
 
     @EventMapping
     public void handleBeaconEvent(BeaconEvent event) throws Exception {
-        logEvent(event);
-        Message m1 = new TextMessage("ご来店ありがとうございます！");
-        final BotApiResponse apiResponse = lineMessagingService
-                .replyMessage(new ReplyMessage(event.getReplyToken(),
-                                               Collections.singletonList(m1)))
-                .execute().body();
-        logResponse(apiResponse);
+        final long startedAt = System.nanoTime();
+        final BotChannel channel = channels.current();
+        try {
+            if (!accept(event) || !beaconDebouncer.shouldReply(event)) {
+                return;
+            }
+            Message m1 = new TextMessage("ご来店ありがとうございます！");
+            replyWithMessages(channel, event.getReplyToken(), Collections.singletonList(m1));
+        } finally {
+            metrics.recordHandler("beacon", System.nanoTime() - startedAt);
+        }
     }
 
     @EventMapping
     public void defaultMessageEvent(Event event) {
-        logEvent(event);
+        final long startedAt = System.nanoTime();
+        try {
+            accept(event);
+        } finally {
+            metrics.recordHandler("default", System.nanoTime() - startedAt);
+        }
+    }
+
+    /**
+     * Hands an event to its handler the way {@code @EventMapping} does, for webhooks that do not come through
+     * line-bot-spring-boot.
+     *
+     * @return {@code false} if only {@link #defaultMessageEvent} took the event
+     */
+    @SuppressWarnings("unchecked")
+    public boolean dispatch(Event event) throws Exception {
+        if (event instanceof MessageEvent) {
+            final MessageContent message = ((MessageEvent<?>) event).getMessage();
+            if (message instanceof TextMessageContent) {
+                handleTextMessageEvent((MessageEvent<TextMessageContent>) event);
+            } else if (message instanceof StickerMessageContent) {
+                handleStickerMessage((MessageEvent<StickerMessageContent>) event);
+            } else if (message instanceof ImageMessageContent) {
+                handleImageMessage((MessageEvent<ImageMessageContent>) event);
+            } else if (message instanceof VideoMessageContent) {
+                handleVideoMessage((MessageEvent<VideoMessageContent>) event);
+            } else if (message instanceof AudioMessageContent) {
+                handleAudioMessage((MessageEvent<AudioMessageContent>) event);
+            } else {
+                defaultMessageEvent(event);
+                return false;
+            }
+        } else if (event instanceof FollowEvent) {
+            handleFollowEvent((FollowEvent) event);
+        } else if (event instanceof UnfollowEvent) {
+            handleUnfollowEvent((UnfollowEvent) event);
+        } else if (event instanceof BeaconEvent) {
+            handleBeaconEvent((BeaconEvent) event);
+        } else {
+            defaultMessageEvent(event);
+            return false;
+        }
+        return true;
     }
 }
@@ -0,0 +1,74 @@
+package net.ha1f.broadcast;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Starts broadcasts over HTTP:
+ * {@code curl -H "Authorization: Bearer $TOKEN" -d text=... -d text=... /broadcast}.
+ * Answers 404 unless {@code ha1f.broadcast.token} is set and sent as a bearer token.
+ */
+@RestController
+public class BroadcastController {
+
+    private static final String BEARER = "Bearer ";
+
+    private final BroadcastEngine engine;
+    private final byte[] token;
+
+    @Autowired
+    public BroadcastController(BroadcastEngine engine, @Value("${ha1f.broadcast.token:}") String token) {
+        this.engine = engine;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private boolean authorized(String authorization) {
+        if (token.length == 0 || authorization == null || !authorization.startsWith(BEARER)) {
+            return false;
+        }
+        // 時間で中身が分からないように比べる
+        return MessageDigest.isEqual(token, authorization.substring(BEARER.length())
+                                                         .getBytes(StandardCharsets.UTF_8));
+    }
+
+    @PostMapping("/broadcast")
+    public ResponseEntity<Map<String, Object>> broadcast(
+            @RequestHeader(value = "Authorization", required = false) String authorization,
+            @RequestParam("text") List<String> texts) throws IOException {
+        if (!authorized(authorization)) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        try {
+            return new ResponseEntity<>(engine.broadcast(texts).toMap(), HttpStatus.ACCEPTED);
+        } catch (IllegalArgumentException e) {
+            final Map<String, Object> error = new LinkedHashMap<>();
+            error.put("error", e.getMessage());
+            return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @PostMapping("/broadcast/resume")
+    public ResponseEntity<List<Map<String, Object>>> resume(
+            @RequestHeader(value = "Authorization", required = false) String authorization) {
+        if (!authorized(authorization)) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        final List<Map<String, Object>> resumed = new ArrayList<>();
+        engine.resumeAll().forEach(broadcast -> resumed.add(broadcast.toMap()));
+        return new ResponseEntity<>(resumed, HttpStatus.ACCEPTED);
+    }
+}
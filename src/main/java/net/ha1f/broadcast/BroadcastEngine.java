@@ -0,0 +1,503 @@
+package net.ha1f.broadcast;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.linecorp.bot.client.LineMessagingService;
+import com.linecorp.bot.model.Multicast;
+import com.linecorp.bot.model.message.Message;
+import com.linecorp.bot.model.message.TextMessage;
+import com.linecorp.bot.model.response.BotApiResponse;
+
+import net.ha1f.log.EventLog;
+import net.ha1f.metrics.BotMetrics;
+import net.ha1f.reply.ApiResilience;
+import net.ha1f.reply.ReplyDispatcher;
+import net.ha1f.util.StripedRateLimiter;
+
+import retrofit2.Call;
+
+/**
+ * Sends text messages to every follower with multicast calls of {@code ha1f.broadcast.batch-size} recipients.
+ * At most {@code ha1f.broadcast.concurrency} batches are in flight and at most {@code ha1f.broadcast.rate}
+ * are started per second. The calls go through a {@link ReplyDispatcher} of their own with
+ * {@code ha1f.broadcast.concurrency} slots and a queue of {@code ha1f.broadcast.queue-capacity}, so a broadcast
+ * never takes the slots of webhook replies, while getting the same timeouts and breaker from {@link ApiResilience}.
+ * Each broadcast is a directory under {@code ha1f.broadcast.dir} holding the recipients and messages as they
+ * were when it started, and a log of finished batches. Broadcasts interrupted by a crash are resumed once the
+ * application is ready; a broadcast whose recipients or messages cannot be read is marked abandoned and skipped.
+ * When resumed, batches that were in flight at the time are sent again, so a recipient may get a message twice,
+ * never zero times.
+ * Batches rejected without being sent (queue full, breaker open) are left for {@link #resumeAll()} as well,
+ * while batches that failed after being sent are not repeated. Broadcasts run one at a time.
+ */
+@Component
+public class BroadcastEngine {
+
+    static final String RECIPIENTS_FILE = "recipients";
+    static final String MESSAGES_FILE = "messages";
+    static final String PROGRESS_FILE = "progress";
+    static final String DONE_FILE = "done";
+    static final String ABANDONED_FILE = "abandoned";
+
+    private static final byte SENT = 1;
+    private static final byte FAILED = 2;
+    // batch, status
+    private static final int PROGRESS_RECORD_BYTES = 4 + 1;
+    // 一度に送れるメッセージは 5 件まで
+    private static final int MAX_MESSAGES = 5;
+    private static final int RECENT_BROADCASTS = 16;
+
+    private final Function<Multicast, Call<BotApiResponse>> multicast;
+    private final ReplyDispatcher dispatcher;
+    private final FollowerRegistry followers;
+    private final Path dir;
+    private final int batchSize;
+    private final int concurrency;
+    private final double ratePerSecond;
+    private final EventLog eventLog;
+    private final boolean resume;
+    private final ExecutorService runner;
+    private final Map<String, Broadcast> recent = Collections.synchronizedMap(
+            new LinkedHashMap<String, Broadcast>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Broadcast> eldest) {
+                    return size() > RECENT_BROADCASTS;
+                }
+            });
+    // 待っているか送っている最中の broadcast
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    @Autowired
+    public BroadcastEngine(LineMessagingService lineMessagingService,
+                           BotMetrics metrics,
+                           ApiResilience resilience,
+                           FollowerRegistry followers,
+                           @Value("${ha1f.broadcast.dir:broadcasts}") String dir,
+                           @Value("${ha1f.broadcast.batch-size:150}") int batchSize,
+                           @Value("${ha1f.broadcast.concurrency:4}") int concurrency,
+                           @Value("${ha1f.broadcast.queue-capacity:16}") int queueCapacity,
+                           @Value("${ha1f.broadcast.rate:10}") double ratePerSecond,
+                           @Value("${ha1f.broadcast.resume:true}") boolean resume,
+                           EventLog eventLog) {
+        this(lineMessagingService::multicast,
+             new ReplyDispatcher(lineMessagingService, metrics, resilience, concurrency, queueCapacity,
+                                 ReplyDispatcher.Overflow.REJECT, 0),
+             followers, Paths.get(dir), batchSize, concurrency, ratePerSecond, resume, eventLog);
+    }
+
+    BroadcastEngine(Function<Multicast, Call<BotApiResponse>> multicast, ReplyDispatcher dispatcher,
+                    FollowerRegistry followers, Path dir, int batchSize, int concurrency, double ratePerSecond,
+                    boolean resume, EventLog eventLog) {
+        this.multicast = multicast;
+        this.dispatcher = dispatcher;
+        this.followers = followers;
+        this.dir = dir;
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.ratePerSecond = ratePerSecond;
+        this.resume = resume;
+        this.eventLog = eventLog;
+        runner = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "broadcast");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Records the current followers and the messages, and queues the broadcast.
+     *
+     * @param texts one to five text messages
+     */
+    public Broadcast broadcast(List<String> texts) throws IOException {
+        if (texts.isEmpty() || texts.size() > MAX_MESSAGES) {
+            throw new IllegalArgumentException("a broadcast takes 1 to " + MAX_MESSAGES + " messages");
+        }
+        final List<String> recipients = followers.snapshot();
+        final Path job = createJob();
+        writeStrings(job.resolve(MESSAGES_FILE), texts);
+        writeStrings(job.resolve(RECIPIENTS_FILE), recipients);
+        return submit(new Broadcast(job.getFileName().toString(), recipients.size(),
+                                    batches(recipients.size()), 0), job, texts, recipients, new BitSet());
+    }
+
+    private synchronized Path createJob() throws IOException {
+        Files.createDirectories(dir);
+        // 名前順が作った順になる
+        long id = System.currentTimeMillis();
+        while (true) {
+            final Path job = dir.resolve(String.format("%013d", id));
+            if (!Files.exists(job)) {
+                return Files.createDirectory(job);
+            }
+            id++;
+        }
+    }
+
+    private int batches(int recipients) {
+        return (recipients + batchSize - 1) / batchSize;
+    }
+
+    /**
+     * Resumes unfinished broadcasts once the application is ready, not while beans are still being created.
+     */
+    @EventListener
+    public void ready(ApplicationReadyEvent event) {
+        if (!resume) {
+            return;
+        }
+        try {
+            resumeAll();
+        } catch (UncheckedIOException e) {
+            // 起動は止めない。POST /broadcast/resume でやり直せる
+            eventLog.failure("broadcast", "cannot list " + dir + ": " + e.getCause());
+        }
+    }
+
+    /**
+     * Queues every broadcast under the directory that has neither finished nor been abandoned.
+     *
+     * @return the resumed broadcasts
+     */
+    public List<Broadcast> resumeAll() {
+        final List<Broadcast> resumed = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return resumed;
+        }
+        final List<Path> jobs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            stream.forEach(jobs::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Collections.sort(jobs);
+        for (Path job : jobs) {
+            if (Files.exists(job.resolve(DONE_FILE)) || Files.exists(job.resolve(ABANDONED_FILE))
+                || queued.contains(job.getFileName().toString())) {
+                continue;
+            }
+            final List<String> texts;
+            final List<String> recipients;
+            final BitSet finished;
+            try {
+                texts = readStrings(job.resolve(MESSAGES_FILE));
+                recipients = readStrings(job.resolve(RECIPIENTS_FILE));
+                finished = readProgress(job.resolve(PROGRESS_FILE));
+            } catch (IOException | RuntimeException e) {
+                abandon(job, e);
+                continue;
+            }
+            resumed.add(submit(new Broadcast(job.getFileName().toString(), recipients.size(),
+                                             batches(recipients.size()), finished.cardinality()),
+                               job, texts, recipients, finished));
+        }
+        return resumed;
+    }
+
+    // 読めない broadcast は次の起動でも読めないので、印を付けて二度と試さない
+    private void abandon(Path job, Exception cause) {
+        eventLog.failure("broadcast", job.getFileName() + " abandoned: " + cause);
+        try {
+            Files.write(job.resolve(ABANDONED_FILE), String.valueOf(cause).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            eventLog.failure("broadcast", job.getFileName() + " not marked abandoned: " + e);
+        }
+    }
+
+    private Broadcast submit(Broadcast broadcast, Path job, List<String> texts, List<String> recipients,
+                             BitSet finished) {
+        recent.put(broadcast.getId(), broadcast);
+        queued.add(broadcast.getId());
+        try {
+            runner.execute(() -> {
+                try {
+                    run(broadcast, job, texts, recipients, finished);
+                } finally {
+                    queued.remove(broadcast.getId());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 終了中。次の起動で再開する
+            queued.remove(broadcast.getId());
+        }
+        return broadcast;
+    }
+
+    private void run(Broadcast broadcast, Path job, List<String> texts, List<String> recipients, BitSet finished) {
+        final List<Message> messages = new ArrayList<>(texts.size());
+        texts.forEach(text -> messages.add(new TextMessage(text)));
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final StripedRateLimiter rate = new StripedRateLimiter(1, ratePerSecond, 1);
+        broadcast.started();
+        try (FileChannel progress = FileChannel.open(job.resolve(PROGRESS_FILE), StandardOpenOption.CREATE,
+                                                     StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (int batch = 0; batch < broadcast.getBatches() && !closed; batch++) {
+                if (finished.get(batch)) {
+                    continue;
+                }
+                inFlight.acquire();
+                final long wait = rate.reserve(0, Long.MAX_VALUE);
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                if (closed || Thread.currentThread().isInterrupted()) {
+                    inFlight.release();
+                    break;
+                }
+                final int index = batch;
+                final List<String> to = recipients.subList(batch * batchSize,
+                                                           Math.min(recipients.size(), (batch + 1) * batchSize));
+                dispatcher.dispatch("multicast", multicast.apply(new Multicast(new LinkedHashSet<>(to), messages)))
+                          .whenComplete((response, error) -> {
+                              if (error instanceof RejectedExecutionException) {
+                                  // 送っていないので、再開したときに送る
+                                  broadcast.unsent();
+                              } else {
+                                  record(progress, index, error == null ? SENT : FAILED);
+                                  broadcast.finished(to.size(), error == null);
+                              }
+                              inFlight.release();
+                          });
+            }
+            // 送り出した分が終わるのを待つ
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+            if (!closed && broadcast.getFinishedBatches() == broadcast.getBatches()) {
+                Files.createFile(job.resolve(DONE_FILE));
+                broadcast.done();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            eventLog.failure("broadcast", broadcast.getId() + " stopped: " + e);
+        }
+    }
+
+    private void record(FileChannel progress, int batch, byte status) {
+        final ByteBuffer record = ByteBuffer.allocate(PROGRESS_RECORD_BYTES);
+        record.putInt(batch).put(status).flip();
+        try {
+            synchronized (progress) {
+                while (record.hasRemaining()) {
+                    progress.write(record);
+                }
+            }
+        } catch (IOException e) {
+            // 記録できなかった batch は再開したときにもう一度送る
+            eventLog.failure("broadcast", "progress of batch " + batch + " not recorded: " + e);
+        }
+    }
+
+    private static BitSet readProgress(Path file) throws IOException {
+        final BitSet finished = new BitSet();
+        if (!Files.exists(file)) {
+            return finished;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        while (buffer.remaining() >= PROGRESS_RECORD_BYTES) {
+            final int batch = buffer.getInt();
+            buffer.get();
+            // 失敗した batch も送り直さない。LINE に届いたかどうか分からない
+            finished.set(batch);
+        }
+        return finished;
+    }
+
+    private static void writeStrings(Path file, List<String> values) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            final ByteBuffer count = ByteBuffer.allocate(4).putInt(values.size());
+            count.flip();
+            channel.write(count);
+            for (String value : values) {
+                final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                final ByteBuffer record = ByteBuffer.allocate(4 + bytes.length);
+                record.putInt(bytes.length).put(bytes).flip();
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            channel.force(false);
+        }
+    }
+
+    private static List<String> readStrings(Path file) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        final int count = buffer.getInt();
+        final List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            values.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    /**
+     * The dispatcher multicast calls go through, separate from the one of replies.
+     */
+    public ReplyDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public List<Broadcast> getRecent() {
+        synchronized (recent) {
+            return new ArrayList<>(recent.values());
+        }
+    }
+
+    /**
+     * Stops starting batches. Broadcasts left unfinished are resumed on the next startup.
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        closed = true;
+        runner.shutdownNow();
+        runner.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    public static final class Broadcast {
+        private final String id;
+        private final int recipients;
+        private final int batches;
+        private final int resumedBatches;
+        private final AtomicInteger sentBatches = new AtomicInteger();
+        private final AtomicInteger failedBatches = new AtomicInteger();
+        private final AtomicInteger unsentBatches = new AtomicInteger();
+        private final AtomicInteger sentRecipients = new AtomicInteger();
+        private volatile long startedAt;
+        private volatile long elapsedNanos = -1;
+
+        Broadcast(String id, int recipients, int batches, int resumedBatches) {
+            this.id = id;
+            this.recipients = recipients;
+            this.batches = batches;
+            this.resumedBatches = resumedBatches;
+        }
+
+        private void started() {
+            startedAt = System.nanoTime();
+        }
+
+        private void finished(int recipients, boolean success) {
+            if (success) {
+                sentBatches.incrementAndGet();
+                sentRecipients.addAndGet(recipients);
+            } else {
+                failedBatches.incrementAndGet();
+            }
+        }
+
+        private void unsent() {
+            unsentBatches.incrementAndGet();
+        }
+
+        private void done() {
+            elapsedNanos = System.nanoTime() - startedAt;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getRecipients() {
+            return recipients;
+        }
+
+        public int getBatches() {
+            return batches;
+        }
+
+        /**
+         * Batches finished before a restart, not sent again.
+         */
+        public int getResumedBatches() {
+            return resumedBatches;
+        }
+
+        public int getSentBatches() {
+            return sentBatches.get();
+        }
+
+        public int getFailedBatches() {
+            return failedBatches.get();
+        }
+
+        /**
+         * Batches rejected before being sent, left for the next resume.
+         */
+        public int getUnsentBatches() {
+            return unsentBatches.get();
+        }
+
+        public int getFinishedBatches() {
+            return resumedBatches + sentBatches.get() + failedBatches.get();
+        }
+
+        public boolean isDone() {
+            return elapsedNanos >= 0;
+        }
+
+        /**
+         * Recipients reached per second by this run, so far or in total once done.
+         */
+        public double getRecipientsPerSecond() {
+            final long startedAt = this.startedAt;
+            if (startedAt == 0) {
+                return 0.0;
+            }
+            final long elapsed = isDone() ? elapsedNanos : System.nanoTime() - startedAt;
+            return elapsed <= 0 ? 0.0 : sentRecipients.get() / (elapsed / 1e9);
+        }
+
+        public Map<String, Object> toMap() {
+            final Map<String, Object> values = new LinkedHashMap<>();
+            values.put("id", id);
+            values.put("recipients", recipients);
+            values.put("batches", batches);
+            values.put("sent", getSentBatches());
+            values.put("failed", getFailedBatches());
+            values.put("unsent", getUnsentBatches());
+            values.put("resumed", resumedBatches);
+            values.put("done", isDone());
+            values.put("recipientsPerSecond", getRecipientsPerSecond());
+            return values;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package net.ha1f.broadcast;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import net.ha1f.log.EventLog;
+
+/**
+ * The users following the bot.
+ * Follows and unfollows are appended to {@code ha1f.followers.file} as small records (operation, id length, id)
+ * and replayed on startup; the set in memory drops repeats, so following twice writes one record.
+ * When the file holds more than twice as many records as there are followers it is rewritten on startup.
+ * Without a file the registry only lives in memory.
+ */
+@Component
+public class FollowerRegistry {
+
+    private static final byte FOLLOW = 1;
+    private static final byte UNFOLLOW = 0;
+    // 小さいうちは書き直さない
+    private static final int COMPACT_MIN_RECORDS = 1024;
+
+    private final Path file;
+    private final EventLog eventLog;
+    // 追加順を保つので、同じ時点の一覧はいつも同じ順になる
+    private final Set<String> followers = new LinkedHashSet<>();
+    private FileChannel log;
+
+    @Autowired
+    public FollowerRegistry(@Value("${ha1f.followers.file:}") String file, EventLog eventLog) {
+        this(file.isEmpty() ? null : Paths.get(file), eventLog);
+    }
+
+    FollowerRegistry(Path file, EventLog eventLog) {
+        this.file = file;
+        this.eventLog = eventLog;
+        if (file == null) {
+            return;
+        }
+        try {
+            final int records = load();
+            if (records >= COMPACT_MIN_RECORDS && records > 2 * followers.size()) {
+                compact();
+            }
+            log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open follower registry " + file, e);
+        }
+    }
+
+    /**
+     * @return the number of records read
+     */
+    private int load() throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        int records = 0;
+        int end = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                final byte operation = buffer.get();
+                final byte[] id = new byte[buffer.getShort()];
+                buffer.get(id);
+                final String userId = new String(id, StandardCharsets.UTF_8);
+                if (operation == FOLLOW) {
+                    followers.add(userId);
+                } else {
+                    followers.remove(userId);
+                }
+                records++;
+                end = buffer.position();
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            // 書きかけの末尾。続きを書き足せるように切り捨てる
+            eventLog.failure("followers", "dropped a partial record at the end of " + file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+            }
+        }
+        return records;
+    }
+
+    private void compact() throws IOException {
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (String userId : followers) {
+                write(channel, FOLLOW, userId);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void write(FileChannel channel, byte operation, String userId) throws IOException {
+        final byte[] id = userId.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer record = ByteBuffer.allocate(1 + 2 + id.length);
+        record.put(operation).putShort((short) id.length).put(id).flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+
+    /**
+     * @return {@code false} if the user was already following
+     */
+    public synchronized boolean follow(String userId) {
+        if (userId == null || !followers.add(userId)) {
+            return false;
+        }
+        append(FOLLOW, userId);
+        return true;
+    }
+
+    /**
+     * @return {@code false} if the user was not following
+     */
+    public synchronized boolean unfollow(String userId) {
+        if (userId == null || !followers.remove(userId)) {
+            return false;
+        }
+        append(UNFOLLOW, userId);
+        return true;
+    }
+
+    private void append(byte operation, String userId) {
+        if (log == null) {
+            return;
+        }
+        try {
+            write(log, operation, userId);
+        } catch (IOException e) {
+            // ファイルには残らないが、メモリ上の一覧は正しい
+            eventLog.failure("followers", "cannot record a " + (operation == FOLLOW ? "follow" : "unfollow")
+                                          + ": " + e);
+        }
+    }
+
+    public synchronized boolean contains(String userId) {
+        return followers.contains(userId);
+    }
+
+    /**
+     * @return the followers in the order they followed
+     */
+    public synchronized List<String> snapshot() {
+        return new ArrayList<>(followers);
+    }
+
+    public synchronized int size() {
+        return followers.size();
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+}
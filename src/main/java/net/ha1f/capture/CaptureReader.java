@@ -0,0 +1,100 @@
+package net.ha1f.capture;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads the records {@link EventCapture} wrote, from one segment or from every segment in a directory in the
+ * order they were written. A record cut off at the end of a segment (the writer was stopped mid-write) ends that
+ * segment.
+ */
+public class CaptureReader implements Closeable {
+
+    private final Iterator<Path> segments;
+    private DataInputStream in;
+    private Path current;
+
+    public CaptureReader(Path path) throws IOException {
+        segments = segmentsOf(path).iterator();
+    }
+
+    static List<Path> segmentsOf(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return Collections.singletonList(path);
+        }
+        final List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(
+                path, EventCapture.SEGMENT_PREFIX + '*' + EventCapture.SEGMENT_SUFFIX)) {
+            files.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * @return the next record, or {@code null} after the last one
+     */
+    public CaptureRecord next() throws IOException {
+        while (true) {
+            if (in == null && !open()) {
+                return null;
+            }
+            final byte[] record = readRecord();
+            if (record != null) {
+                return CaptureRecord.decode(new DataInputStream(new ByteArrayInputStream(record)));
+            }
+            in.close();
+            in = null;
+        }
+    }
+
+    private boolean open() throws IOException {
+        if (!segments.hasNext()) {
+            return false;
+        }
+        current = segments.next();
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(current), 64 * 1024));
+        final int magic;
+        try {
+            magic = in.readInt();
+        } catch (EOFException e) {
+            // 開いただけでまだ何も書いていない
+            return true;
+        }
+        if (magic != EventCapture.MAGIC) {
+            in.close();
+            throw new IOException(current + " is not a capture segment");
+        }
+        return true;
+    }
+
+    private byte[] readRecord() throws IOException {
+        try {
+            final int length = in.readInt();
+            final byte[] record = new byte[length];
+            in.readFully(record);
+            return record;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+}
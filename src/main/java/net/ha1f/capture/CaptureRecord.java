@@ -0,0 +1,282 @@
+package net.ha1f.capture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.linecorp.bot.model.event.BeaconEvent;
+import com.linecorp.bot.model.event.Event;
+import com.linecorp.bot.model.event.FollowEvent;
+import com.linecorp.bot.model.event.MessageEvent;
+import com.linecorp.bot.model.event.UnfollowEvent;
+import com.linecorp.bot.model.event.beacon.BeaconContent;
+import com.linecorp.bot.model.event.message.AudioMessageContent;
+import com.linecorp.bot.model.event.message.ImageMessageContent;
+import com.linecorp.bot.model.event.message.MessageContent;
+import com.linecorp.bot.model.event.message.StickerMessageContent;
+import com.linecorp.bot.model.event.message.TextMessageContent;
+import com.linecorp.bot.model.event.message.VideoMessageContent;
+import com.linecorp.bot.model.event.source.GroupSource;
+import com.linecorp.bot.model.event.source.RoomSource;
+import com.linecorp.bot.model.event.source.Source;
+import com.linecorp.bot.model.event.source.UserSource;
+import com.linecorp.bot.model.message.Message;
+import com.linecorp.bot.model.message.TextMessage;
+
+/**
+ * One entry of a capture: an incoming event, or the reply the bot sent for a reply token,
+ * with the time it happened in microseconds since the epoch.
+ * Encoded as a kind byte, the arrival time and the fields of the event that the handlers read.
+ */
+public final class CaptureRecord {
+
+    private static final byte TEXT = 1;
+    private static final byte STICKER = 2;
+    private static final byte IMAGE = 3;
+    private static final byte VIDEO = 4;
+    private static final byte AUDIO = 5;
+    private static final byte FOLLOW = 6;
+    private static final byte UNFOLLOW = 7;
+    private static final byte BEACON = 8;
+    private static final byte REPLY = 20;
+
+    private static final byte NO_SOURCE = 0;
+    private static final byte USER = 1;
+    private static final byte GROUP = 2;
+    private static final byte ROOM = 3;
+
+    private final long arrivalMicros;
+    private final Event event;
+    private final String replyToken;
+    private final List<String> replies;
+
+    private CaptureRecord(long arrivalMicros, Event event, String replyToken, List<String> replies) {
+        this.arrivalMicros = arrivalMicros;
+        this.event = event;
+        this.replyToken = replyToken;
+        this.replies = replies;
+    }
+
+    public long getArrivalMicros() {
+        return arrivalMicros;
+    }
+
+    public boolean isReply() {
+        return event == null;
+    }
+
+    /**
+     * @return the event, or {@code null} for a reply
+     */
+    public Event getEvent() {
+        return event;
+    }
+
+    /**
+     * @return the reply token of a reply
+     */
+    public String getReplyToken() {
+        return replyToken;
+    }
+
+    /**
+     * @return the replied messages as {@link #describe} puts them
+     */
+    public List<String> getReplies() {
+        return replies;
+    }
+
+    /**
+     * The text of a text message, otherwise the kind of message.
+     */
+    public static String describe(Message message) {
+        if (message instanceof TextMessage) {
+            return ((TextMessage) message).getText();
+        }
+        return '[' + message.getClass().getSimpleName() + ']';
+    }
+
+    /**
+     * @return {@code null} for events the bot does not handle
+     */
+    static byte[] encode(Event event, long arrivalMicros) throws IOException {
+        final byte kind = kindOf(event);
+        if (kind == 0) {
+            return null;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(kind);
+        out.writeLong(arrivalMicros);
+        final Instant timestamp = event.getTimestamp();
+        out.writeLong(timestamp != null ? timestamp.toEpochMilli() : 0L);
+        writeSource(out, event.getSource());
+        if (event instanceof MessageEvent) {
+            final MessageEvent<?> messageEvent = (MessageEvent<?>) event;
+            writeString(out, messageEvent.getReplyToken());
+            final MessageContent message = messageEvent.getMessage();
+            writeString(out, message.getId());
+            if (message instanceof TextMessageContent) {
+                writeString(out, ((TextMessageContent) message).getText());
+            } else if (message instanceof StickerMessageContent) {
+                writeString(out, ((StickerMessageContent) message).getPackageId());
+                writeString(out, ((StickerMessageContent) message).getStickerId());
+            }
+        } else if (event instanceof FollowEvent) {
+            writeString(out, ((FollowEvent) event).getReplyToken());
+        } else if (event instanceof BeaconEvent) {
+            final BeaconEvent beaconEvent = (BeaconEvent) event;
+            writeString(out, beaconEvent.getReplyToken());
+            final BeaconContent beacon = beaconEvent.getBeacon();
+            writeString(out, beacon != null ? beacon.getHwid() : null);
+            writeString(out, beacon != null ? beacon.getType() : null);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static byte[] encodeReply(String replyToken, List<Message> messages, long arrivalMicros) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(REPLY);
+        out.writeLong(arrivalMicros);
+        writeString(out, replyToken);
+        out.writeByte(messages.size());
+        for (Message message : messages) {
+            writeString(out, describe(message));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte kindOf(Event event) {
+        if (event instanceof MessageEvent) {
+            final MessageContent message = ((MessageEvent<?>) event).getMessage();
+            if (message instanceof TextMessageContent) {
+                return TEXT;
+            }
+            if (message instanceof StickerMessageContent) {
+                return STICKER;
+            }
+            if (message instanceof ImageMessageContent) {
+                return IMAGE;
+            }
+            if (message instanceof VideoMessageContent) {
+                return VIDEO;
+            }
+            if (message instanceof AudioMessageContent) {
+                return AUDIO;
+            }
+            return 0;
+        }
+        if (event instanceof FollowEvent) {
+            return FOLLOW;
+        }
+        if (event instanceof UnfollowEvent) {
+            return UNFOLLOW;
+        }
+        if (event instanceof BeaconEvent) {
+            return BEACON;
+        }
+        return 0;
+    }
+
+    static CaptureRecord decode(DataInputStream in) throws IOException {
+        final byte kind = in.readByte();
+        final long arrivalMicros = in.readLong();
+        if (kind == REPLY) {
+            final String replyToken = readString(in);
+            final int count = in.readUnsignedByte();
+            final List<String> replies = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                replies.add(readString(in));
+            }
+            return new CaptureRecord(arrivalMicros, null, replyToken, Collections.unmodifiableList(replies));
+        }
+        final Instant timestamp = Instant.ofEpochMilli(in.readLong());
+        final Source source = readSource(in);
+        final Event event;
+        switch (kind) {
+            case TEXT:
+                event = new MessageEvent<>(readString(in), source,
+                                           new TextMessageContent(readString(in), readString(in)), timestamp);
+                break;
+            case STICKER:
+                event = new MessageEvent<>(readString(in), source,
+                                           new StickerMessageContent(readString(in), readString(in), readString(in)),
+                                           timestamp);
+                break;
+            case IMAGE:
+                event = new MessageEvent<>(readString(in), source, new ImageMessageContent(readString(in)), timestamp);
+                break;
+            case VIDEO:
+                event = new MessageEvent<>(readString(in), source, new VideoMessageContent(readString(in)), timestamp);
+                break;
+            case AUDIO:
+                event = new MessageEvent<>(readString(in), source, new AudioMessageContent(readString(in)), timestamp);
+                break;
+            case FOLLOW:
+                event = new FollowEvent(readString(in), source, timestamp);
+                break;
+            case UNFOLLOW:
+                event = new UnfollowEvent(source, timestamp);
+                break;
+            case BEACON:
+                event = new BeaconEvent(readString(in), source, new BeaconContent(readString(in), readString(in)),
+                                        timestamp);
+                break;
+            default:
+                throw new IOException("unknown capture record kind " + kind);
+        }
+        return new CaptureRecord(arrivalMicros, event, null, null);
+    }
+
+    private static void writeSource(DataOutputStream out, Source source) throws IOException {
+        if (source instanceof GroupSource) {
+            out.writeByte(GROUP);
+            writeString(out, ((GroupSource) source).getGroupId());
+        } else if (source instanceof RoomSource) {
+            out.writeByte(ROOM);
+            writeString(out, ((RoomSource) source).getRoomId());
+        } else if (source != null) {
+            out.writeByte(USER);
+        } else {
+            out.writeByte(NO_SOURCE);
+            return;
+        }
+        writeString(out, source.getUserId());
+    }
+
+    private static Source readSource(DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+            case GROUP: {
+                final String groupId = readString(in);
+                return new GroupSource(groupId, readString(in));
+            }
+            case ROOM: {
+                final String roomId = readString(in);
+                return new RoomSource(readString(in), roomId);
+            }
+            case USER:
+                return new UserSource(readString(in));
+            default:
+                return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,240 @@
+package net.ha1f.capture;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.linecorp.bot.model.event.Event;
+import com.linecorp.bot.model.message.Message;
+
+import net.ha1f.log.EventLog;
+
+/**
+ * Captures incoming events and the replies to them, for {@code CaptureReplay} to play back.
+ * Request threads encode a {@link CaptureRecord} and offer it to a bounded queue, dropping it when the queue is
+ * full; a single {@code event-capture} thread gathers records in a direct buffer and appends them to segment files
+ * of about {@code ha1f.capture.segment-mb} under {@code ha1f.capture.dir}.
+ * A segment starts with {@link #MAGIC}, followed by records each prefixed with their length.
+ */
+@Component
+public class EventCapture {
+
+    public static final int MAGIC = 0x48435031;
+    static final String SEGMENT_PREFIX = "capture-";
+    static final String SEGMENT_SUFFIX = ".bin";
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final long FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final BlockingQueue<byte[]> queue;
+    private final long baseMicros;
+    private final long baseNanos;
+    private final EventLog eventLog;
+
+    private final LongAdder captured = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private FileChannel segment;
+    private long segmentSize;
+    private int segmentCount;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    @Autowired
+    public EventCapture(@Value("${ha1f.capture.enabled:false}") boolean enabled,
+                        @Value("${ha1f.capture.dir:capture}") String dir,
+                        @Value("${ha1f.capture.segment-mb:64}") long segmentMegabytes,
+                        @Value("${ha1f.capture.capacity:8192}") int capacity,
+                        EventLog eventLog) {
+        this(enabled ? Paths.get(dir) : null, segmentMegabytes << 20, capacity, eventLog);
+    }
+
+    /**
+     * @param dir {@code null} to capture nothing
+     */
+    EventCapture(Path dir, long segmentBytes, int capacity, EventLog eventLog) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.eventLog = eventLog;
+        baseMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        baseNanos = System.nanoTime();
+        if (dir == null) {
+            queue = null;
+            writer = null;
+            return;
+        }
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot create capture directory " + dir, e);
+        }
+        queue = new ArrayBlockingQueue<>(capacity);
+        writer = new Thread(this::write, "event-capture");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    private long nowMicros() {
+        return baseMicros + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - baseNanos);
+    }
+
+    public void event(Event event) {
+        if (queue == null) {
+            return;
+        }
+        try {
+            offer(CaptureRecord.encode(event, nowMicros()));
+        } catch (IOException e) {
+            // ByteArrayOutputStream への書き込みは失敗しない
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void reply(String replyToken, List<Message> messages) {
+        if (queue == null) {
+            return;
+        }
+        try {
+            offer(CaptureRecord.encodeReply(replyToken, messages, nowMicros()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void offer(byte[] record) {
+        if (record == null) {
+            return;
+        }
+        if (queue.offer(record)) {
+            captured.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    private void write() {
+        try {
+            while (running || !queue.isEmpty()) {
+                final byte[] record = queue.poll(FLUSH_NANOS, TimeUnit.NANOSECONDS);
+                if (record == null) {
+                    flush();
+                    continue;
+                }
+                append(record);
+                // 続けて来ている分はまとめて書く
+                byte[] next;
+                while ((next = queue.poll()) != null) {
+                    append(next);
+                }
+                flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            eventLog.failure("capture", "stopped: " + e);
+            running = false;
+            queue.clear();
+        } finally {
+            try {
+                flush();
+                if (segment != null) {
+                    segment.close();
+                }
+            } catch (IOException e) {
+                eventLog.failure("capture", "not closed cleanly: " + e);
+            }
+        }
+    }
+
+    private void append(byte[] record) throws IOException {
+        if (segment == null || segmentSize >= segmentBytes) {
+            openSegment();
+        }
+        if (buffer.remaining() < 4 + record.length) {
+            flush();
+        }
+        if (buffer.remaining() < 4 + record.length) {
+            // バッファより大きい記録はそのまま書く
+            final ByteBuffer large = ByteBuffer.allocate(4 + record.length);
+            large.putInt(record.length).put(record).flip();
+            writeFully(large);
+        } else {
+            buffer.putInt(record.length).put(record);
+        }
+        segmentSize += 4 + record.length;
+    }
+
+    private void openSegment() throws IOException {
+        flush();
+        if (segment != null) {
+            segment.close();
+        }
+        // 名前順が書いた順になる
+        final Path file = dir.resolve(String.format("%s%013d-%04d%s", SEGMENT_PREFIX, System.currentTimeMillis(),
+                                                    segmentCount++, SEGMENT_SUFFIX));
+        segment = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        buffer.putInt(MAGIC);
+        segmentSize = 4;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        if (segment != null) {
+            writeFully(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            segment.write(bytes);
+        }
+    }
+
+    /**
+     * Writes what is queued and closes the segment.
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    public long getCapturedCount() {
+        return captured.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public int getBacklog() {
+        return queue != null ? queue.size() : 0;
+    }
+}
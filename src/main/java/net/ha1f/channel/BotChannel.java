@@ -0,0 +1,93 @@
+package net.ha1f.channel;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.linecorp.bot.client.LineMessagingService;
+import com.linecorp.bot.client.LineSignatureValidator;
+import com.linecorp.bot.model.event.CallbackRequest;
+import com.linecorp.bot.servlet.LineBotCallbackException;
+import com.linecorp.bot.servlet.LineBotCallbackRequestParser;
+
+import net.ha1f.rule.ReloadableTextRules;
+import net.ha1f.rule.TextDecisionCache;
+
+/**
+ * One LINE channel served by the bot: its API client, the verifier of its webhook signatures and its rules.
+ * Channels with the same rules file hold the same {@link TextDecisionCache}.
+ */
+public final class BotChannel {
+
+    private final String name;
+    private final LineMessagingService client;
+    private final LineSignatureValidator validator;
+    private final LineBotCallbackRequestParser parser;
+    private final ReloadableTextRules rules;
+    private final TextDecisionCache decisions;
+
+    private final LongAdder events = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param validator {@code null} for the default channel, whose webhook is handled by line-bot-spring-boot
+     */
+    BotChannel(String name, LineMessagingService client, LineSignatureValidator validator,
+               ReloadableTextRules rules, TextDecisionCache decisions) {
+        this.name = name;
+        this.client = client;
+        this.validator = validator;
+        parser = validator != null ? new LineBotCallbackRequestParser(validator) : null;
+        this.rules = rules;
+        this.decisions = decisions;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isDefault() {
+        return validator == null;
+    }
+
+    public LineMessagingService getClient() {
+        return client;
+    }
+
+    public ReloadableTextRules getRules() {
+        return rules;
+    }
+
+    public TextDecisionCache getDecisions() {
+        return decisions;
+    }
+
+    /**
+     * Checks the signature of the body as received against the channel secret and reads the events.
+     */
+    CallbackRequest parse(String signature, byte[] body) throws LineBotCallbackException, IOException {
+        try {
+            if (signature == null || signature.isEmpty()) {
+                throw new LineBotCallbackException("Missing 'X-Line-Signature' header");
+            }
+            if (!validator.validateSignature(body, signature)) {
+                throw new LineBotCallbackException("Invalid API signature");
+            }
+            // 確かめたバイト列を UTF-8 で読む。UTF-8 として正しければ parser が確かめ直しても同じバイト列になる
+            final CallbackRequest request = parser.handle(signature, new String(body, StandardCharsets.UTF_8));
+            events.add(request.getEvents().size());
+            return request;
+        } catch (LineBotCallbackException | IOException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    public long getEventCount() {
+        return events.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
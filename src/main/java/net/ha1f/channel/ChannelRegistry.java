@@ -0,0 +1,153 @@
+package net.ha1f.channel;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import com.linecorp.bot.client.LineMessagingService;
+import com.linecorp.bot.client.LineMessagingServiceBuilder;
+import com.linecorp.bot.client.LineSignatureValidator;
+
+import net.ha1f.log.EventLog;
+import net.ha1f.rule.ReloadableTextRules;
+import net.ha1f.rule.SharedTextRuleEngines;
+import net.ha1f.rule.TextDecisionCache;
+
+/**
+ * The channels the bot serves. The default channel is the one of {@code line.bot.channel-token} and
+ * {@code line.bot.channel-secret}, answered at {@code /callback}. Each name in {@code ha1f.channels} adds a
+ * channel answered at {@code /channels/<name>/callback}, configured by
+ * {@code ha1f.channel.<name>.token}, {@code ha1f.channel.<name>.secret} and optionally
+ * {@code ha1f.channel.<name>.rules-file} (the default rules when empty).
+ * Every channel has its own API client with its own connection pool; channels naming the same rules file share
+ * one {@link ReloadableTextRules} and {@link TextDecisionCache}, and identical files share their compiled engine.
+ */
+@Component
+public class ChannelRegistry {
+
+    // 処理中のイベントがどのチャネルに届いたか。webhook のスレッドの上だけで使う
+    private static final ThreadLocal<BotChannel> CURRENT = new ThreadLocal<>();
+
+    private final BotChannel defaultChannel;
+    private final Map<String, BotChannel> channels = new LinkedHashMap<>();
+    private final Map<Path, BotChannel> byRulesFile = new HashMap<>();
+
+    @Autowired
+    public ChannelRegistry(Environment environment,
+                           LineMessagingService lineMessagingService,
+                           ReloadableTextRules textRules,
+                           TextDecisionCache textDecisions,
+                           SharedTextRuleEngines engines,
+                           EventLog eventLog,
+                           @Value("${ha1f.channels:}") String names,
+                           @Value("${line.bot.api-end-point:https://api.line.me/}") String apiEndPoint,
+                           @Value("${line.bot.connect-timeout:10000}") long connectTimeout,
+                           @Value("${line.bot.read-timeout:10000}") long readTimeout,
+                           @Value("${line.bot.write-timeout:10000}") long writeTimeout,
+                           @Value("${ha1f.rules.cache.enabled:true}") boolean cacheEnabled,
+                           @Value("${ha1f.rules.cache.size:4096}") long cacheSize,
+                           @Value("${ha1f.rules.cache.max-text-length:32}") int cacheMaxTextLength)
+            throws IOException {
+        defaultChannel = new BotChannel("default", lineMessagingService, null, textRules, textDecisions);
+        for (String name : names.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (channels.containsKey(name) || "default".equals(name)) {
+                throw new IllegalArgumentException("channel " + name + " is configured twice");
+            }
+            final String prefix = "ha1f.channel." + name + '.';
+            final LineMessagingService client =
+                    LineMessagingServiceBuilder.create(environment.getRequiredProperty(prefix + "token"))
+                                               .apiEndPoint(apiEndPoint)
+                                               .connectTimeout(connectTimeout)
+                                               .readTimeout(readTimeout)
+                                               .writeTimeout(writeTimeout)
+                                               .build();
+            final LineSignatureValidator validator = new LineSignatureValidator(
+                    environment.getRequiredProperty(prefix + "secret").getBytes(StandardCharsets.UTF_8));
+
+            final String rulesFile = environment.getProperty(prefix + "rules-file", "");
+            final Path file = rulesFile.isEmpty() ? null : Paths.get(rulesFile).toAbsolutePath().normalize();
+            final BotChannel sameRules = file != null ? byRulesFile.get(file) : null;
+            final BotChannel channel;
+            if (file == null) {
+                channel = new BotChannel(name, client, validator, textRules, textDecisions);
+            } else if (sameRules != null) {
+                channel = new BotChannel(name, client, validator, sameRules.getRules(), sameRules.getDecisions());
+            } else {
+                final ReloadableTextRules rules = new ReloadableTextRules(file.toString(), engines, eventLog);
+                rules.watch();
+                channel = new BotChannel(name, client, validator, rules,
+                                         new TextDecisionCache(rules, cacheEnabled, cacheSize, cacheMaxTextLength));
+                byRulesFile.put(file, channel);
+            }
+            channels.put(name, channel);
+        }
+    }
+
+    public BotChannel getDefault() {
+        return defaultChannel;
+    }
+
+    /**
+     * @return the channel served at {@code /channels/<name>/callback}, or {@code null}
+     */
+    public BotChannel get(String name) {
+        return channels.get(name);
+    }
+
+    /**
+     * @return the channels besides the default one, in configuration order
+     */
+    public Collection<BotChannel> getChannels() {
+        return Collections.unmodifiableCollection(channels.values());
+    }
+
+    /**
+     * The channel of the event being handled on this thread. Handlers read it before handing work to other
+     * threads.
+     */
+    public BotChannel current() {
+        final BotChannel channel = CURRENT.get();
+        return channel != null ? channel : defaultChannel;
+    }
+
+    /**
+     * Runs the handler of an event that arrived on {@code channel}.
+     */
+    public void handle(BotChannel channel, Handler handler) throws Exception {
+        CURRENT.set(channel);
+        try {
+            handler.handle();
+        } finally {
+            CURRENT.remove();
+        }
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+        void handle() throws Exception;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        for (BotChannel channel : byRulesFile.values()) {
+            channel.getRules().close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package net.ha1f.channel;
+
+import java.io.IOException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.linecorp.bot.model.event.CallbackRequest;
+import com.linecorp.bot.model.event.Event;
+import com.linecorp.bot.servlet.LineBotCallbackException;
+
+import net.ha1f.LinebotApplication;
+import net.ha1f.log.EventLog;
+
+/**
+ * Webhooks of the channels in {@code ha1f.channels}, at {@code /channels/<name>/callback}.
+ * The signature is checked with the secret of that channel and the events go to the same handlers as
+ * {@code /callback}, which reply through the client of that channel. As there, an event whose handler fails is
+ * recorded and the others are still handled.
+ */
+@RestController
+public class ChannelWebhookController {
+
+    private final ChannelRegistry channels;
+    private final LinebotApplication bot;
+    private final EventLog eventLog;
+
+    @Autowired
+    public ChannelWebhookController(ChannelRegistry channels, LinebotApplication bot, EventLog eventLog) {
+        this.channels = channels;
+        this.bot = bot;
+        this.eventLog = eventLog;
+    }
+
+    @PostMapping("/channels/{name}/callback")
+    public ResponseEntity<String> callback(@PathVariable("name") String name,
+                                           @RequestHeader(value = "X-Line-Signature", required = false)
+                                                   String signature,
+                                           @RequestBody byte[] body) {
+        final BotChannel channel = channels.get(name);
+        if (channel == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        final CallbackRequest request;
+        try {
+            request = channel.parse(signature, body);
+        } catch (LineBotCallbackException | IOException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        for (Event event : request.getEvents()) {
+            try {
+                channels.handle(channel, () -> bot.dispatch(event));
+            } catch (Exception e) {
+                // 一つのイベントの失敗で、残りのイベントまで LINE に送り直させない
+                eventLog.failure("channel", name + ": " + event.getClass().getSimpleName() + " failed: " + e);
+            }
+        }
+        return new ResponseEntity<>("OK", HttpStatus.OK);
+    }
+}
@@ -0,0 +1,83 @@
+package net.ha1f.conversation;
+
+/**
+ * What the bot remembers about one user, group or room. Immutable; {@link ConversationStore#update}
+ * replaces it with a changed copy.
+ */
+public final class Conversation {
+
+    public enum Kind {
+        USER,
+        GROUP,
+        ROOM
+    }
+
+    // ルール名はこれより長ければ切る
+    static final int MAX_RULE_LENGTH = 64;
+
+    private final Kind kind;
+    private final long firstSeenMillis;
+    private final long lastSeenMillis;
+    private final int messages;
+    private final String lastRule;
+    private final boolean member;
+
+    Conversation(Kind kind, long firstSeenMillis, long lastSeenMillis, int messages, String lastRule,
+                 boolean member) {
+        this.kind = kind;
+        this.firstSeenMillis = firstSeenMillis;
+        this.lastSeenMillis = lastSeenMillis;
+        this.messages = messages;
+        this.lastRule = lastRule == null || lastRule.length() <= MAX_RULE_LENGTH
+                        ? lastRule : lastRule.substring(0, MAX_RULE_LENGTH);
+        this.member = member;
+    }
+
+    static Conversation first(Kind kind, long nowMillis) {
+        return new Conversation(kind, nowMillis, nowMillis, 0, null, kind != Kind.USER);
+    }
+
+    /**
+     * A message arrived and was answered by {@code rule}.
+     */
+    public Conversation message(long nowMillis, String rule) {
+        return new Conversation(kind, firstSeenMillis, nowMillis, messages + 1, rule, kind != Kind.USER || member);
+    }
+
+    /**
+     * The bot left the group or room.
+     */
+    public Conversation left(long nowMillis) {
+        return new Conversation(kind, firstSeenMillis, nowMillis, messages, lastRule, false);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public long getFirstSeenMillis() {
+        return firstSeenMillis;
+    }
+
+    public long getLastSeenMillis() {
+        return lastSeenMillis;
+    }
+
+    public int getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the rule that answered the last message, or {@code null}
+     */
+    public String getLastRule() {
+        return lastRule;
+    }
+
+    /**
+     * @return whether the bot is in this group or room as far as it knows; always {@code false} for users
+     */
+    public boolean isMember() {
+        return member;
+    }
+}
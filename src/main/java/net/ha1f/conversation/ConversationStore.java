@@ -0,0 +1,439 @@
+package net.ha1f.conversation;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.linecorp.bot.model.event.source.GroupSource;
+import com.linecorp.bot.model.event.source.RoomSource;
+import com.linecorp.bot.model.event.source.Source;
+
+import net.ha1f.log.EventLog;
+
+/**
+ * Conversations keyed by user, group or room id, in {@code ha1f.conversation.stripes} independently locked
+ * stripes. Each stripe keeps its entries in update order, so the idle ones are at the head: they are swept
+ * after {@code ha1f.conversation.idle-minutes}, and the least recently updated one is evicted when the stripe
+ * holds its share of {@code ha1f.conversation.max-entries}.
+ * Handlers use {@link #previousRule} to follow up on the last reply when the next message comes within
+ * {@code ha1f.conversation.follow-up-minutes}.
+ * With {@code ha1f.conversation.snapshot-file} set, the store is written to a memory-mapped file every
+ * {@code ha1f.conversation.snapshot-seconds} and on shutdown, and read back on startup.
+ */
+@Component
+public class ConversationStore {
+
+    private static final int MAGIC = 0x434f4e56;
+    private static final int VERSION = 1;
+    // magic, version, count
+    private static final int HEADER_BYTES = 4 + 4 + 4;
+
+    private final Stripe[] stripes;
+    private final int mask;
+    private final long idleMillis;
+    private final long followUpMillis;
+    private final Path snapshotFile;
+    private final LongSupplier clock;
+    private final EventLog eventLog;
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private volatile int restoredCount;
+    private volatile long restoreMillis;
+    private volatile int snapshotCount;
+    private volatile long snapshotMillis;
+
+    @Autowired
+    public ConversationStore(@Value("${ha1f.conversation.stripes:64}") int stripes,
+                             @Value("${ha1f.conversation.max-entries:100000}") int maxEntries,
+                             @Value("${ha1f.conversation.idle-minutes:1440}") long idleMinutes,
+                             @Value("${ha1f.conversation.follow-up-minutes:30}") long followUpMinutes,
+                             @Value("${ha1f.conversation.snapshot-file:}") String snapshotFile,
+                             @Value("${ha1f.conversation.snapshot-seconds:60}") long snapshotSeconds,
+                             EventLog eventLog) {
+        this(stripes, maxEntries, TimeUnit.MINUTES.toMillis(idleMinutes), TimeUnit.MINUTES.toMillis(followUpMinutes),
+             snapshotFile.isEmpty() ? null : Paths.get(snapshotFile), System::currentTimeMillis, eventLog);
+        restore();
+        final long sweepMillis = Math.max(1000, Math.min(idleMillis / 4, TimeUnit.MINUTES.toMillis(1)));
+        scheduler.scheduleWithFixedDelay(this::sweep, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+        if (this.snapshotFile != null && snapshotSeconds > 0) {
+            scheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshotSeconds, snapshotSeconds,
+                                             TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Without background sweeps or snapshots; call {@link #sweep()}, {@link #snapshot()} and {@link #restore()}.
+     */
+    ConversationStore(int stripes, int maxEntries, long idleMillis, long followUpMillis, Path snapshotFile,
+                      LongSupplier clock, EventLog eventLog) {
+        final int count = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new Stripe[count];
+        final int perStripe = Math.max(1, maxEntries / count);
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe(perStripe);
+        }
+        this.mask = count - 1;
+        this.idleMillis = idleMillis;
+        this.followUpMillis = followUpMillis;
+        this.snapshotFile = snapshotFile;
+        this.clock = clock;
+        this.eventLog = eventLog;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "conversation-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private Stripe stripe(String id) {
+        final int hash = id.hashCode() * 0x9e3779b9;
+        return stripes[(hash ^ hash >>> 16) & mask];
+    }
+
+    private boolean expired(Conversation conversation, long now) {
+        return now - conversation.getLastSeenMillis() >= idleMillis;
+    }
+
+    public static Conversation.Kind kindOf(Source source) {
+        if (source instanceof GroupSource) {
+            return Conversation.Kind.GROUP;
+        }
+        if (source instanceof RoomSource) {
+            return Conversation.Kind.ROOM;
+        }
+        return Conversation.Kind.USER;
+    }
+
+    /**
+     * @return {@code null} if the bot has not heard from {@code id} within the idle time
+     */
+    public Conversation get(String id) {
+        final Stripe stripe = stripe(id);
+        final Conversation conversation;
+        synchronized (stripe) {
+            conversation = stripe.get(id);
+        }
+        if (conversation == null || expired(conversation, clock.getAsLong())) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return conversation;
+    }
+
+    /**
+     * @return the rule that answered the previous message of {@code id}, or {@code null} if there was none
+     *         within {@code ha1f.conversation.follow-up-minutes}
+     */
+    public String previousRule(String id) {
+        final Conversation conversation = get(id);
+        if (conversation == null || clock.getAsLong() - conversation.getLastSeenMillis() >= followUpMillis) {
+            return null;
+        }
+        return conversation.getLastRule();
+    }
+
+    /**
+     * Replaces the conversation with what {@code change} makes of it, starting from a new one if there is none.
+     *
+     * @param change runs under the stripe lock, so it should only build the new value
+     * @return the new conversation
+     */
+    public Conversation update(String id, Conversation.Kind kind, UnaryOperator<Conversation> change) {
+        final long now = clock.getAsLong();
+        final Stripe stripe = stripe(id);
+        synchronized (stripe) {
+            Conversation current = stripe.get(id);
+            if (current == null || expired(current, now)) {
+                current = Conversation.first(kind, now);
+            }
+            final Conversation updated = change.apply(current);
+            // 末尾に付け直して、先頭が一番古くなるようにする
+            stripe.remove(id);
+            stripe.put(id, updated);
+            return updated;
+        }
+    }
+
+    /**
+     * A message from {@code source} was answered by {@code rule}.
+     */
+    public Conversation message(Source source, String rule) {
+        final long now = clock.getAsLong();
+        return update(source.getSenderId(), kindOf(source), conversation -> conversation.message(now, rule));
+    }
+
+    /**
+     * The bot left the group or room of {@code source}.
+     */
+    public Conversation left(Source source) {
+        final long now = clock.getAsLong();
+        return update(source.getSenderId(), kindOf(source), conversation -> conversation.left(now));
+    }
+
+    public void forget(String id) {
+        final Stripe stripe = stripe(id);
+        synchronized (stripe) {
+            stripe.remove(id);
+        }
+    }
+
+    /**
+     * Drops the conversations idle for longer than {@code ha1f.conversation.idle-minutes}.
+     */
+    public void sweep() {
+        final long now = clock.getAsLong();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                final Iterator<Conversation> it = stripe.values().iterator();
+                while (it.hasNext() && expired(it.next(), now)) {
+                    it.remove();
+                    expirations.increment();
+                }
+            }
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            eventLog.failure("conversation", "snapshot failed: " + e);
+        }
+    }
+
+    /**
+     * Writes every live conversation to a temporary file through a memory mapping, then moves it over
+     * the snapshot file, so a crash while writing leaves the previous snapshot in place.
+     */
+    public void snapshot() throws IOException {
+        if (snapshotFile == null) {
+            return;
+        }
+        final long startedAt = System.nanoTime();
+        final long now = clock.getAsLong();
+        final List<String> ids = new ArrayList<>();
+        final List<Conversation> conversations = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            // 値は不変なので、ロックしている間は参照を集めるだけ
+            synchronized (stripe) {
+                stripe.forEach((id, conversation) -> {
+                    ids.add(id);
+                    conversations.add(conversation);
+                });
+            }
+        }
+        final List<byte[]> encodedIds = new ArrayList<>(ids.size());
+        final List<byte[]> encodedRules = new ArrayList<>(ids.size());
+        long size = HEADER_BYTES;
+        int count = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            final Conversation conversation = conversations.get(i);
+            if (expired(conversation, now)) {
+                encodedIds.add(null);
+                encodedRules.add(null);
+                continue;
+            }
+            final byte[] id = ids.get(i).getBytes(StandardCharsets.UTF_8);
+            final byte[] rule = conversation.getLastRule() == null
+                                ? null : conversation.getLastRule().getBytes(StandardCharsets.UTF_8);
+            encodedIds.add(id);
+            encodedRules.add(rule);
+            size += recordBytes(id, rule);
+            count++;
+        }
+
+        final Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(count);
+            for (int i = 0; i < ids.size(); i++) {
+                final byte[] id = encodedIds.get(i);
+                if (id != null) {
+                    write(buffer, id, conversations.get(i), encodedRules.get(i));
+                }
+            }
+            buffer.force();
+        }
+        Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshotCount = count;
+        snapshotMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+    }
+
+    // id の長さ, id, 種類, 参加中か, 最初と最後, 件数, ルール名の長さ, ルール名
+    private static int recordBytes(byte[] id, byte[] rule) {
+        return 2 + id.length + 1 + 1 + 8 + 8 + 4 + 2 + (rule == null ? 0 : rule.length);
+    }
+
+    private static void write(ByteBuffer buffer, byte[] id, Conversation conversation, byte[] rule) {
+        buffer.putShort((short) id.length).put(id)
+              .put((byte) conversation.getKind().ordinal())
+              .put((byte) (conversation.isMember() ? 1 : 0))
+              .putLong(conversation.getFirstSeenMillis())
+              .putLong(conversation.getLastSeenMillis())
+              .putInt(conversation.getMessages());
+        if (rule == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) rule.length).put(rule);
+        }
+    }
+
+    /**
+     * Loads the snapshot file, if there is one, skipping conversations that went idle in the meantime.
+     * A file that cannot be read is ignored and the store starts empty.
+     */
+    public void restore() {
+        if (snapshotFile == null) {
+            return;
+        }
+        final long startedAt = System.nanoTime();
+        final long now = clock.getAsLong();
+        int restored = 0;
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                eventLog.failure("conversation", "snapshot ignored: " + snapshotFile + " has an unknown format");
+                return;
+            }
+            final int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                final String id = readString(buffer);
+                final Conversation.Kind kind = Conversation.Kind.values()[buffer.get()];
+                final boolean member = buffer.get() != 0;
+                final long firstSeen = buffer.getLong();
+                final long lastSeen = buffer.getLong();
+                final int messages = buffer.getInt();
+                final String rule = readString(buffer);
+                final Conversation conversation = new Conversation(kind, firstSeen, lastSeen, messages, rule, member);
+                if (expired(conversation, now)) {
+                    continue;
+                }
+                final Stripe stripe = stripe(id);
+                synchronized (stripe) {
+                    stripe.put(id, conversation);
+                }
+                restored++;
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            eventLog.failure("conversation", "snapshot ignored after " + restored + " entries: " + e);
+        }
+        restoredCount = restored;
+        restoreMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        // 書いている途中の snapshot は待つ
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        snapshotQuietly();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    public int getRestoredCount() {
+        return restoredCount;
+    }
+
+    public long getRestoreMillis() {
+        return restoreMillis;
+    }
+
+    public int getSnapshotCount() {
+        return snapshotCount;
+    }
+
+    public long getSnapshotMillis() {
+        return snapshotMillis;
+    }
+
+    // 挿入順の LinkedHashMap。更新のたびに付け直すので、先頭が一番長く更新されていない
+    private final class Stripe extends LinkedHashMap<String, Conversation> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Stripe(int capacity) {
+            super(16, 0.75f, false);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Conversation> eldest) {
+            if (size() <= capacity) {
+                return false;
+            }
+            evictions.increment();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package net.ha1f.event;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.linecorp.bot.model.event.BeaconEvent;
+
+import net.ha1f.util.ExpiringLongSet;
+
+/**
+ * Greets a user at a beacon once per {@code ha1f.beacon.quiet-seconds}.
+ * Beacons send enter events in bursts; after the first enter of a user at a hardware id, further enters
+ * are absorbed until the quiet period from that first one ends. The pairs are kept in a fixed-size
+ * {@link ExpiringLongSet}, so a store with many beacons cannot grow it.
+ */
+@Component
+public class BeaconDebouncer {
+
+    private static final String ENTER = "enter";
+
+    private final boolean enabled;
+    private final ExpiringLongSet recent;
+    private final LongAdder enters = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+
+    @Autowired
+    public BeaconDebouncer(@Value("${ha1f.beacon.debounce:true}") boolean enabled,
+                           @Value("${ha1f.beacon.capacity:16384}") int capacity,
+                           @Value("${ha1f.beacon.quiet-seconds:300}") long quietSeconds) {
+        this(enabled, new ExpiringLongSet(capacity, 16, TimeUnit.SECONDS.toMillis(quietSeconds)));
+    }
+
+    BeaconDebouncer(boolean enabled, ExpiringLongSet recent) {
+        this.enabled = enabled;
+        this.recent = recent;
+    }
+
+    /**
+     * @return {@code false} if the event is a repeated enter that should get no reply
+     */
+    public boolean shouldReply(BeaconEvent event) {
+        if (event.getBeacon() == null || !ENTER.equals(event.getBeacon().getType())) {
+            return true;
+        }
+        enters.increment();
+        final String userId = event.getSource() != null ? event.getSource().getUserId() : null;
+        if (!enabled || recent.add(key(userId, event.getBeacon().getHwid()))) {
+            return true;
+        }
+        suppressed.increment();
+        return false;
+    }
+
+    static long key(String userId, String hwid) {
+        return EventDeduplicator.hash(EventDeduplicator.hash(EventDeduplicator.FNV_OFFSET, userId), hwid);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enter events seen, replied to or not.
+     */
+    public long getEnterCount() {
+        return enters.sum();
+    }
+
+    /**
+     * Enter events absorbed without a reply.
+     */
+    public long getSuppressedCount() {
+        return suppressed.sum();
+    }
+
+    /**
+     * Pairs forgotten before their quiet period ended because the set was full.
+     */
+    public long getEvictionCount() {
+        return recent.getEvictionCount();
+    }
+}
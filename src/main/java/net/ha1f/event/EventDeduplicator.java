@@ -0,0 +1,93 @@
+package net.ha1f.event;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.linecorp.bot.model.event.Event;
+import com.linecorp.bot.model.event.ReplyEvent;
+import com.linecorp.bot.model.event.source.Source;
+
+import net.ha1f.util.ExpiringLongSet;
+
+/**
+ * Drops webhook events LINE delivers again while the first delivery is still recent.
+ * An event is identified by a 64-bit hash of its reply token, timestamp, source and type,
+ * kept for {@code ha1f.dedup.ttl-seconds} in a fixed-size {@link ExpiringLongSet}.
+ */
+@Component
+public class EventDeduplicator {
+
+    static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final boolean enabled;
+    private final ExpiringLongSet seen;
+    private final LongAdder duplicates = new LongAdder();
+
+    @Autowired
+    public EventDeduplicator(@Value("${ha1f.dedup.enabled:true}") boolean enabled,
+                             @Value("${ha1f.dedup.capacity:65536}") int capacity,
+                             @Value("${ha1f.dedup.ttl-seconds:600}") long ttlSeconds) {
+        this(enabled, new ExpiringLongSet(capacity, 64, TimeUnit.SECONDS.toMillis(ttlSeconds)));
+    }
+
+    EventDeduplicator(boolean enabled, ExpiringLongSet seen) {
+        this.enabled = enabled;
+        this.seen = seen;
+    }
+
+    /**
+     * @return {@code true} the first time the event is seen, {@code false} for a redelivery
+     */
+    public boolean firstDelivery(Event event) {
+        if (!enabled || seen.add(identity(event))) {
+            return true;
+        }
+        duplicates.increment();
+        return false;
+    }
+
+    static long identity(Event event) {
+        long hash = FNV_OFFSET;
+        if (event instanceof ReplyEvent) {
+            hash = hash(hash, ((ReplyEvent) event).getReplyToken());
+        }
+        final Instant timestamp = event.getTimestamp();
+        hash = (hash ^ (timestamp != null ? timestamp.toEpochMilli() : 0L)) * FNV_PRIME;
+        final Source source = event.getSource();
+        if (source != null) {
+            hash = hash(hash, source.getSenderId());
+            hash = hash(hash, source.getUserId());
+        }
+        // 返信トークンのないイベントどうしを種類で区別する
+        return hash(hash, event.getClass().getName());
+    }
+
+    static long hash(long hash, String value) {
+        if (value == null) {
+            return hash * FNV_PRIME;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        // 区切り
+        return (hash ^ 0xffff) * FNV_PRIME;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    public long getEvictionCount() {
+        return seen.getEvictionCount();
+    }
+}
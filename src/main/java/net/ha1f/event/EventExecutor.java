@@ -0,0 +1,137 @@
+package net.ha1f.event;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.linecorp.bot.model.event.source.Source;
+
+import net.ha1f.log.EventLog;
+import net.ha1f.metrics.BotMetrics;
+
+/**
+ * Decides which thread handles an event once the webhook has accepted it.
+ * {@code CALLER} handles it on the Tomcat request thread as before. {@code POOL} and {@code VIRTUAL} hand it to
+ * a platform thread pool or to one virtual thread per event and return the webhook right away;
+ * blocking LINE API calls then also run there, see {@link #getBlockingExecutor()}.
+ * The pool waits with at most {@code ha1f.execution.queue-capacity} events; more are dropped, counted as
+ * rejected {@code events} and recorded in the {@link EventLog}, since their reply tokens would expire anyway.
+ * Virtual threads are looked up at runtime, so {@code VIRTUAL} needs the bot to run on Java 21 or later.
+ */
+@Component
+public class EventExecutor {
+
+    public enum Mode {
+        // リクエストのスレッドでそのまま処理する
+        CALLER,
+        // 固定数のスレッドで処理する
+        POOL,
+        // イベントごとに仮想スレッドで処理する (Java 21 以降)
+        VIRTUAL
+    }
+
+    private final SourceThrottle throttle;
+    private final EventLog eventLog;
+    private final BotMetrics metrics;
+    private final Mode mode;
+    private final ExecutorService executor;
+
+    @Autowired
+    public EventExecutor(SourceThrottle throttle, EventLog eventLog, BotMetrics metrics,
+                         @Value("${ha1f.execution.mode:CALLER}") Mode mode,
+                         @Value("${ha1f.execution.pool-size:64}") int poolSize,
+                         @Value("${ha1f.execution.queue-capacity:1024}") int queueCapacity) {
+        this.throttle = throttle;
+        this.eventLog = eventLog;
+        this.metrics = metrics;
+        this.mode = mode;
+        switch (mode) {
+            case CALLER:
+                executor = null;
+                break;
+            case POOL:
+                final AtomicInteger threads = new AtomicInteger();
+                // 溢れたら execute() が RejectedExecutionException を投げる
+                executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                                                  new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    final Thread thread = new Thread(runnable, "event-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                break;
+            case VIRTUAL:
+                executor = newVirtualThreadPerTaskExecutor();
+                break;
+            default:
+                throw new IllegalStateException("unknown execution mode: " + mode);
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("ha1f.execution.mode=VIRTUAL needs Java 21 or later, running on "
+                                            + System.getProperty("java.version"), e);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("cannot create virtual threads", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Handles the event through the {@link SourceThrottle} on the thread the mode calls for.
+     * In {@code CALLER} mode exceptions reach the caller; otherwise they are written to the {@link EventLog}.
+     */
+    public void dispatch(Source source, SourceThrottle.Handler handler) throws Exception {
+        if (executor == null) {
+            throttle.submit(source, handler);
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    throttle.submit(source, handler);
+                } catch (Exception e) {
+                    eventLog.failure("executor", "event handler failed: " + e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (executor.isShutdown()) {
+                eventLog.failure("executor", "event dropped on shutdown");
+            } else {
+                metrics.countRejected("events");
+                eventLog.failure("executor", "event dropped, queue is full");
+            }
+        }
+    }
+
+    /**
+     * Where blocking LINE API calls should run, or {@code null} to use Retrofit's asynchronous calls.
+     */
+    public ExecutorService getBlockingExecutor() {
+        return executor;
+    }
+}
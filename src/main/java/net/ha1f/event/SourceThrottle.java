@@ -0,0 +1,243 @@
+package net.ha1f.event;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.linecorp.bot.model.event.source.Source;
+
+import net.ha1f.log.EventLog;
+import net.ha1f.util.StripedRateLimiter;
+
+/**
+ * Keeps one busy chat from taking the threads and the reply quota of everyone else.
+ * Each sender (user, group or room) draws from a token bucket, and all senders together from a global one.
+ * An event over the limit is dropped, merged into the sender's next reply ({@code COALESCE}: only the
+ * latest waiting event is answered), or delayed until its turn ({@code DELAY}), within {@code max-delay-ms}.
+ * Off unless {@code ha1f.throttle.enabled=true}, since it changes which messages get a reply.
+ */
+@Component
+public class SourceThrottle {
+
+    public enum Excess {
+        // 返事をしない
+        DROP,
+        // 待っている間に来たものは最後の 1 件にだけ返事をする
+        COALESCE,
+        // 順番が来るまで待たせる
+        DELAY
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+        void handle() throws Exception;
+    }
+
+    private final boolean enabled;
+    private final StripedRateLimiter sources;
+    private final StripedRateLimiter global;
+    private final Excess excess;
+    private final long maxDelayNanos;
+    private final EventLog eventLog;
+    private final ScheduledExecutorService scheduler;
+
+    private final ConcurrentMap<String, Handler> pending = new ConcurrentHashMap<>();
+    // 制限にかかった送信元だけを数える。ID は外に出さない
+    private final Cache<String, LongAdder> throttledSources;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+
+    @Autowired
+    public SourceThrottle(@Value("${ha1f.throttle.enabled:false}") boolean enabled,
+                          @Value("${ha1f.throttle.source-rate:1.0}") double sourceRate,
+                          @Value("${ha1f.throttle.source-burst:5}") int sourceBurst,
+                          @Value("${ha1f.throttle.global-rate:0}") double globalRate,
+                          @Value("${ha1f.throttle.global-burst:100}") int globalBurst,
+                          @Value("${ha1f.throttle.stripes:4096}") int stripes,
+                          @Value("${ha1f.throttle.excess:COALESCE}") Excess excess,
+                          @Value("${ha1f.throttle.max-delay-ms:5000}") long maxDelayMillis,
+                          EventLog eventLog) {
+        this(enabled, new StripedRateLimiter(stripes, sourceRate, sourceBurst),
+             new StripedRateLimiter(1, globalRate, globalBurst), excess, maxDelayMillis, eventLog);
+    }
+
+    SourceThrottle(boolean enabled, StripedRateLimiter sources, StripedRateLimiter global,
+                   Excess excess, long maxDelayMillis, EventLog eventLog) {
+        this.enabled = enabled;
+        this.sources = sources;
+        this.global = global;
+        this.excess = excess;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.eventLog = eventLog;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "source-throttle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        throttledSources = CacheBuilder.newBuilder()
+                                       .maximumSize(1000)
+                                       .expireAfterAccess(1, TimeUnit.HOURS)
+                                       .build();
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Runs the handler now if the source is within its rate, otherwise applies the excess policy.
+     * Exceptions of a handler run now are thrown to the caller.
+     */
+    public void submit(Source source, Handler handler) throws Exception {
+        final String key = source != null ? source.getSenderId() : null;
+        if (!enabled || key == null) {
+            handler.handle();
+            return;
+        }
+        final int hash = key.hashCode();
+        if (excess == Excess.COALESCE && pending.containsKey(key)) {
+            coalesce(key, handler);
+            return;
+        }
+        if (tryAcquire(hash)) {
+            admitted.increment();
+            handler.handle();
+            return;
+        }
+        count(key);
+        switch (excess) {
+            case DROP:
+                dropped.increment();
+                break;
+            case COALESCE:
+                coalesce(key, handler);
+                break;
+            case DELAY:
+                final long wait = reserve(hash);
+                if (wait < 0) {
+                    dropped.increment();
+                } else {
+                    delayed.increment();
+                    scheduler.schedule(() -> run(handler), wait, TimeUnit.NANOSECONDS);
+                }
+                break;
+            default:
+                throw new IllegalStateException("unknown excess policy: " + excess);
+        }
+    }
+
+    private boolean tryAcquire(int hash) {
+        if (!sources.tryAcquire(hash)) {
+            return false;
+        }
+        if (global.tryAcquire(0)) {
+            return true;
+        }
+        // 受け付けなかったイベントの分は送信元に返す
+        sources.release(hash);
+        return false;
+    }
+
+    private void coalesce(String key, Handler handler) {
+        if (pending.put(key, handler) != null) {
+            // 前に待っていたものは返事をしないまま置き換える
+            coalesced.increment();
+            return;
+        }
+        final long wait = reserve(key.hashCode());
+        if (wait < 0) {
+            pending.remove(key, handler);
+            dropped.increment();
+            return;
+        }
+        delayed.increment();
+        scheduler.schedule(() -> {
+            final Handler latest = pending.remove(key);
+            if (latest != null) {
+                run(latest);
+            }
+        }, wait, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Reserves a later permit from both buckets, or none if either is too far away.
+     */
+    private long reserve(int hash) {
+        final long sourceWait = sources.reserve(hash, maxDelayNanos);
+        if (sourceWait < 0) {
+            return -1L;
+        }
+        final long globalWait = global.reserve(0, maxDelayNanos);
+        if (globalWait < 0) {
+            sources.release(hash);
+            return -1L;
+        }
+        return Math.max(sourceWait, globalWait);
+    }
+
+    private void run(Handler handler) {
+        try {
+            handler.handle();
+        } catch (Exception e) {
+            eventLog.failure("throttle", "delayed handler failed: " + e);
+        }
+    }
+
+    private void count(String key) {
+        try {
+            throttledSources.get(key, LongAdder::new).increment();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getDelayedCount() {
+        return delayed.sum();
+    }
+
+    /**
+     * @return how many sources went over the limit within the last hour
+     */
+    public long getThrottledSourceCount() {
+        return throttledSources.size();
+    }
+
+    /**
+     * @return the most events over the limit from one of those sources
+     */
+    public long getMaxThrottledPerSource() {
+        long max = 0;
+        for (LongAdder count : throttledSources.asMap().values()) {
+            max = Math.max(max, count.sum());
+        }
+        return max;
+    }
+}
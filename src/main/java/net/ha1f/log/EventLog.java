@@ -0,0 +1,359 @@
+package net.ha1f.log;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.linecorp.bot.model.event.Event;
+import com.linecorp.bot.model.event.MessageEvent;
+import com.linecorp.bot.model.event.ReplyEvent;
+import com.linecorp.bot.model.event.source.Source;
+import com.linecorp.bot.model.response.BotApiResponse;
+
+/**
+ * Writes events and API responses as JSON lines without making request threads wait on the output.
+ * Request threads fill a slot of a pre-allocated ring and return; a single {@code event-log-writer}
+ * thread formats the slots in order and writes them to stdout.
+ * When the ring is full the entry is dropped, or with {@code ha1f.log.overflow=BLOCK} the caller waits
+ * at most {@code ha1f.log.block-timeout-ms} before dropping it.
+ */
+@Component
+public class EventLog {
+
+    public enum Overflow {
+        // 捨てて数える
+        DROP,
+        // 空きが出るまで少し待つ
+        BLOCK
+    }
+
+    private enum Kind {
+        EVENT,
+        RESPONSE,
+        FAILURE
+    }
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Slot[] slots;
+    private final int mask;
+    private final Overflow overflow;
+    private final long blockTimeoutNanos;
+    private final Writer writer;
+
+    // 次に書き込む枠と、次に読み出す枠の通し番号
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final StringBuilder line = new StringBuilder(256);
+
+    private volatile boolean running;
+    private Thread consumer;
+
+    @Autowired
+    public EventLog(@Value("${ha1f.log.capacity:8192}") int capacity,
+                    @Value("${ha1f.log.overflow:DROP}") Overflow overflow,
+                    @Value("${ha1f.log.block-timeout-ms:100}") long blockTimeoutMillis) {
+        this(capacity, overflow, blockTimeoutMillis, new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 1 << 16));
+    }
+
+    EventLog(int capacity, Overflow overflow, long blockTimeoutMillis, Writer writer) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("ha1f.log.capacity out of range: " + capacity);
+        }
+        final int size = ceilingPowerOfTwo(capacity);
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        mask = size - 1;
+        this.overflow = overflow;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        this.writer = writer;
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        final int highest = Integer.highestOneBit(value);
+        return highest == value ? value : highest << 1;
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        consumer = new Thread(this::drainLoop, "event-log-writer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Stops the writer after everything already logged has been written.
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+            consumer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    public void event(Event event) {
+        final Slot slot = claim();
+        if (slot == null) {
+            return;
+        }
+        slot.kind = Kind.EVENT;
+        slot.type = event instanceof MessageEvent && ((MessageEvent<?>) event).getMessage() != null
+                    ? ((MessageEvent<?>) event).getMessage().getClass().getSimpleName()
+                    : event.getClass().getSimpleName();
+        final Source source = event.getSource();
+        slot.source = source != null ? source.getClass().getSimpleName() : null;
+        slot.sourceId = source != null ? source.getSenderId() : null;
+        slot.replyToken = event instanceof ReplyEvent ? ((ReplyEvent) event).getReplyToken() : null;
+        final Instant timestamp = event.getTimestamp();
+        slot.eventTime = timestamp != null ? timestamp.toEpochMilli() : -1L;
+        publish(slot);
+    }
+
+    /**
+     * @param startedAt {@link System#nanoTime()} when the call was made
+     */
+    public void response(String replyToken, long startedAt, BotApiResponse response) {
+        final long elapsed = System.nanoTime() - startedAt;
+        final Slot slot = claim();
+        if (slot == null) {
+            return;
+        }
+        slot.kind = Kind.RESPONSE;
+        slot.replyToken = replyToken;
+        slot.latencyNanos = elapsed;
+        slot.message = response != null ? response.getMessage() : null;
+        publish(slot);
+    }
+
+    public void failure(String replyToken, long startedAt, Throwable error) {
+        final long elapsed = System.nanoTime() - startedAt;
+        final Slot slot = claim();
+        if (slot == null) {
+            return;
+        }
+        slot.kind = Kind.FAILURE;
+        slot.replyToken = replyToken;
+        slot.latencyNanos = elapsed;
+        slot.message = String.valueOf(error);
+        publish(slot);
+    }
+
+    /**
+     * Records a failure that is not the answer to an API call, such as a background task giving up.
+     *
+     * @param component what failed, for example {@code media} or {@code broadcast}
+     */
+    public void failure(String component, String error) {
+        final Slot slot = claim();
+        if (slot == null) {
+            return;
+        }
+        slot.kind = Kind.FAILURE;
+        slot.component = component;
+        slot.message = error;
+        publish(slot);
+    }
+
+    private Slot claim() {
+        long deadline = 0L;
+        while (true) {
+            final long sequence = claimed.get();
+            if (sequence - consumed.get() >= slots.length) {
+                if (overflow == Overflow.DROP || !running) {
+                    dropped.increment();
+                    return null;
+                }
+                final long now = System.nanoTime();
+                if (deadline == 0L) {
+                    deadline = now + blockTimeoutNanos;
+                } else if (now - deadline >= 0) {
+                    dropped.increment();
+                    return null;
+                }
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                continue;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                final Slot slot = slots[(int) sequence & mask];
+                slot.claimedSequence = sequence;
+                slot.time = System.currentTimeMillis();
+                return slot;
+            }
+        }
+    }
+
+    private static void publish(Slot slot) {
+        slot.published = slot.claimedSequence;
+    }
+
+    private void drainLoop() {
+        while (true) {
+            final boolean stopping = !running;
+            final int drained = drain();
+            if (drained == 0) {
+                if (stopping) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Writes every published entry in order and flushes once caught up.
+     */
+    int drain() {
+        int count = 0;
+        long next = consumed.get();
+        while (true) {
+            final Slot slot = slots[(int) next & mask];
+            if (slot.published != next) {
+                break;
+            }
+            format(slot);
+            slot.clear();
+            consumed.lazySet(++next);
+            try {
+                writer.append(line);
+            } catch (IOException e) {
+                // 書けないログは捨てる
+                dropped.increment();
+            }
+            count++;
+        }
+        if (count > 0) {
+            written.add(count);
+            try {
+                writer.flush();
+            } catch (IOException ignored) {
+                // 次の flush でまた試す
+            }
+        }
+        return count;
+    }
+
+    private void format(Slot slot) {
+        line.setLength(0);
+        line.append("{\"time\":").append(slot.time)
+            .append(",\"kind\":\"").append(slot.kind.name().toLowerCase()).append('"');
+        if (slot.kind == Kind.EVENT) {
+            string("type", slot.type);
+            string("source", slot.source);
+            string("sourceId", slot.sourceId);
+            string("replyToken", slot.replyToken);
+            if (slot.eventTime >= 0) {
+                line.append(",\"eventTime\":").append(slot.eventTime);
+            }
+        } else if (slot.component != null) {
+            string("component", slot.component);
+            string("error", slot.message);
+        } else {
+            string("replyToken", slot.replyToken);
+            line.append(",\"latencyMicros\":").append(TimeUnit.NANOSECONDS.toMicros(slot.latencyNanos));
+            string(slot.kind == Kind.FAILURE ? "error" : "message", slot.message);
+        }
+        line.append("}\n");
+    }
+
+    private void string(String name, String value) {
+        if (value == null) {
+            return;
+        }
+        line.append(",\"").append(name).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    public long getBacklog() {
+        return claimed.get() - consumed.get();
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    private static final class Slot {
+        // 書き終えた通し番号。読み出し側はこれを見てから他のフィールドを読む
+        volatile long published = -1L;
+        long claimedSequence;
+        long time;
+        Kind kind;
+        String type;
+        String source;
+        String sourceId;
+        String replyToken;
+        String component;
+        long eventTime;
+        long latencyNanos;
+        String message;
+
+        private void clear() {
+            kind = null;
+            type = null;
+            source = null;
+            sourceId = null;
+            replyToken = null;
+            component = null;
+            message = null;
+        }
+    }
+}
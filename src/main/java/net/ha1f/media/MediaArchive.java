@@ -0,0 +1,348 @@
+package net.ha1f.media;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.linecorp.bot.client.LineMessagingService;
+
+import net.ha1f.log.EventLog;
+import net.ha1f.metrics.BotMetrics;
+import net.ha1f.util.LongObjectMap;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Keeps the content of image, video and audio messages.
+ * Each download runs on one of {@code ha1f.media.concurrency} threads and is streamed through a fixed
+ * direct buffer of that thread into a single append-only data file, so no content is held in heap.
+ * When the size is known the region is reserved up front and downloads write side by side with positional writes
+ * ({@link FileChannel#transferFrom} cannot write past the end of the file, where reserved regions usually are);
+ * otherwise the content is spooled to a temporary file with {@link FileChannel#transferFrom} first.
+ * Once the content is on disk a fixed-size record (message id, offset, size, kind) is appended to the index,
+ * so the index never points at a partial download.
+ */
+@Component
+public class MediaArchive {
+
+    public enum Kind {
+        IMAGE,
+        VIDEO,
+        AUDIO
+    }
+
+    static final String DATA_FILE = "media.dat";
+    static final String INDEX_FILE = "media.idx";
+    // message id, offset, size, kind
+    static final int RECORD_BYTES = 8 + 8 + 8 + 1;
+    // 一度に transferFrom する上限
+    private static final long CHUNK_BYTES = 1 << 20;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    // download するスレッドは決まった数しかない
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_BYTES));
+
+    private final Function<String, Call<ResponseBody>> content;
+    private final BotMetrics metrics;
+    private final EventLog eventLog;
+    private final Path dir;
+    private final ThreadPoolExecutor executor;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final AtomicLong end;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder archived = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    @Autowired
+    public MediaArchive(LineMessagingService lineMessagingService,
+                        BotMetrics metrics,
+                        EventLog eventLog,
+                        @Value("${ha1f.media.enabled:false}") boolean enabled,
+                        @Value("${ha1f.media.dir:media}") String dir,
+                        @Value("${ha1f.media.concurrency:4}") int concurrency,
+                        @Value("${ha1f.media.queue-capacity:256}") int queueCapacity) {
+        this(lineMessagingService::getMessageContent, metrics, eventLog, enabled ? Paths.get(dir) : null,
+             concurrency, queueCapacity);
+    }
+
+    /**
+     * @param dir {@code null} to archive nothing
+     */
+    MediaArchive(Function<String, Call<ResponseBody>> content, BotMetrics metrics, EventLog eventLog, Path dir,
+                 int concurrency, int queueCapacity) {
+        this.content = content;
+        this.metrics = metrics;
+        this.eventLog = eventLog;
+        this.dir = dir;
+        if (dir == null) {
+            executor = null;
+            data = null;
+            index = null;
+            end = null;
+            return;
+        }
+        try {
+            Files.createDirectories(dir);
+            data = FileChannel.open(dir.resolve(DATA_FILE), StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            index = FileChannel.open(dir.resolve(INDEX_FILE), StandardOpenOption.CREATE,
+                                     StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            // 途中で止まった download の領域は捨てる
+            end = new AtomicLong(data.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open media archive in " + dir, e);
+        }
+        executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            final Thread thread = new Thread(runnable, "media-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    /**
+     * Queues the download of a message's content and returns at once.
+     *
+     * @return {@code false} if archiving is disabled or the queue is full
+     */
+    public boolean archive(String messageId, Kind kind) {
+        return archive(content, messageId, kind);
+    }
+
+    /**
+     * Downloads with the client of another channel.
+     */
+    public boolean archive(LineMessagingService client, String messageId, Kind kind) {
+        return archive(client::getMessageContent, messageId, kind);
+    }
+
+    private boolean archive(Function<String, Call<ResponseBody>> content, String messageId, Kind kind) {
+        if (executor == null) {
+            return false;
+        }
+        try {
+            executor.execute(() -> download(content, messageId, kind));
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return false;
+        }
+    }
+
+    private void download(Function<String, Call<ResponseBody>> content, String messageId, Kind kind) {
+        inFlight.incrementAndGet();
+        final long startedAt = System.nanoTime();
+        boolean success = false;
+        try {
+            final long id = Long.parseLong(messageId);
+            final Response<ResponseBody> response = content.apply(messageId).execute();
+            if (!response.isSuccessful()) {
+                if (response.errorBody() != null) {
+                    response.errorBody().close();
+                }
+                throw new IOException("HTTP " + response.code() + ' ' + response.message());
+            }
+            try (ResponseBody body = response.body();
+                 ReadableByteChannel in = Channels.newChannel(body.byteStream())) {
+                final long length = body.contentLength();
+                final long[] region = length >= 0 ? writeReserved(in, length) : writeSpooled(in);
+                writeIndex(id, region[0], region[1], kind);
+                bytes.add(region[1]);
+            }
+            archived.increment();
+            success = true;
+        } catch (Exception e) {
+            failed.increment();
+            eventLog.failure("media", messageId + " not archived: " + e);
+        } finally {
+            metrics.recordApiCall("content", System.nanoTime() - startedAt, success);
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return offset and size
+     */
+    private long[] writeReserved(ReadableByteChannel in, long length) throws IOException {
+        final long offset = end.getAndAdd(length);
+        final long size = copy(in, data, offset, length);
+        if (size != length) {
+            throw new IOException("expected " + length + " bytes, got " + size);
+        }
+        return new long[] { offset, size };
+    }
+
+    private long[] writeSpooled(ReadableByteChannel in) throws IOException {
+        final Path spool = Files.createTempFile(dir, "download", ".tmp");
+        try (FileChannel temp = FileChannel.open(spool, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                                 StandardOpenOption.DELETE_ON_CLOSE)) {
+            final long size = spool(in, temp);
+            final long offset = end.getAndAdd(size);
+            temp.position(0);
+            if (copy(temp, data, offset, size) != size) {
+                throw new IOException("spool file " + spool + " shrank");
+            }
+            return new long[] { offset, size };
+        }
+    }
+
+    private static long spool(ReadableByteChannel in, FileChannel temp) throws IOException {
+        long size = 0;
+        long n;
+        while ((n = temp.transferFrom(in, size, CHUNK_BYTES)) > 0) {
+            size += n;
+        }
+        return size;
+    }
+
+    /**
+     * Copies up to {@code limit} bytes from {@code in} to {@code out} at {@code position}.
+     *
+     * @return the number of bytes copied, less than {@code limit} if {@code in} ended first
+     */
+    private static long copy(ReadableByteChannel in, FileChannel out, long position, long limit)
+            throws IOException {
+        final ByteBuffer buffer = BUFFER.get();
+        long copied = 0;
+        while (copied < limit) {
+            buffer.clear();
+            if (limit - copied < buffer.capacity()) {
+                buffer.limit((int) (limit - copied));
+            }
+            if (in.read(buffer) < 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                copied += out.write(buffer, position + copied);
+            }
+        }
+        return copied;
+    }
+
+    private void writeIndex(long messageId, long offset, long size, Kind kind) throws IOException {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        record.putLong(messageId).putLong(offset).putLong(size).put((byte) kind.ordinal()).flip();
+        synchronized (index) {
+            while (record.hasRemaining()) {
+                index.write(record);
+            }
+        }
+    }
+
+    /**
+     * Reads an index file. When a message was archived more than once the last copy wins.
+     */
+    public static LongObjectMap<Entry> readIndex(Path indexFile) throws IOException {
+        final byte[] bytes = Files.readAllBytes(indexFile);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final LongObjectMap<Entry> entries = new LongObjectMap<>(bytes.length / RECORD_BYTES);
+        // 書きかけの末尾は読まない
+        while (buffer.remaining() >= RECORD_BYTES) {
+            final long messageId = buffer.getLong();
+            final long offset = buffer.getLong();
+            final long size = buffer.getLong();
+            final Kind kind = Kind.values()[buffer.get()];
+            entries.put(messageId, new Entry(messageId, offset, size, kind));
+        }
+        return entries;
+    }
+
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        // interrupt すると FileChannel が閉じてしまうので、終わるのを待つ
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        data.close();
+        index.close();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getQueueDepth() {
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    public long getArchivedCount() {
+        return archived.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public static final class Entry {
+        private final long messageId;
+        private final long offset;
+        private final long size;
+        private final Kind kind;
+
+        Entry(long messageId, long offset, long size, Kind kind) {
+            this.messageId = messageId;
+            this.offset = offset;
+            this.size = size;
+            this.kind = kind;
+        }
+
+        public long getMessageId() {
+            return messageId;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package net.ha1f.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Counters and latency histograms of the bot, recorded without locks on the request path.
+ * Names are a small fixed set (handlers, API endpoints, rule names, known sticker packs),
+ * so the maps stop growing after warm-up and lookups are plain concurrent reads.
+ */
+@Component
+public class BotMetrics {
+
+    private final ConcurrentMap<String, LatencyHistogram> handlers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> apiCalls = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> apiErrors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> rules = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> stickerPacks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> rejected = new ConcurrentHashMap<>();
+
+    private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> map, String name) {
+        final LatencyHistogram histogram = map.get(name);
+        return histogram != null ? histogram : map.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    private static LongAdder counter(ConcurrentMap<String, LongAdder> map, String name) {
+        final LongAdder counter = map.get(name);
+        return counter != null ? counter : map.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    public void recordHandler(String handler, long nanos) {
+        histogram(handlers, handler).record(nanos);
+    }
+
+    /**
+     * @param endpoint "reply", "leave", ...
+     */
+    public void recordApiCall(String endpoint, long nanos, boolean success) {
+        histogram(apiCalls, endpoint).record(nanos);
+        if (!success) {
+            counter(apiErrors, endpoint).increment();
+        }
+    }
+
+    public void countRule(String rule) {
+        counter(rules, rule).increment();
+    }
+
+    public void countStickerPack(String packageId) {
+        counter(stickerPacks, packageId).increment();
+    }
+
+    /**
+     * @param queue the bounded queue that was full, e.g. "events"
+     */
+    public void countRejected(String queue) {
+        counter(rejected, queue).increment();
+    }
+
+    public Map<String, Map<String, Number>> getHandlers() {
+        return summaries(handlers);
+    }
+
+    public Map<String, Map<String, Number>> getApiCalls() {
+        final Map<String, Map<String, Number>> result = summaries(apiCalls);
+        result.forEach((endpoint, summary) -> summary.put("errors", counter(apiErrors, endpoint).sum()));
+        return result;
+    }
+
+    public Map<String, Long> getRules() {
+        return counts(rules);
+    }
+
+    public Map<String, Long> getStickerPacks() {
+        return counts(stickerPacks);
+    }
+
+    public Map<String, Long> getRejected() {
+        return counts(rejected);
+    }
+
+    private static Map<String, Map<String, Number>> summaries(Map<String, LatencyHistogram> histograms) {
+        final Map<String, Map<String, Number>> result = new TreeMap<>();
+        histograms.forEach((name, histogram) -> result.put(name, histogram.summary()));
+        return result;
+    }
+
+    private static Map<String, Long> counts(Map<String, LongAdder> counters) {
+        final Map<String, Long> result = new TreeMap<>();
+        counters.forEach((name, counter) -> result.put(name, counter.sum()));
+        return result;
+    }
+}
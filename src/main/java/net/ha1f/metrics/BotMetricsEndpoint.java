@@ -0,0 +1,279 @@
+package net.ha1f.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import net.ha1f.broadcast.BroadcastEngine;
+import net.ha1f.broadcast.FollowerRegistry;
+import net.ha1f.capture.EventCapture;
+import net.ha1f.channel.BotChannel;
+import net.ha1f.channel.ChannelRegistry;
+import net.ha1f.conversation.ConversationStore;
+import net.ha1f.event.BeaconDebouncer;
+import net.ha1f.event.EventDeduplicator;
+import net.ha1f.event.SourceThrottle;
+import net.ha1f.log.EventLog;
+import net.ha1f.media.MediaArchive;
+import net.ha1f.reply.ApiResilience;
+import net.ha1f.reply.LeavePipeline;
+import net.ha1f.reply.ReplyDispatcher;
+import net.ha1f.rule.SharedTextRuleEngines;
+import net.ha1f.rule.TextDecisionCache;
+import net.ha1f.startup.LazyInfrastructure;
+import net.ha1f.startup.StartupWarmer;
+
+/**
+ * Exposes {@link BotMetrics} and the outbound queue at {@code /bot}, and as flat values under {@code /metrics}.
+ * Like the other actuator endpoints it is sensitive unless {@code endpoints.bot.sensitive=false}.
+ */
+@Component
+@ConfigurationProperties(prefix = "endpoints.bot")
+public class BotMetricsEndpoint extends AbstractEndpoint<Map<String, Object>> implements PublicMetrics {
+
+    private final BotMetrics metrics;
+    private final ReplyDispatcher replyDispatcher;
+    private final TextDecisionCache textDecisions;
+    private final EventLog eventLog;
+    private final EventDeduplicator deduplicator;
+    private final SourceThrottle throttle;
+    private final LeavePipeline leavePipeline;
+    private final ApiResilience resilience;
+    private final MediaArchive mediaArchive;
+    private final ConversationStore conversations;
+    private final BeaconDebouncer beaconDebouncer;
+    private final FollowerRegistry followers;
+    private final BroadcastEngine broadcasts;
+    private final EventCapture capture;
+    private final ChannelRegistry channels;
+    private final SharedTextRuleEngines engines;
+    private final StartupWarmer warmer;
+    private final LazyInfrastructure lazyInfrastructure;
+
+    @Autowired
+    public BotMetricsEndpoint(BotMetrics metrics, ReplyDispatcher replyDispatcher,
+                              TextDecisionCache textDecisions, EventLog eventLog,
+                              EventDeduplicator deduplicator, SourceThrottle throttle,
+                              LeavePipeline leavePipeline, ApiResilience resilience,
+                              MediaArchive mediaArchive, ConversationStore conversations,
+                              BeaconDebouncer beaconDebouncer, FollowerRegistry followers,
+                              BroadcastEngine broadcasts, EventCapture capture,
+                              ChannelRegistry channels, SharedTextRuleEngines engines,
+                              StartupWarmer warmer, LazyInfrastructure lazyInfrastructure) {
+        super("bot");
+        this.metrics = metrics;
+        this.replyDispatcher = replyDispatcher;
+        this.textDecisions = textDecisions;
+        this.eventLog = eventLog;
+        this.deduplicator = deduplicator;
+        this.throttle = throttle;
+        this.leavePipeline = leavePipeline;
+        this.resilience = resilience;
+        this.mediaArchive = mediaArchive;
+        this.conversations = conversations;
+        this.beaconDebouncer = beaconDebouncer;
+        this.followers = followers;
+        this.broadcasts = broadcasts;
+        this.capture = capture;
+        this.channels = channels;
+        this.engines = engines;
+        this.warmer = warmer;
+        this.lazyInfrastructure = lazyInfrastructure;
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("startup", startup());
+        result.put("handlers", metrics.getHandlers());
+        result.put("api", metrics.getApiCalls());
+        result.put("resilience", resilience.getEndpoints());
+        result.put("queue", queue(replyDispatcher));
+        result.put("rejected", metrics.getRejected());
+        result.put("broadcastQueue", queue(broadcasts.getDispatcher()));
+        result.put("leave", leave());
+        result.put("media", media());
+        result.put("rules", metrics.getRules());
+        result.put("ruleEngines", ruleEngines());
+        final Map<String, Object> channels = new LinkedHashMap<>();
+        this.channels.getChannels().forEach(channel -> channels.put(channel.getName(), channel(channel)));
+        result.put("channels", channels);
+        result.put("stickerPacks", metrics.getStickerPacks());
+        result.put("decisionCache", decisionCache());
+        result.put("conversations", conversations());
+        result.put("log", log());
+        result.put("capture", capture());
+        result.put("dedup", dedup());
+        result.put("beacon", beacon());
+        result.put("throttle", throttle());
+        result.put("followers", followers.size());
+        final List<Map<String, Object>> recent = new ArrayList<>();
+        broadcasts.getRecent().forEach(broadcast -> recent.add(broadcast.toMap()));
+        result.put("broadcasts", recent);
+        return result;
+    }
+
+    private Map<String, Number> startup() {
+        final Map<String, Number> startup = new LinkedHashMap<>();
+        startup.put("readyMillis", warmer.getReadyMillis());
+        startup.put("warmMillis", warmer.getWarmMillis());
+        startup.put("lazyBeans", lazyInfrastructure.getLazyCount());
+        return startup;
+    }
+
+    private static Map<String, Number> queue(ReplyDispatcher dispatcher) {
+        final Map<String, Number> queue = new LinkedHashMap<>();
+        queue.put("depth", dispatcher.getQueueDepth());
+        queue.put("inFlight", dispatcher.getInFlight());
+        queue.put("completed", dispatcher.getCompletedCount());
+        queue.put("failed", dispatcher.getFailedCount());
+        queue.put("rejected", dispatcher.getRejectedCount());
+        return queue;
+    }
+
+    private Map<String, Number> leave() {
+        final Map<String, Number> leave = new LinkedHashMap<>();
+        leave.put("pending", leavePipeline.getPendingCount());
+        leave.put("completed", leavePipeline.getCompletedCount());
+        leave.put("failed", leavePipeline.getFailedCount());
+        leave.put("farewellFailures", leavePipeline.getFarewellFailureCount());
+        return leave;
+    }
+
+    private Map<String, Number> media() {
+        final Map<String, Number> media = new LinkedHashMap<>();
+        media.put("queued", mediaArchive.getQueueDepth());
+        media.put("inFlight", mediaArchive.getInFlight());
+        media.put("archived", mediaArchive.getArchivedCount());
+        media.put("failed", mediaArchive.getFailedCount());
+        media.put("rejected", mediaArchive.getRejectedCount());
+        media.put("bytes", mediaArchive.getBytes());
+        return media;
+    }
+
+    private Map<String, Number> ruleEngines() {
+        final Map<String, Number> engines = new LinkedHashMap<>();
+        engines.put("compiled", this.engines.getCompiledCount());
+        engines.put("shared", this.engines.getSharedCount());
+        return engines;
+    }
+
+    private static Map<String, Number> channel(BotChannel channel) {
+        final Map<String, Number> values = new LinkedHashMap<>();
+        values.put("events", channel.getEventCount());
+        values.put("rejected", channel.getRejectedCount());
+        values.put("rulesVersion", channel.getRules().getVersion());
+        values.put("decisionCacheSize", channel.getDecisions().size());
+        return values;
+    }
+
+    private Map<String, Number> decisionCache() {
+        final Map<String, Number> cache = new LinkedHashMap<>();
+        cache.put("hits", textDecisions.getHitCount());
+        cache.put("misses", textDecisions.getMissCount());
+        cache.put("evictions", textDecisions.getEvictionCount());
+        cache.put("size", textDecisions.size());
+        return cache;
+    }
+
+    private Map<String, Number> conversations() {
+        final Map<String, Number> conversations = new LinkedHashMap<>();
+        conversations.put("size", this.conversations.size());
+        conversations.put("hits", this.conversations.getHitCount());
+        conversations.put("misses", this.conversations.getMissCount());
+        conversations.put("evictions", this.conversations.getEvictionCount());
+        conversations.put("expirations", this.conversations.getExpirationCount());
+        conversations.put("snapshotEntries", this.conversations.getSnapshotCount());
+        conversations.put("snapshotMillis", this.conversations.getSnapshotMillis());
+        conversations.put("restoredEntries", this.conversations.getRestoredCount());
+        conversations.put("restoreMillis", this.conversations.getRestoreMillis());
+        return conversations;
+    }
+
+    private Map<String, Number> log() {
+        final Map<String, Number> log = new LinkedHashMap<>();
+        log.put("written", eventLog.getWrittenCount());
+        log.put("dropped", eventLog.getDroppedCount());
+        log.put("backlog", eventLog.getBacklog());
+        log.put("capacity", eventLog.getCapacity());
+        return log;
+    }
+
+    private Map<String, Number> capture() {
+        final Map<String, Number> capture = new LinkedHashMap<>();
+        capture.put("captured", this.capture.getCapturedCount());
+        capture.put("dropped", this.capture.getDroppedCount());
+        capture.put("backlog", this.capture.getBacklog());
+        return capture;
+    }
+
+    private Map<String, Number> dedup() {
+        final Map<String, Number> dedup = new LinkedHashMap<>();
+        dedup.put("duplicates", deduplicator.getDuplicateCount());
+        dedup.put("evictions", deduplicator.getEvictionCount());
+        return dedup;
+    }
+
+    private Map<String, Number> beacon() {
+        final Map<String, Number> beacon = new LinkedHashMap<>();
+        beacon.put("enters", beaconDebouncer.getEnterCount());
+        beacon.put("suppressed", beaconDebouncer.getSuppressedCount());
+        beacon.put("evictions", beaconDebouncer.getEvictionCount());
+        return beacon;
+    }
+
+    private Map<String, Number> throttle() {
+        final Map<String, Number> throttle = new LinkedHashMap<>();
+        throttle.put("admitted", this.throttle.getAdmittedCount());
+        throttle.put("delayed", this.throttle.getDelayedCount());
+        throttle.put("coalesced", this.throttle.getCoalescedCount());
+        throttle.put("dropped", this.throttle.getDroppedCount());
+        throttle.put("throttledSources", this.throttle.getThrottledSourceCount());
+        throttle.put("maxPerSource", this.throttle.getMaxThrottledPerSource());
+        return throttle;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> result = new ArrayList<>();
+        metrics.getHandlers().forEach((name, summary) -> add(result, "bot.handler." + name, summary));
+        metrics.getApiCalls().forEach((name, summary) -> add(result, "bot.api." + name, summary));
+        resilience.getEndpoints().forEach((name, values) -> values.forEach((key, value) -> {
+            if (value instanceof Number) {
+                result.add(new Metric<>("bot.resilience." + name + '.' + key, (Number) value));
+            }
+        }));
+        add(result, "bot.startup", startup());
+        add(result, "bot.queue", queue(replyDispatcher));
+        metrics.getRejected().forEach((name, count) -> result.add(new Metric<>("bot.rejected." + name, count)));
+        add(result, "bot.broadcast-queue", queue(broadcasts.getDispatcher()));
+        add(result, "bot.leave", leave());
+        add(result, "bot.media", media());
+        metrics.getRules().forEach((name, count) -> result.add(new Metric<>("bot.rule." + name, count)));
+        metrics.getStickerPacks().forEach((name, count) -> result.add(new Metric<>("bot.sticker." + name, count)));
+        add(result, "bot.rule-engines", ruleEngines());
+        channels.getChannels().forEach(channel -> add(result, "bot.channel." + channel.getName(), channel(channel)));
+        add(result, "bot.decision-cache", decisionCache());
+        add(result, "bot.conversations", conversations());
+        add(result, "bot.log", log());
+        add(result, "bot.capture", capture());
+        add(result, "bot.dedup", dedup());
+        add(result, "bot.beacon", beacon());
+        add(result, "bot.throttle", throttle());
+        result.add(new Metric<>("bot.followers", followers.size()));
+        return result;
+    }
+
+    private static void add(List<Metric<?>> result, String prefix, Map<String, Number> values) {
+        values.forEach((name, value) -> result.add(new Metric<>(prefix + '.' + name, value)));
+    }
+}
@@ -0,0 +1,89 @@
+package net.ha1f.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with power-of-two microsecond buckets.
+ * Recording only increments {@link LongAdder}s, so it never blocks and scales with writer threads;
+ * percentiles are therefore accurate to within a factor of two.
+ */
+public final class LatencyHistogram {
+
+    // 1us 未満から 2^31us (約 36 分) まで
+    private static final int BUCKETS = 33;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Long::max, 0L);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        final long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+        buckets[bucket(micros)].increment();
+        count.increment();
+        totalMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    private static int bucket(long micros) {
+        return Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Upper bound of the bucket in microseconds.
+     */
+    private static long upperBound(int bucket) {
+        return bucket == 0 ? 0L : (1L << bucket) - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return upper bound in microseconds of the bucket holding the quantile, or 0 if nothing was recorded
+     */
+    public long percentileMicros(double quantile) {
+        final long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0L;
+        }
+        final long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    public Map<String, Number> summary() {
+        final long count = getCount();
+        final Map<String, Number> summary = new LinkedHashMap<>();
+        summary.put("count", count);
+        summary.put("meanMicros", count == 0 ? 0L : totalMicros.sum() / count);
+        summary.put("p50Micros", percentileMicros(0.5));
+        summary.put("p99Micros", percentileMicros(0.99));
+        summary.put("p999Micros", percentileMicros(0.999));
+        summary.put("maxMicros", maxMicros.get());
+        return summary;
+    }
+}
@@ -0,0 +1,186 @@
+package net.ha1f.reply;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Timeouts, circuit breakers and retries of LINE API calls, per endpoint ("reply", "leave", ...).
+ * Only calls that are safe to repeat are retried: any call that was never sent (queue full, connection refused,
+ * 429), and for the endpoints listed in {@code ha1f.api.retry.idempotent} also server errors and timeouts.
+ * A reply is never repeated once it may have reached LINE, since its token is used up.
+ */
+@Component
+public class ApiResilience {
+
+    private final long defaultTimeoutMillis;
+    private final Map<String, Long> timeouts;
+    private final Set<String> idempotent;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public ApiResilience(@Value("${ha1f.api.timeout-ms:10000}") long defaultTimeoutMillis,
+                         @Value("${ha1f.api.timeouts:reply:5000,leave:5000}") String timeouts,
+                         @Value("${ha1f.api.retry.idempotent:leave}") String idempotent,
+                         @Value("${ha1f.api.retry.max-attempts:3}") int maxAttempts,
+                         @Value("${ha1f.api.retry.backoff-ms:200}") long backoffMillis,
+                         @Value("${ha1f.api.breaker.failure-threshold:5}") int failureThreshold,
+                         @Value("${ha1f.api.breaker.open-ms:10000}") long openMillis) {
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.timeouts = parseTimeouts(timeouts);
+        this.idempotent = idempotent.trim().isEmpty()
+                          ? Collections.emptySet()
+                          : new HashSet<>(Arrays.asList(idempotent.trim().split("\\s*,\\s*")));
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "api-resilience");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * No timeouts, no retries and breakers that never open.
+     */
+    public static ApiResilience none() {
+        return new ApiResilience(0, "", "", 1, 0, 0, 0);
+    }
+
+    private static Map<String, Long> parseTimeouts(String value) {
+        final Map<String, Long> result = new HashMap<>();
+        for (String entry : value.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            final String[] pair = entry.split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("ha1f.api.timeouts expects endpoint:millis, got " + entry);
+            }
+            result.put(pair[0].trim(), Long.parseLong(pair[1].trim()));
+        }
+        return result;
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    Endpoint endpoint(String name) {
+        final Endpoint endpoint = endpoints.get(name);
+        return endpoint != null ? endpoint : endpoints.computeIfAbsent(name, Endpoint::new);
+    }
+
+    /**
+     * @return {@code null} if the endpoint has no timeout
+     */
+    ScheduledFuture<?> scheduleTimeout(Endpoint endpoint, Runnable onTimeout) {
+        if (endpoint.timeoutMillis <= 0) {
+            return null;
+        }
+        return scheduler.schedule(onTimeout, endpoint.timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    boolean shouldRetry(Endpoint endpoint, Throwable error, int attempt) {
+        if (attempt >= maxAttempts) {
+            return false;
+        }
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+        if (cause instanceof CircuitOpenException) {
+            return false;
+        }
+        if (cause instanceof RejectedExecutionException
+            || cause instanceof ConnectException || cause instanceof UnknownHostException) {
+            // 送っていない
+            return true;
+        }
+        if (cause instanceof LineApiException) {
+            final LineApiException apiError = (LineApiException) cause;
+            return apiError.getStatus() == 429 || endpoint.idempotent && apiError.isTransient();
+        }
+        return endpoint.idempotent && (cause instanceof IOException || cause instanceof TimeoutException);
+    }
+
+    /**
+     * Schedules the retry after an exponential backoff with full jitter, so calls that failed together
+     * do not come back together.
+     *
+     * @return {@code false} if shutting down
+     */
+    boolean scheduleRetry(Endpoint endpoint, int attempt, Runnable retry) {
+        endpoint.retries.increment();
+        final long base = backoffMillis << Math.min(attempt - 1, 16);
+        final long delay = ThreadLocalRandom.current().nextLong(base + 1);
+        try {
+            scheduler.schedule(retry, delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    public Map<String, Map<String, Object>> getEndpoints() {
+        final Map<String, Map<String, Object>> result = new TreeMap<>();
+        endpoints.forEach((name, endpoint) -> {
+            final Map<String, Object> values = new LinkedHashMap<>();
+            values.put("breaker", endpoint.breaker.getState().name());
+            values.put("breakerOpened", endpoint.breaker.getOpenedCount());
+            values.put("breakerRejected", endpoint.breaker.getRejectedCount());
+            values.put("timeouts", endpoint.timeouts.sum());
+            values.put("retries", endpoint.retries.sum());
+            result.put(name, values);
+        });
+        return result;
+    }
+
+    final class Endpoint {
+        final String name;
+        final long timeoutMillis;
+        final boolean idempotent;
+        final CircuitBreaker breaker;
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder retries = new LongAdder();
+
+        private Endpoint(String name) {
+            this.name = name;
+            timeoutMillis = ApiResilience.this.timeouts.getOrDefault(name, defaultTimeoutMillis);
+            idempotent = ApiResilience.this.idempotent.contains(name);
+            breaker = new CircuitBreaker(failureThreshold, openMillis);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package net.ha1f.reply;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Fails calls fast while an endpoint keeps failing.
+ * After {@code failureThreshold} failures in a row the breaker opens and rejects calls for {@code openMillis};
+ * then one trial call is let through, and its outcome closes the breaker or opens it again.
+ * Every permitted call must be followed by exactly one of {@link #onSuccess()}, {@link #onFailure()}
+ * or {@link #release()}.
+ */
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        // 試しの 1 件だけ通している
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAt;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+
+    /**
+     * @param failureThreshold 0 or less to never open
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this(failureThreshold, openMillis, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, long openMillis, LongSupplier nanoClock) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    public boolean tryAcquire() {
+        final State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN && nanoClock.getAsLong() - openedAt >= openNanos
+            && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        if (state.get() != State.CLOSED) {
+            state.set(State.CLOSED);
+        }
+    }
+
+    public void onFailure() {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        if (state.get() == State.HALF_OPEN || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openedAt = nanoClock.getAsLong();
+            consecutiveFailures.set(0);
+            if (state.getAndSet(State.OPEN) != State.OPEN) {
+                opened.increment();
+            }
+        }
+    }
+
+    /**
+     * The permitted call was not made; the next call may be the trial instead.
+     */
+    public void release() {
+        state.compareAndSet(State.HALF_OPEN, State.OPEN);
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getOpenedCount() {
+        return opened.sum();
+    }
+}
@@ -0,0 +1,15 @@
+package net.ha1f.reply;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The call was not made because the {@link CircuitBreaker} of its endpoint is open.
+ */
+public class CircuitOpenException extends RejectedExecutionException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String endpoint) {
+        super("circuit breaker of " + endpoint + " is open");
+    }
+}
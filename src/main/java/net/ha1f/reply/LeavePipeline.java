@@ -0,0 +1,126 @@
+package net.ha1f.reply;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.linecorp.bot.model.response.BotApiResponse;
+
+import net.ha1f.log.EventLog;
+
+import retrofit2.Call;
+
+/**
+ * Leaves a group or room after the farewell reply, chained on the reply instead of waiting for it.
+ * A failed farewell does not stop the leave. The leave call is retried by {@link ApiResilience}
+ * when {@code leave} is listed in {@code ha1f.api.retry.idempotent}, since leaving twice does no harm.
+ * On shutdown, leaves already accepted are given {@code ha1f.leave.drain-timeout-ms} to finish, and new ones are
+ * refused before their farewell is sent.
+ */
+@Component
+public class LeavePipeline {
+
+    private final ReplyDispatcher replyDispatcher;
+    private final EventLog eventLog;
+    private final long drainTimeoutMillis;
+
+    private final Set<CompletableFuture<BotApiResponse>> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder farewellFailures = new LongAdder();
+
+    @Autowired
+    public LeavePipeline(ReplyDispatcher replyDispatcher, EventLog eventLog,
+                         @Value("${ha1f.leave.drain-timeout-ms:10000}") long drainTimeoutMillis) {
+        this.replyDispatcher = replyDispatcher;
+        this.eventLog = eventLog;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+    }
+
+    /**
+     * @param farewell sends the farewell reply; only called if the leave is accepted
+     * @param leaveCall leaveGroup or leaveRoom, not yet executed
+     * @return completes with the response of the leave call, or {@code null} if shutting down, in which case
+     *         neither the farewell nor the leave call is sent
+     */
+    public CompletableFuture<BotApiResponse> leave(Supplier<? extends CompletableFuture<?>> farewell,
+                                                   Call<BotApiResponse> leaveCall) {
+        if (closed) {
+            return null;
+        }
+        final CompletableFuture<BotApiResponse> result = new CompletableFuture<>();
+        pending.add(result);
+        // close() が待つ一覧を取ったあとに入ったものは取り消す
+        if (closed) {
+            pending.remove(result);
+            return null;
+        }
+        result.whenComplete((response, error) -> {
+            pending.remove(result);
+            if (error != null) {
+                failed.increment();
+            } else {
+                completed.increment();
+            }
+        });
+        farewell.get().whenComplete((response, error) -> {
+            if (error != null) {
+                farewellFailures.increment();
+            }
+            replyDispatcher.dispatch("leave", leaveCall).whenComplete((left, leaveError) -> {
+                if (leaveError != null) {
+                    result.completeExceptionally(leaveError);
+                } else {
+                    result.complete(left);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Stops accepting leaves and waits for the accepted ones, retries included.
+     * Spring destroys this before {@link ReplyDispatcher} and {@link ApiResilience}, so retries still run meanwhile.
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        closed = true;
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+                             .get(drainTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // 失敗したものは数えてある
+        } catch (TimeoutException e) {
+            eventLog.failure("leave", pending.size() + " leaves not finished on shutdown");
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getFarewellFailureCount() {
+        return farewellFailures.sum();
+    }
+}
@@ -0,0 +1,29 @@
+package net.ha1f.reply;
+
+import java.io.IOException;
+
+/**
+ * The LINE API answered with an unsuccessful status.
+ */
+public class LineApiException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public LineApiException(int status, String message) {
+        super("LINE API responded " + status + ' ' + message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Whether trying again later can succeed: rate limited or a server error.
+     */
+    public boolean isTransient() {
+        return status == 429 || status >= 500;
+    }
+}
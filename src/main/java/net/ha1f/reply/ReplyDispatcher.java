@@ -0,0 +1,317 @@
+package net.ha1f.reply;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.linecorp.bot.client.LineMessagingService;
+import com.linecorp.bot.model.ReplyMessage;
+import com.linecorp.bot.model.message.Message;
+import com.linecorp.bot.model.response.BotApiResponse;
+
+import net.ha1f.event.EventExecutor;
+import net.ha1f.metrics.BotMetrics;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Sends LINE API calls without holding the webhook thread.
+ * Calls wait in a bounded queue and at most {@code ha1f.reply.concurrency} of them are in flight,
+ * each one enqueued on Retrofit and completed from its callback.
+ * When the queue is full the call is rejected or the caller waits, depending on {@code ha1f.reply.overflow}.
+ * Outside {@link EventExecutor.Mode#CALLER} mode calls run blocking on the event executor instead,
+ * which is not bound by the connection limits of Retrofit's own dispatcher.
+ * Timeouts, circuit breakers and retries come from {@link ApiResilience}; the concurrency limit is the bulkhead.
+ */
+@Component
+public class ReplyDispatcher {
+
+    public enum Overflow {
+        // すぐに RejectedExecutionException で失敗させる
+        REJECT,
+        // 空きが出るまで呼び出し元を待たせる
+        BLOCK
+    }
+
+    private final LineMessagingService lineMessagingService;
+    private final BotMetrics metrics;
+    private final ApiResilience resilience;
+    private final BlockingQueue<Task<?>> queue;
+    private final Semaphore inFlight;
+    private final int concurrency;
+    private final Overflow overflow;
+    private final long offerTimeoutMillis;
+    private final Executor blockingExecutor;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    @Autowired
+    public ReplyDispatcher(LineMessagingService lineMessagingService,
+                           BotMetrics metrics,
+                           ApiResilience resilience,
+                           EventExecutor eventExecutor,
+                           @Value("${ha1f.reply.concurrency:8}") int concurrency,
+                           @Value("${ha1f.reply.queue-capacity:1024}") int queueCapacity,
+                           @Value("${ha1f.reply.overflow:REJECT}") Overflow overflow,
+                           @Value("${ha1f.reply.offer-timeout-ms:1000}") long offerTimeoutMillis) {
+        this(lineMessagingService, metrics, resilience, concurrency, queueCapacity, overflow, offerTimeoutMillis,
+             eventExecutor.getBlockingExecutor());
+    }
+
+    public ReplyDispatcher(LineMessagingService lineMessagingService, BotMetrics metrics,
+                           int concurrency, int queueCapacity, Overflow overflow, long offerTimeoutMillis) {
+        this(lineMessagingService, metrics, ApiResilience.none(), concurrency, queueCapacity, overflow,
+             offerTimeoutMillis, null);
+    }
+
+    /**
+     * A dispatcher of its own with the same resilience, such as the bulkhead of broadcasts, so that its calls do not
+     * take the queue and the concurrency of replies. Calls are always enqueued on Retrofit.
+     */
+    public ReplyDispatcher(LineMessagingService lineMessagingService, BotMetrics metrics, ApiResilience resilience,
+                           int concurrency, int queueCapacity, Overflow overflow, long offerTimeoutMillis) {
+        this(lineMessagingService, metrics, resilience, concurrency, queueCapacity, overflow, offerTimeoutMillis,
+             null);
+    }
+
+    /**
+     * @param blockingExecutor runs each call with {@link Call#execute()}, or {@code null} to use {@link Call#enqueue}
+     */
+    ReplyDispatcher(LineMessagingService lineMessagingService, BotMetrics metrics, ApiResilience resilience,
+                    int concurrency, int queueCapacity, Overflow overflow, long offerTimeoutMillis,
+                    Executor blockingExecutor) {
+        this.lineMessagingService = lineMessagingService;
+        this.metrics = metrics;
+        this.resilience = resilience;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.inFlight = new Semaphore(concurrency);
+        this.concurrency = concurrency;
+        this.overflow = overflow;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.blockingExecutor = blockingExecutor;
+    }
+
+    public CompletableFuture<BotApiResponse> reply(String replyToken, List<Message> messages) {
+        return reply(lineMessagingService, replyToken, messages);
+    }
+
+    /**
+     * Replies through the client of another channel. The queue and the concurrency limit are shared by all
+     * channels.
+     */
+    public CompletableFuture<BotApiResponse> reply(LineMessagingService client, String replyToken,
+                                                   List<Message> messages) {
+        return dispatch("reply", client.replyMessage(new ReplyMessage(replyToken, messages)));
+    }
+
+    public <T> CompletableFuture<T> dispatch(Call<T> call) {
+        return dispatch("call", call);
+    }
+
+    /**
+     * Queues the call. The returned future completes from the Retrofit callback, exceptionally on
+     * an I/O error, with {@link LineApiException} on an unsuccessful response, or with
+     * {@link RejectedExecutionException} when the queue is full.
+     *
+     * @param endpoint name the latency and errors of the call are recorded under, e.g. "reply" or "leave"
+     */
+    public <T> CompletableFuture<T> dispatch(String endpoint, Call<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        submit(new Task<>(resilience.endpoint(endpoint), call, future, 1));
+        return future;
+    }
+
+    private void submit(Task<?> task) {
+        if (!task.endpoint.breaker.tryAcquire()) {
+            task.fail(new CircuitOpenException(task.endpoint.name));
+            return;
+        }
+        if (!offer(task)) {
+            rejected.increment();
+            task.endpoint.breaker.release();
+            task.retryOrFail(new RejectedExecutionException("reply queue is full (" + queue.size() + ')'));
+            return;
+        }
+        drain();
+    }
+
+    private boolean offer(Task<?> task) {
+        if (overflow == Overflow.REJECT) {
+            return queue.offer(task);
+        }
+        try {
+            return queue.offer(task, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void drain() {
+        while (!queue.isEmpty() && inFlight.tryAcquire()) {
+            final Task<?> task = queue.poll();
+            if (task == null) {
+                inFlight.release();
+                continue;
+            }
+            task.start();
+        }
+    }
+
+    private void finished() {
+        inFlight.release();
+        drain();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getInFlight() {
+        return concurrency - inFlight.availablePermits();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    private final class Task<T> implements Callback<T> {
+        private final ApiResilience.Endpoint endpoint;
+        private final Call<T> call;
+        private final CompletableFuture<T> future;
+        private final int attempt;
+        private final AtomicBoolean settled = new AtomicBoolean();
+        private volatile ScheduledFuture<?> timeout;
+        private long startedAt;
+
+        private Task(ApiResilience.Endpoint endpoint, Call<T> call, CompletableFuture<T> future, int attempt) {
+            this.endpoint = endpoint;
+            this.call = call;
+            this.future = future;
+            this.attempt = attempt;
+        }
+
+        private void start() {
+            startedAt = System.nanoTime();
+            timeout = resilience.scheduleTimeout(endpoint, this::onTimeout);
+            try {
+                if (blockingExecutor != null) {
+                    blockingExecutor.execute(this::execute);
+                } else {
+                    call.enqueue(this);
+                }
+            } catch (RuntimeException e) {
+                onFailure(call, e);
+            }
+        }
+
+        private void execute() {
+            final Response<T> response;
+            try {
+                response = call.execute();
+            } catch (Throwable t) {
+                onFailure(call, t);
+                return;
+            }
+            onResponse(call, response);
+        }
+
+        /**
+         * Ends this attempt once, whichever of response, failure or timeout comes first.
+         */
+        private boolean settle(boolean success) {
+            if (!settled.compareAndSet(false, true)) {
+                return false;
+            }
+            final ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            metrics.recordApiCall(endpoint.name, System.nanoTime() - startedAt, success);
+            finished();
+            return true;
+        }
+
+        @Override
+        public void onResponse(Call<T> call, Response<T> response) {
+            if (!settle(response.isSuccessful())) {
+                return;
+            }
+            if (response.isSuccessful()) {
+                endpoint.breaker.onSuccess();
+                completed.increment();
+                future.complete(response.body());
+                return;
+            }
+            final LineApiException error = new LineApiException(response.code(), response.message());
+            if (error.isTransient()) {
+                endpoint.breaker.onFailure();
+            } else {
+                // 4xx は API が動いている証拠
+                endpoint.breaker.onSuccess();
+            }
+            retryOrFail(error);
+        }
+
+        @Override
+        public void onFailure(Call<T> call, Throwable t) {
+            if (!settle(false)) {
+                return;
+            }
+            endpoint.breaker.onFailure();
+            retryOrFail(t);
+        }
+
+        private void onTimeout() {
+            if (!settle(false)) {
+                return;
+            }
+            endpoint.timeouts.increment();
+            call.cancel();
+            endpoint.breaker.onFailure();
+            retryOrFail(new TimeoutException(endpoint.name + " timed out after " + endpoint.timeoutMillis + "ms"));
+        }
+
+        private void retryOrFail(Throwable error) {
+            if (resilience.shouldRetry(endpoint, error, attempt)
+                && resilience.scheduleRetry(endpoint, attempt, () -> submit(
+                    new Task<>(endpoint, call.clone(), future, attempt + 1)))) {
+                return;
+            }
+            fail(error);
+        }
+
+        private void fail(Throwable error) {
+            // 送らなかったものは rejected として数えてある
+            if (!(error instanceof RejectedExecutionException)) {
+                failed.increment();
+            }
+            future.completeExceptionally(error);
+        }
+    }
+}
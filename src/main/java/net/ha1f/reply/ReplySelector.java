@@ -0,0 +1,108 @@
+package net.ha1f.reply;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import net.ha1f.rule.ReplyDecision;
+
+/**
+ * Picks one of the candidate replies with a per-thread generator.
+ * With rotation enabled, each conversation remembers a fingerprint of its last few replies in a single
+ * {@code long} and avoids repeating them while other candidates remain.
+ * The conversations are kept in a size-bounded cache and updated with compare-and-set only.
+ */
+@Component
+public class ReplySelector {
+
+    private static final String[] SUFFIXES = { "！", "〜", "〜〜", "！！", "〜！" };
+
+    // 16 bit の指紋を 4 つまで覚える
+    private static final int REMEMBERED = 4;
+    private static final int FINGERPRINT_BITS = 16;
+    private static final long FINGERPRINT_MASK = (1L << FINGERPRINT_BITS) - 1;
+
+    private final Cache<String, AtomicLong> recent;
+
+    @Autowired
+    public ReplySelector(@Value("${ha1f.reply.rotation.enabled:true}") boolean rotation,
+                         @Value("${ha1f.reply.rotation.sources:10000}") long sources,
+                         @Value("${ha1f.reply.rotation.idle-minutes:60}") long idleMinutes) {
+        recent = rotation ? CacheBuilder.newBuilder()
+                                        .maximumSize(sources)
+                                        .expireAfterAccess(idleMinutes, TimeUnit.MINUTES)
+                                        .build()
+                          : null;
+    }
+
+    /**
+     * The candidate to send, with a random suffix if the decision asks for one.
+     */
+    public String compose(String sourceId, ReplyDecision decision) {
+        final String text = choose(sourceId, decision.getCandidates());
+        return decision.isRandomized() ? randomized(text) : text;
+    }
+
+    public String randomized(String text) {
+        return text + SUFFIXES[ThreadLocalRandom.current().nextInt(SUFFIXES.length)];
+    }
+
+    public String choose(List<String> candidates) {
+        return candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+    }
+
+    public String choose(String sourceId, List<String> candidates) {
+        final int size = candidates.size();
+        if (recent == null || sourceId == null || size == 1 || size > Integer.SIZE) {
+            return choose(candidates);
+        }
+        final AtomicLong history = recent.asMap().computeIfAbsent(sourceId, id -> new AtomicLong());
+        final long remembered = history.get();
+
+        // 新しい順に、候補が残る限り最近送ったものを除く
+        int allowed = size == Integer.SIZE ? -1 : (1 << size) - 1;
+        for (int r = 0; r < REMEMBERED; r++) {
+            final long fingerprint = (remembered >>> (r * FINGERPRINT_BITS)) & FINGERPRINT_MASK;
+            if (fingerprint == 0) {
+                break;
+            }
+            int without = allowed;
+            for (int i = 0; i < size; i++) {
+                if (fingerprint(candidates.get(i)) == fingerprint) {
+                    without &= ~(1 << i);
+                }
+            }
+            if (without == 0) {
+                break;
+            }
+            allowed = without;
+        }
+
+        final String chosen = candidates.get(nthSetBit(allowed, ThreadLocalRandom.current()
+                                                                          .nextInt(Integer.bitCount(allowed))));
+        // 競合したら他方の記録を優先してよい
+        history.compareAndSet(remembered, remembered << FINGERPRINT_BITS | fingerprint(chosen));
+        return chosen;
+    }
+
+    private static long fingerprint(String candidate) {
+        final int hash = candidate.hashCode();
+        final long fingerprint = (hash ^ hash >>> FINGERPRINT_BITS) & FINGERPRINT_MASK;
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private static int nthSetBit(int bits, int n) {
+        for (int i = 0; i < n; i++) {
+            bits &= bits - 1;
+        }
+        return Integer.numberOfTrailingZeros(bits);
+    }
+}
@@ -0,0 +1,32 @@
+package net.ha1f.rule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * The reply rules of はるふ bundled as {@code reply-rules.json}, in priority order.
+ */
+public final class DefaultTextRules {
+
+    static final String RESOURCE = "/reply-rules.json";
+
+    private DefaultTextRules() {
+    }
+
+    public static TextRuleEngine engine() {
+        return TextRuleEngine.builder().addAll(rules()).build();
+    }
+
+    public static List<TextRule> rules() {
+        try (InputStream input = DefaultTextRules.class.getResourceAsStream(RESOURCE)) {
+            if (input == null) {
+                throw new IllegalStateException(RESOURCE + " not found");
+            }
+            return new TextRuleParser().parse(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
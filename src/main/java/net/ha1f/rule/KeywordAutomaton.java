@@ -0,0 +1,185 @@
+package net.ha1f.rule;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import net.ha1f.text.TextNormalizer;
+
+/**
+ * Aho-Corasick automaton over keyword groups.
+ * One pass over the text yields, as group bitmasks, which groups occur anywhere in the text,
+ * which groups contain a suffix of the text and which groups contain the whole text.
+ * Keywords are folded with {@link TextNormalizer#fold(char)}; the scanned text is expected to be folded already.
+ */
+final class KeywordAutomaton {
+
+    static final int MAX_GROUPS = Long.SIZE;
+
+    private static final int ROOT = 0;
+
+    private final int[] edgeOffsets;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final int[] failure;
+    private final int[] depth;
+    // groups of keywords ending at the state, including those reached through failure links
+    private final long[] outputGroups;
+    // groups of the keyword spelled exactly by the state
+    private final long[] terminalGroups;
+
+    private KeywordAutomaton(int[] edgeOffsets, char[] edgeChars, int[] edgeTargets, int[] failure,
+                             int[] depth, long[] outputGroups, long[] terminalGroups) {
+        this.edgeOffsets = edgeOffsets;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.failure = failure;
+        this.depth = depth;
+        this.outputGroups = outputGroups;
+        this.terminalGroups = terminalGroups;
+    }
+
+    int stateCount() {
+        return failure.length;
+    }
+
+    void scan(CharSequence text, Hits hits) {
+        final int length = text.length();
+        int state = ROOT;
+        long contains = 0L;
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            int next;
+            while ((next = transition(state, c)) < 0 && state != ROOT) {
+                state = failure[state];
+            }
+            state = next < 0 ? ROOT : next;
+            contains |= outputGroups[state];
+        }
+        hits.contains = contains;
+        hits.endsWith = outputGroups[state];
+        hits.exact = depth[state] == length ? terminalGroups[state] : 0L;
+        hits.exactState = hits.exact != 0L ? state : -1;
+    }
+
+    private int transition(int state, char c) {
+        int low = edgeOffsets[state];
+        int high = edgeOffsets[state + 1] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char midChar = edgeChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    static final class Hits {
+        long contains;
+        long endsWith;
+        long exact;
+        // the state spelling the whole text, or -1
+        int exactState = -1;
+    }
+
+    static final class Builder {
+        private final List<Map<Character, Integer>> edges = new ArrayList<>();
+        private final List<Integer> depths = new ArrayList<>();
+        private final List<Long> terminals = new ArrayList<>();
+
+        Builder() {
+            newState(0);
+        }
+
+        /**
+         * @return the state that spells the keyword
+         */
+        int add(String keyword, int group) {
+            if (group < 0 || group >= MAX_GROUPS) {
+                throw new IllegalArgumentException("keyword group out of range: " + group);
+            }
+            if (keyword.isEmpty()) {
+                throw new IllegalArgumentException("empty keyword");
+            }
+            int state = ROOT;
+            for (int i = 0; i < keyword.length(); i++) {
+                final char c = TextNormalizer.fold(keyword.charAt(i));
+                Integer next = edges.get(state).get(c);
+                if (next == null) {
+                    next = newState(depths.get(state) + 1);
+                    edges.get(state).put(c, next);
+                }
+                state = next;
+            }
+            terminals.set(state, terminals.get(state) | (1L << group));
+            return state;
+        }
+
+        private int newState(int depth) {
+            edges.add(new HashMap<>());
+            depths.add(depth);
+            terminals.add(0L);
+            return edges.size() - 1;
+        }
+
+        KeywordAutomaton build() {
+            final int states = edges.size();
+            final int[] edgeOffsets = new int[states + 1];
+            for (int s = 0; s < states; s++) {
+                edgeOffsets[s + 1] = edgeOffsets[s] + edges.get(s).size();
+            }
+            final char[] edgeChars = new char[edgeOffsets[states]];
+            final int[] edgeTargets = new int[edgeOffsets[states]];
+            for (int s = 0; s < states; s++) {
+                final Character[] chars = edges.get(s).keySet().toArray(new Character[0]);
+                Arrays.sort(chars);
+                for (int i = 0; i < chars.length; i++) {
+                    edgeChars[edgeOffsets[s] + i] = chars[i];
+                    edgeTargets[edgeOffsets[s] + i] = edges.get(s).get(chars[i]);
+                }
+            }
+
+            final int[] depth = new int[states];
+            final long[] terminalGroups = new long[states];
+            for (int s = 0; s < states; s++) {
+                depth[s] = depths.get(s);
+                terminalGroups[s] = terminals.get(s);
+            }
+
+            // 幅優先で failure link を張り、出力グループを伝播する
+            final int[] failure = new int[states];
+            final long[] outputGroups = terminalGroups.clone();
+            final Queue<Integer> queue = new ArrayDeque<>();
+            for (int child : edges.get(ROOT).values()) {
+                failure[child] = ROOT;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                final int state = queue.poll();
+                for (Map.Entry<Character, Integer> edge : edges.get(state).entrySet()) {
+                    final int child = edge.getValue();
+                    int fallback = failure[state];
+                    Integer target;
+                    while ((target = edges.get(fallback).get(edge.getKey())) == null && fallback != ROOT) {
+                        fallback = failure[fallback];
+                    }
+                    failure[child] = target == null ? ROOT : target;
+                    outputGroups[child] |= outputGroups[failure[child]];
+                    queue.add(child);
+                }
+            }
+
+            return new KeywordAutomaton(edgeOffsets, edgeChars, edgeTargets, failure, depth,
+                                        outputGroups, terminalGroups);
+        }
+    }
+}
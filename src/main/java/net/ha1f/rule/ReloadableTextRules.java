@@ -0,0 +1,159 @@
+package net.ha1f.rule;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import net.ha1f.log.EventLog;
+
+/**
+ * The text rules in use. With {@code ha1f.rules.file} set, the file is watched and every change is
+ * compiled on the watcher thread into a new {@link TextRuleEngine}, which replaces the current one atomically.
+ * Events being handled keep the engine they started with. A file that fails to parse or compile stops the
+ * application from starting; a later change that fails is rejected and the current engine stays in place. Compiling goes through {@link SharedTextRuleEngines},
+ * so files with the same content share one engine.
+ */
+@Component
+public class ReloadableTextRules {
+
+    // エディタは一度の保存で複数回書き込むので、少し待ってからまとめて読む
+    private static final long SETTLE_MILLIS = 200;
+
+    private final Path file;
+    private final SharedTextRuleEngines engines;
+    private final EventLog eventLog;
+    private final AtomicReference<TextRuleEngine> current = new AtomicReference<>();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile String lastError;
+
+    private WatchService watchService;
+    private Thread watcher;
+
+    public ReloadableTextRules(String file) {
+        // 開始しないので何も書き出さない
+        this(file, new SharedTextRuleEngines(), new EventLog(16, EventLog.Overflow.DROP, 0));
+    }
+
+    /**
+     * @throws IllegalStateException if {@code file} is given but cannot be read or compiled
+     */
+    @Autowired
+    public ReloadableTextRules(@Value("${ha1f.rules.file:}") String file, SharedTextRuleEngines engines,
+                               EventLog eventLog) {
+        this.engines = engines;
+        this.eventLog = eventLog;
+        this.file = file.isEmpty() ? null : Paths.get(file).toAbsolutePath();
+        if (this.file == null) {
+            current.set(DefaultTextRules.engine());
+            version.incrementAndGet();
+        } else if (!reload()) {
+            // 指定されたルールが使えないまま、同梱のルールで動かし始めない
+            throw new IllegalStateException("rules rejected: " + this.file + " " + lastError);
+        }
+    }
+
+    public TextRuleEngine current() {
+        return current.get();
+    }
+
+    /**
+     * Compiles the rules file and publishes it.
+     *
+     * @return whether the file was accepted
+     */
+    public boolean reload() {
+        if (file == null) {
+            return false;
+        }
+        final TextRuleEngine engine;
+        try {
+            engine = engines.compile(Files.readAllBytes(file));
+        } catch (IOException | UncheckedIOException | IllegalArgumentException | IllegalStateException e) {
+            rejected.incrementAndGet();
+            lastError = e.toString();
+            eventLog.failure("rules", "rejected " + file + ": " + e);
+            return false;
+        }
+        current.set(engine);
+        lastError = null;
+        version.incrementAndGet();
+        return true;
+    }
+
+    @PostConstruct
+    public void watch() throws IOException {
+        if (file == null) {
+            return;
+        }
+        watchService = file.getFileSystem().newWatchService();
+        file.getParent().register(watchService,
+                                  StandardWatchEventKinds.ENTRY_CREATE,
+                                  StandardWatchEventKinds.ENTRY_MODIFY);
+        watcher = new Thread(this::watchLoop, "text-rules-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= file.getFileName().equals(event.context());
+                    }
+                    key.reset();
+                    key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // 停止
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return why the last reload was rejected, or {@code null} if it was accepted
+     */
+    public String getLastError() {
+        return lastError;
+    }
+}
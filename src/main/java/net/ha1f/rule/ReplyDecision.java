@@ -0,0 +1,99 @@
+package net.ha1f.rule;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Outcome of the text rules: which rule fired and the replies to choose from.
+ * Picking one of the candidates is left to the caller so that it happens per event.
+ */
+public final class ReplyDecision {
+
+    private final String rule;
+    private final List<String> candidates;
+    private final boolean randomized;
+    private final boolean leave;
+    private final List<String> fallback;
+    private final Map<String, ReplyDecision> followUps;
+
+    private ReplyDecision(String rule, List<String> candidates, boolean randomized, boolean leave,
+                          List<String> fallback, Map<String, ReplyDecision> followUps) {
+        this.rule = rule;
+        this.candidates = candidates;
+        this.randomized = randomized;
+        this.leave = leave;
+        this.fallback = fallback;
+        this.followUps = followUps;
+    }
+
+    static ReplyDecision reply(String rule, List<String> candidates, boolean randomized) {
+        return reply(rule, candidates, randomized, Collections.emptyMap());
+    }
+
+    /**
+     * @param followUps candidates used instead when the previous message was answered by the rule of the key
+     */
+    static ReplyDecision reply(String rule, List<String> candidates, boolean randomized,
+                               Map<String, List<String>> followUps) {
+        final ImmutableMap.Builder<String, ReplyDecision> decisions = ImmutableMap.builder();
+        followUps.forEach((previous, replies) -> decisions.put(previous, reply(rule, replies, randomized)));
+        return new ReplyDecision(rule, ImmutableList.copyOf(candidates), randomized, false,
+                                 Collections.emptyList(), decisions.build());
+    }
+
+    static ReplyDecision leave(String rule, List<String> farewells, boolean randomized, List<String> fallback) {
+        return new ReplyDecision(rule, ImmutableList.copyOf(farewells), randomized, true,
+                                 ImmutableList.copyOf(fallback), Collections.emptyMap());
+    }
+
+    /**
+     * The decision to reply with when the previous message of the conversation was answered by
+     * {@code previousRule}: its follow-up if the rule has one, otherwise this.
+     */
+    public ReplyDecision after(String previousRule) {
+        if (previousRule == null || followUps.isEmpty()) {
+            return this;
+        }
+        final ReplyDecision followUp = followUps.get(previousRule);
+        return followUp != null ? followUp : this;
+    }
+
+    public String getRule() {
+        return rule;
+    }
+
+    public List<String> getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Whether a random "！" / "〜" style suffix is appended to the chosen candidate.
+     */
+    public boolean isRandomized() {
+        return randomized;
+    }
+
+    /**
+     * Whether the bot should leave the group or room after replying with one of the candidates.
+     */
+    public boolean isLeave() {
+        return leave;
+    }
+
+    /**
+     * Replies used instead of leaving when the source is neither a group nor a room.
+     */
+    public List<String> getFallback() {
+        return fallback;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplyDecision(" + rule + ", " + candidates + (randomized ? ", randomized" : "")
+               + (leave ? ", leave" : "") + ')';
+    }
+}
@@ -0,0 +1,67 @@
+package net.ha1f.rule;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Compiles rules files into {@link TextRuleEngine}s, once per distinct content: channels whose rules files
+ * are byte for byte the same, and a file saved again unchanged, get the same engine and its compiled matchers.
+ * Engines no longer used by any channel are left to the garbage collector.
+ */
+@Component
+public class SharedTextRuleEngines {
+
+    private final TextRuleParser parser = new TextRuleParser();
+    private final Cache<HashCode, TextRuleEngine> engines = CacheBuilder.newBuilder().weakValues().build();
+
+    private final LongAdder compiled = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    /**
+     * @throws IOException if the content is not JSON
+     * @throws IllegalArgumentException if a rule is invalid
+     */
+    public TextRuleEngine compile(byte[] content) throws IOException {
+        final HashCode key = Hashing.sha256().hashBytes(content);
+        final TextRuleEngine engine = engines.getIfPresent(key);
+        if (engine != null) {
+            shared.increment();
+            return engine;
+        }
+        try {
+            return engines.get(key, () -> {
+                compiled.increment();
+                return TextRuleEngine.builder().addAll(parser.parse(new ByteArrayInputStream(content))).build();
+            });
+        } catch (ExecutionException e) {
+            // 読み込みの失敗はそのままの例外で返す
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public long getCompiledCount() {
+        return compiled.sum();
+    }
+
+    public long getSharedCount() {
+        return shared.sum();
+    }
+}
@@ -0,0 +1,99 @@
+package net.ha1f.rule;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers the {@link ReplyDecision} of recent messages so that repeated ones ("おはよう", "ww", ...)
+ * skip the rules entirely. Only the decision is cached; the reply is still chosen per event.
+ * Messages are keyed as written, because echo and suffix replies are built from the original text.
+ * Entries remember the engine that made them, so a reloaded rule set never serves stale decisions.
+ */
+@Component
+public class TextDecisionCache {
+
+    private static final class Entry {
+        private final TextRuleEngine engine;
+        private final ReplyDecision decision;
+
+        private Entry(TextRuleEngine engine, ReplyDecision decision) {
+            this.engine = engine;
+            this.decision = decision;
+        }
+    }
+
+    private final ReloadableTextRules textRules;
+    private final Cache<String, Entry> cache;
+    private final int maxTextLength;
+    private volatile boolean enabled;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Autowired
+    public TextDecisionCache(ReloadableTextRules textRules,
+                             @Value("${ha1f.rules.cache.enabled:true}") boolean enabled,
+                             @Value("${ha1f.rules.cache.size:4096}") long size,
+                             @Value("${ha1f.rules.cache.max-text-length:32}") int maxTextLength) {
+        this.textRules = textRules;
+        this.enabled = enabled;
+        this.maxTextLength = maxTextLength;
+        cache = CacheBuilder.newBuilder()
+                            .maximumSize(size)
+                            .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                            .recordStats()
+                            .build();
+    }
+
+    public ReplyDecision decide(String text) {
+        final TextRuleEngine engine = textRules.current();
+        // 長い文はほとんど繰り返されないので覚えない
+        if (!enabled || text.length() > maxTextLength) {
+            return engine.decide(text);
+        }
+        final Entry entry = cache.getIfPresent(text);
+        if (entry != null && entry.engine == engine) {
+            hits.increment();
+            return entry.decision;
+        }
+        misses.increment();
+        final ReplyDecision decision = engine.decide(text);
+        if (decision != null) {
+            cache.put(text, new Entry(engine, decision));
+        }
+        return decision;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            cache.invalidateAll();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+}
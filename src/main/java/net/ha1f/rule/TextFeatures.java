@@ -0,0 +1,29 @@
+package net.ha1f.rule;
+
+import net.ha1f.text.NormalizedText;
+
+/**
+ * What a single scan of a message produced; rules are evaluated against this.
+ * Instances are reused per thread by {@link TextRuleEngine}.
+ */
+final class TextFeatures {
+
+    final NormalizedText normalized = new NormalizedText();
+    final KeywordAutomaton.Hits hits = new KeywordAutomaton.Hits();
+
+    String originalText() {
+        return normalized.getOriginal();
+    }
+
+    String text() {
+        return normalized.getText();
+    }
+
+    boolean question() {
+        return normalized.isQuestion();
+    }
+
+    boolean noContent() {
+        return normalized.isNoContent() || normalized.length() == 0;
+    }
+}
@@ -0,0 +1,306 @@
+package net.ha1f.rule;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * One entry of the text reply cascade: the conditions a message must satisfy and how to reply to it.
+ * Keyword conditions are compiled into the shared {@link KeywordAutomaton} by {@link TextRuleEngine}.
+ */
+public final class TextRule {
+
+    public enum Mode {
+        CONTAINS,
+        ENDS_WITH,
+        EXACT
+    }
+
+    public enum Kind {
+        // 候補から選ぶ
+        CHOOSE,
+        // メッセージ全体をキーに候補を引く
+        TABLE,
+        // そのまま返す
+        ECHO,
+        // 返事をしてから退出する
+        LEAVE,
+        // 語尾をつけて返す
+        SUFFIX,
+        // お願いを引き受ける
+        REQUEST
+    }
+
+    static final class Condition {
+        final Mode mode;
+        final List<String> keywords;
+
+        Condition(Mode mode, List<String> keywords) {
+            this.mode = mode;
+            this.keywords = keywords;
+        }
+    }
+
+    private final String name;
+    private final List<Condition> conditions;
+    private final Boolean question;
+    private final Pattern pattern;
+    private final boolean noContent;
+    private final Kind kind;
+    private final List<String> candidates;
+    private final boolean randomized;
+    private final Map<String, List<String>> table;
+    private final List<String> fallback;
+    private final String suffix;
+    private final List<String> strip;
+    private final Set<String> solo;
+    private final Map<String, List<String>> followUps;
+
+    private final ReplyDecision fixedDecision;
+    private final Map<String, ReplyDecision> tableDecisions;
+
+    private TextRule(Builder builder) {
+        name = builder.name;
+        conditions = builder.conditions.build();
+        question = builder.question;
+        pattern = builder.pattern;
+        noContent = builder.noContent;
+        kind = builder.kind;
+        candidates = builder.candidates;
+        randomized = builder.randomized;
+        table = builder.table;
+        fallback = builder.fallback;
+        suffix = builder.suffix;
+        strip = builder.strip;
+        solo = builder.solo;
+        followUps = builder.followUps;
+
+        if (kind == Kind.CHOOSE) {
+            fixedDecision = ReplyDecision.reply(name, candidates, randomized, followUps);
+        } else if (kind == Kind.LEAVE) {
+            fixedDecision = ReplyDecision.leave(name, candidates, randomized, fallback);
+        } else {
+            fixedDecision = null;
+        }
+        final ImmutableMap.Builder<String, ReplyDecision> decisions = ImmutableMap.builder();
+        table.forEach((key, replies) -> decisions.put(key, ReplyDecision.reply(name, replies, randomized, followUps)));
+        tableDecisions = decisions.build();
+    }
+
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    List<Condition> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * Decisions of a {@link Kind#TABLE} rule by table key.
+     */
+    Map<String, ReplyDecision> getTableDecisions() {
+        return tableDecisions;
+    }
+
+    /**
+     * @return whether the rule accepts every text, so that no rule after it is ever tried
+     */
+    boolean acceptsAll() {
+        return conditions.isEmpty() && question == null && pattern == null && !noContent;
+    }
+
+    boolean accepts(TextFeatures features) {
+        if (noContent && !features.noContent()) {
+            return false;
+        }
+        if (question != null && question != features.question()) {
+            return false;
+        }
+        return pattern == null || pattern.matcher(features.text()).matches();
+    }
+
+    ReplyDecision respond(TextFeatures features) {
+        switch (kind) {
+            case CHOOSE:
+            case LEAVE:
+                return fixedDecision;
+            case TABLE:
+                return tableDecisions.get(features.text());
+            case ECHO:
+                return ReplyDecision.reply(name, Collections.singletonList(features.originalText()), randomized);
+            case SUFFIX:
+                final String text = features.text();
+                return ReplyDecision.reply(name, Collections.singletonList(text.endsWith(suffix) ? text : text + suffix),
+                                           randomized);
+            case REQUEST:
+                String normalized = features.text();
+                for (String s : strip) {
+                    normalized = normalized.replace(s, "");
+                }
+                if (solo.contains(normalized)) {
+                    return ReplyDecision.reply(name, Collections.singletonList(normalized + suffix), randomized);
+                }
+                return ReplyDecision.reply(name, ImmutableList.<String>builder()
+                                                              .addAll(candidates)
+                                                              .add(normalized + suffix)
+                                                              .build(), randomized);
+            default:
+                throw new IllegalStateException("unknown rule kind: " + kind);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TextRule(" + name + ", " + kind + ')';
+    }
+
+    public static final class Builder {
+        private final String name;
+        private final ImmutableList.Builder<Condition> conditions = ImmutableList.builder();
+        private Boolean question;
+        private Pattern pattern;
+        private boolean noContent;
+        private Kind kind;
+        private List<String> candidates = Collections.emptyList();
+        private boolean randomized;
+        private Map<String, List<String>> table = Collections.emptyMap();
+        private List<String> fallback = Collections.emptyList();
+        private String suffix = "";
+        private List<String> strip = Collections.emptyList();
+        private Set<String> solo = Collections.emptySet();
+        private Map<String, List<String>> followUps = Collections.emptyMap();
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        public Builder contains(String... keywords) {
+            return contains(ImmutableList.copyOf(keywords));
+        }
+
+        public Builder contains(List<String> keywords) {
+            conditions.add(new Condition(Mode.CONTAINS, ImmutableList.copyOf(keywords)));
+            return this;
+        }
+
+        public Builder endsWith(String... keywords) {
+            return endsWith(ImmutableList.copyOf(keywords));
+        }
+
+        public Builder endsWith(List<String> keywords) {
+            conditions.add(new Condition(Mode.ENDS_WITH, ImmutableList.copyOf(keywords)));
+            return this;
+        }
+
+        public Builder question(boolean question) {
+            this.question = question;
+            return this;
+        }
+
+        public Builder matches(Pattern pattern) {
+            this.pattern = pattern;
+            return this;
+        }
+
+        /**
+         * Only messages made of laughs and marks, or that become empty once the suffix is stripped.
+         */
+        public Builder noContent() {
+            noContent = true;
+            return this;
+        }
+
+        public Builder randomized() {
+            randomized = true;
+            return this;
+        }
+
+        public Builder choose(String... candidates) {
+            return choose(ImmutableList.copyOf(candidates));
+        }
+
+        public Builder choose(List<String> candidates) {
+            kind = Kind.CHOOSE;
+            this.candidates = ImmutableList.copyOf(candidates);
+            return this;
+        }
+
+        public Builder table(Map<String, List<String>> table) {
+            kind = Kind.TABLE;
+            final ImmutableMap.Builder<String, List<String>> copy = ImmutableMap.builder();
+            table.forEach((key, replies) -> copy.put(key, ImmutableList.copyOf(replies)));
+            this.table = copy.build();
+            conditions.add(new Condition(Mode.EXACT, ImmutableList.copyOf(this.table.keySet())));
+            return this;
+        }
+
+        public Builder echo() {
+            kind = Kind.ECHO;
+            return this;
+        }
+
+        public Builder leave(List<String> farewells, List<String> fallback) {
+            kind = Kind.LEAVE;
+            candidates = ImmutableList.copyOf(farewells);
+            this.fallback = ImmutableList.copyOf(fallback);
+            return this;
+        }
+
+        public Builder suffix(String suffix) {
+            kind = Kind.SUFFIX;
+            this.suffix = suffix;
+            return this;
+        }
+
+        /**
+         * Replies with one of the candidates or with the request itself, e.g. "ハグして" → "ハグする".
+         *
+         * @param strip removed from the message in this order to get the requested action
+         * @param suffix appended to the requested action
+         * @param solo actions that are answered only with the action itself
+         */
+        public Builder request(List<String> strip, String suffix, Set<String> solo, List<String> candidates) {
+            kind = Kind.REQUEST;
+            this.strip = ImmutableList.copyOf(strip);
+            this.suffix = suffix;
+            this.solo = ImmutableSet.copyOf(solo);
+            this.candidates = ImmutableList.copyOf(candidates);
+            return this;
+        }
+
+        /**
+         * Replies used instead when the previous message of the conversation was answered by the rule named
+         * by the key, e.g. "ありがとう" after "つかれた". Only for {@link Kind#CHOOSE} and {@link Kind#TABLE}.
+         */
+        public Builder followUps(Map<String, List<String>> followUps) {
+            final ImmutableMap.Builder<String, List<String>> copy = ImmutableMap.builder();
+            followUps.forEach((previous, replies) -> copy.put(previous, ImmutableList.copyOf(replies)));
+            this.followUps = copy.build();
+            return this;
+        }
+
+        public TextRule build() {
+            if (kind == null) {
+                throw new IllegalStateException("rule " + name + " has no reply");
+            }
+            if (!followUps.isEmpty() && kind != Kind.CHOOSE && kind != Kind.TABLE) {
+                throw new IllegalStateException("followUps need choose or table");
+            }
+            return new TextRule(this);
+        }
+    }
+}
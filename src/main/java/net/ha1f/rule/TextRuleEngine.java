@@ -0,0 +1,171 @@
+package net.ha1f.rule;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import net.ha1f.text.TextNormalizer;
+
+/**
+ * Resolves a text message to the first {@link TextRule} that accepts it.
+ * All keyword conditions of all rules share one automaton, so a message is scanned once
+ * and each rule is then checked with a few mask comparisons.
+ */
+public final class TextRuleEngine {
+
+    private final TextNormalizer normalizer = new TextNormalizer();
+    private final ThreadLocal<TextFeatures> features = ThreadLocal.withInitial(TextFeatures::new);
+    private final KeywordAutomaton automaton;
+    private final List<CompiledRule> rules;
+
+    private TextRuleEngine(KeywordAutomaton automaton, List<CompiledRule> rules) {
+        this.automaton = automaton;
+        this.rules = rules;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the decision of the first matching rule; the last rule accepts every text, so there always is one
+     */
+    public ReplyDecision decide(String originalText) {
+        final TextFeatures features = this.features.get();
+        normalizer.normalize(originalText, features.normalized);
+        automaton.scan(features.normalized, features.hits);
+        for (CompiledRule rule : rules) {
+            if (rule.matches(features)) {
+                return rule.respond(features);
+            }
+        }
+        return null;
+    }
+
+    public List<TextRule> getRules() {
+        final ImmutableList.Builder<TextRule> result = ImmutableList.builder();
+        rules.forEach(rule -> result.add(rule.rule));
+        return result.build();
+    }
+
+    private static final class CompiledRule {
+        private final TextRule rule;
+        private final long contains;
+        private final long endsWith;
+        private final long exact;
+        // TABLE の決定を、キーを綴る状態で引けるようにしたもの
+        private final ReplyDecision[] exactDecisions;
+
+        private CompiledRule(TextRule rule, long contains, long endsWith, long exact, ReplyDecision[] exactDecisions) {
+            this.rule = rule;
+            this.contains = contains;
+            this.endsWith = endsWith;
+            this.exact = exact;
+            this.exactDecisions = exactDecisions;
+        }
+
+        private ReplyDecision respond(TextFeatures features) {
+            if (rule.getKind() == TextRule.Kind.TABLE) {
+                return exactDecisions[features.hits.exactState];
+            }
+            return rule.respond(features);
+        }
+
+        private boolean matches(TextFeatures features) {
+            final KeywordAutomaton.Hits hits = features.hits;
+            return (hits.contains & contains) == contains
+                   && (hits.endsWith & endsWith) == endsWith
+                   && (hits.exact & exact) == exact
+                   && rule.accepts(features);
+        }
+    }
+
+    public static final class Builder {
+        private final ImmutableList.Builder<TextRule> rules = ImmutableList.builder();
+
+        private Builder() {
+        }
+
+        /**
+         * Rules are tried in the order they are added.
+         */
+        public Builder add(TextRule rule) {
+            rules.add(rule);
+            return this;
+        }
+
+        public Builder addAll(List<TextRule> rules) {
+            this.rules.addAll(rules);
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the last rule does not accept every text
+         */
+        public TextRuleEngine build() {
+            final List<TextRule> rules = this.rules.build();
+            // どのルールにも当たらないメッセージには返事ができない
+            if (rules.isEmpty() || !rules.get(rules.size() - 1).acceptsAll()) {
+                throw new IllegalArgumentException("the last rule must answer every message, like a suffix rule "
+                                                   + "without conditions");
+            }
+            final KeywordAutomaton.Builder automaton = new KeywordAutomaton.Builder();
+            // 同じキーワード集合は同じグループを共有する
+            final Map<Set<String>, Integer> groups = new HashMap<>();
+            final Map<String, Integer> states = new HashMap<>();
+            for (TextRule rule : rules) {
+                for (TextRule.Condition condition : rule.getConditions()) {
+                    final Set<String> keywords = ImmutableSet.copyOf(condition.keywords);
+                    if (!groups.containsKey(keywords)) {
+                        final int group = groups.size();
+                        if (group >= KeywordAutomaton.MAX_GROUPS) {
+                            throw new IllegalStateException(
+                                    "too many keyword groups, at most " + KeywordAutomaton.MAX_GROUPS);
+                        }
+                        groups.put(keywords, group);
+                        for (String keyword : keywords) {
+                            states.put(keyword, automaton.add(keyword, group));
+                        }
+                    }
+                }
+            }
+            final KeywordAutomaton compiledAutomaton = automaton.build();
+
+            final ImmutableList.Builder<CompiledRule> compiled = ImmutableList.builder();
+            for (TextRule rule : rules) {
+                long contains = 0L;
+                long endsWith = 0L;
+                long exact = 0L;
+                for (TextRule.Condition condition : rule.getConditions()) {
+                    final long bit = 1L << groups.get(ImmutableSet.copyOf(condition.keywords));
+                    switch (condition.mode) {
+                        case CONTAINS:
+                            contains |= bit;
+                            break;
+                        case ENDS_WITH:
+                            endsWith |= bit;
+                            break;
+                        case EXACT:
+                            exact |= bit;
+                            break;
+                        default:
+                            throw new IllegalStateException("unknown mode: " + condition.mode);
+                    }
+                }
+                final ReplyDecision[] exactDecisions = new ReplyDecision[compiledAutomaton.stateCount()];
+                rule.getTableDecisions().forEach((key, decision) -> {
+                    final int state = states.get(key);
+                    if (exactDecisions[state] == null) {
+                        exactDecisions[state] = decision;
+                    }
+                });
+                compiled.add(new CompiledRule(rule, contains, endsWith, exact, exactDecisions));
+            }
+            return new TextRuleEngine(compiledAutomaton, compiled.build());
+        }
+    }
+}
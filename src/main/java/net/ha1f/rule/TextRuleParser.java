@@ -0,0 +1,192 @@
+package net.ha1f.rule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Reads text rules from JSON such as {@code reply-rules.json}. Each rule has a {@code name},
+ * optional conditions ({@code when}, {@code question}, {@code pattern}, {@code noContent})
+ * and exactly one reply ({@code choose}, {@code table}, {@code echo}, {@code leave}, {@code suffix}, {@code request}).
+ * {@code choose} and {@code table} rules may add {@code followUps}: replies by the name of the rule that answered
+ * the previous message.
+ * A rule may also carry a {@code comment}. Anything unexpected, including an unknown key, is rejected with an
+ * {@link IllegalArgumentException} naming the rule.
+ */
+public final class TextRuleParser {
+
+    private static final List<String> REPLIES = ImmutableList.of("choose", "table", "echo", "leave", "suffix",
+                                                                 "request");
+    private static final Set<String> RULE_KEYS = ImmutableSet.<String>builder()
+                                                             .add("name", "comment", "when", "question", "pattern",
+                                                                  "noContent", "randomized", "followUps")
+                                                             .addAll(REPLIES)
+                                                             .build();
+    private static final Set<String> CONDITION_KEYS = ImmutableSet.of("contains", "endsWith");
+    private static final Set<String> LEAVE_KEYS = ImmutableSet.of("farewells", "fallback");
+    private static final Set<String> REQUEST_KEYS = ImmutableSet.of("strip", "suffix", "solo", "candidates");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public List<TextRule> parse(InputStream input) throws IOException {
+        return parse(objectMapper.readTree(input));
+    }
+
+    public List<TextRule> parse(JsonNode root) {
+        final JsonNode rules = root == null ? null : root.get("rules");
+        if (rules == null || !rules.isArray() || rules.size() == 0) {
+            throw new IllegalArgumentException("no rules");
+        }
+        final ImmutableList.Builder<TextRule> result = ImmutableList.builder();
+        for (JsonNode rule : rules) {
+            final String name = rule.path("name").asText("");
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("rule without name: " + rule);
+            }
+            try {
+                result.add(parseRule(name, rule));
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                throw new IllegalArgumentException("invalid rule " + name + ": " + e.getMessage(), e);
+            }
+        }
+        return result.build();
+    }
+
+    private static TextRule parseRule(String name, JsonNode rule) {
+        // 綴り間違いのキーを黙って無視すると、条件が抜けて広く当たりすぎる
+        knownKeys(rule, RULE_KEYS, "rule");
+        final TextRule.Builder builder = TextRule.builder(name);
+        for (JsonNode condition : rule.path("when")) {
+            knownKeys(condition, CONDITION_KEYS, "condition");
+            if (condition.size() != 1) {
+                throw new IllegalArgumentException("a condition takes one of " + CONDITION_KEYS + ": " + condition);
+            }
+            if (condition.has("contains")) {
+                builder.contains(strings(condition.get("contains")));
+            } else if (condition.has("endsWith")) {
+                builder.endsWith(strings(condition.get("endsWith")));
+            } else {
+                throw new IllegalArgumentException("unknown condition " + condition);
+            }
+        }
+        if (rule.has("question")) {
+            builder.question(rule.get("question").asBoolean());
+        }
+        if (rule.has("pattern")) {
+            builder.matches(Pattern.compile(rule.get("pattern").asText()));
+        }
+        if (rule.path("noContent").asBoolean(false)) {
+            builder.noContent();
+        }
+        if (rule.path("randomized").asBoolean(false)) {
+            builder.randomized();
+        }
+
+        final ImmutableList.Builder<String> present = ImmutableList.builder();
+        REPLIES.stream().filter(rule::has).forEach(present::add);
+        final List<String> replies = present.build();
+        if (replies.size() != 1) {
+            throw new IllegalArgumentException("expected one of " + REPLIES + " but got " + replies);
+        }
+        switch (replies.get(0)) {
+            case "choose":
+                builder.choose(nonEmpty(strings(rule.get("choose")), "choose"));
+                break;
+            case "table":
+                final Map<String, List<String>> table = new LinkedHashMap<>();
+                final Iterator<Map.Entry<String, JsonNode>> entries = rule.get("table").fields();
+                while (entries.hasNext()) {
+                    final Map.Entry<String, JsonNode> entry = entries.next();
+                    table.put(entry.getKey(), nonEmpty(strings(entry.getValue()), entry.getKey()));
+                }
+                builder.table(nonEmpty(table, "table"));
+                break;
+            case "echo":
+                builder.echo();
+                break;
+            case "leave":
+                final JsonNode leave = rule.get("leave");
+                knownKeys(leave, LEAVE_KEYS, "leave");
+                builder.leave(nonEmpty(strings(leave.get("farewells")), "farewells"),
+                              nonEmpty(strings(leave.get("fallback")), "fallback"));
+                break;
+            case "suffix":
+                builder.suffix(rule.get("suffix").asText());
+                break;
+            case "request":
+                final JsonNode request = rule.get("request");
+                knownKeys(request, REQUEST_KEYS, "request");
+                builder.request(strings(request.get("strip")),
+                                request.path("suffix").asText(""),
+                                ImmutableSet.copyOf(strings(request.get("solo"))),
+                                strings(request.get("candidates")));
+                break;
+            default:
+                throw new IllegalStateException(replies.get(0));
+        }
+        if (rule.has("followUps")) {
+            final Map<String, List<String>> followUps = new LinkedHashMap<>();
+            final Iterator<Map.Entry<String, JsonNode>> entries = rule.get("followUps").fields();
+            while (entries.hasNext()) {
+                final Map.Entry<String, JsonNode> entry = entries.next();
+                followUps.put(entry.getKey(), nonEmpty(strings(entry.getValue()), entry.getKey()));
+            }
+            builder.followUps(nonEmpty(followUps, "followUps"));
+        }
+        return builder.build();
+    }
+
+    private static void knownKeys(JsonNode node, Set<String> known, String what) {
+        if (!node.isObject()) {
+            throw new IllegalArgumentException("expected an object for " + what + ": " + node);
+        }
+        final Iterator<String> keys = node.fieldNames();
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            if (!known.contains(key)) {
+                throw new IllegalArgumentException("unknown key " + key + " in " + what + ", expected " + known);
+            }
+        }
+    }
+
+    private static List<String> strings(JsonNode node) {
+        if (node == null || node.isNull()) {
+            return ImmutableList.of();
+        }
+        if (!node.isArray()) {
+            throw new IllegalArgumentException("expected an array of strings: " + node);
+        }
+        final ImmutableList.Builder<String> result = ImmutableList.builder();
+        for (JsonNode element : node) {
+            if (!element.isTextual() || element.asText().isEmpty()) {
+                throw new IllegalArgumentException("expected a non-empty string: " + element);
+            }
+            result.add(element.asText());
+        }
+        return result.build();
+    }
+
+    private static <T> List<T> nonEmpty(List<T> list, String field) {
+        if (list.isEmpty()) {
+            throw new IllegalArgumentException(field + " is empty");
+        }
+        return list;
+    }
+
+    private static <K, V> Map<K, V> nonEmpty(Map<K, V> map, String field) {
+        if (map.isEmpty()) {
+            throw new IllegalArgumentException(field + " is empty");
+        }
+        return map;
+    }
+}
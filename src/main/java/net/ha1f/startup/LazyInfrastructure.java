@@ -0,0 +1,62 @@
+package net.ha1f.startup;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * With {@code ha1f.startup.lazy=true}, beans of the frameworks are created when first used instead of at
+ * startup, as {@code spring.main.lazy-initialization} does in later Spring Boot versions. The beans of the bot
+ * itself stay eager: they restore state, resume broadcasts and start watchers at startup, and everything the
+ * webhook needs is reached from them or created by {@link StartupWarmer} before the port opens.
+ */
+@Component
+public class LazyInfrastructure implements BeanFactoryPostProcessor, EnvironmentAware {
+
+    private static final String OWN_PACKAGE = "net.ha1f.";
+
+    private boolean enabled;
+    private volatile int lazyCount;
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        enabled = environment.getProperty("ha1f.startup.lazy", Boolean.class, false);
+    }
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+        if (!enabled) {
+            return;
+        }
+        int lazy = 0;
+        for (String name : beanFactory.getBeanDefinitionNames()) {
+            final BeanDefinition definition = beanFactory.getBeanDefinition(name);
+            if (definition.isLazyInit() || isOwn(beanFactory, definition)) {
+                continue;
+            }
+            definition.setLazyInit(true);
+            lazy++;
+        }
+        lazyCount = lazy;
+    }
+
+    private static boolean isOwn(ConfigurableListableBeanFactory beanFactory, BeanDefinition definition) {
+        String className = definition.getBeanClassName();
+        // @Bean メソッドの bean は、メソッドを持つ設定クラスで決める
+        if (className == null && definition.getFactoryBeanName() != null
+            && beanFactory.containsBeanDefinition(definition.getFactoryBeanName())) {
+            className = beanFactory.getBeanDefinition(definition.getFactoryBeanName()).getBeanClassName();
+        }
+        return className != null && className.startsWith(OWN_PACKAGE);
+    }
+
+    /**
+     * @return how many bean definitions were made lazy
+     */
+    public int getLazyCount() {
+        return lazyCount;
+    }
+}
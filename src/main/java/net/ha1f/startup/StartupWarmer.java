@@ -0,0 +1,162 @@
+package net.ha1f.startup;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.stereotype.Controller;
+
+import com.linecorp.bot.client.LineMessagingService;
+import com.linecorp.bot.model.profile.UserProfileResponse;
+
+import net.ha1f.channel.BotChannel;
+import net.ha1f.channel.ChannelRegistry;
+import net.ha1f.log.EventLog;
+import net.ha1f.rule.TextRuleEngine;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * With {@code ha1f.startup.warm=true}, prepares what the first webhook needs once the context is refreshed,
+ * which in Spring Boot 1.5 is before the embedded Tomcat starts accepting connections:
+ * the webhook controllers are created, every rule engine in use decides sample texts until the JIT has compiled
+ * the matchers. With {@code ha1f.startup.warm-http=true} as well, each channel's API client opens its connection
+ * with a profile lookup of a user that does not exist (which answers 404); it is off by default because the lookup
+ * goes to the live LINE API.
+ * Also records how long after the JVM started the application was ready, and with
+ * {@code ha1f.startup.exit-when-ready=true} exits then, for the class data sharing training run.
+ */
+@Component
+public class StartupWarmer {
+
+    private static final String[] SAMPLES = {
+            "おはよう", "おやすみ〜", "はるふ", "はるふ好き？", "なにしてるの？", "ありがとう！", "www",
+            "はるふまたね！", "ラーメン食べたい", "今日の天気は？", "疲れたなあ", "",
+            "明日は晴れるといいなあ、でも雨でもいいかな。はるふはどっちが好き？"
+    };
+    private static final String WARMUP_USER = "U00000000000000000000000000000000";
+
+    private final ApplicationContext context;
+    private final ChannelRegistry channels;
+    private final EventLog eventLog;
+    private final boolean enabled;
+    private final int iterations;
+    private final boolean warmHttp;
+    private final long timeoutMillis;
+    private final boolean exitWhenReady;
+
+    private volatile boolean warmed;
+    private volatile long warmMillis = -1;
+    private volatile long readyMillis = -1;
+
+    @Autowired
+    public StartupWarmer(ApplicationContext context, ChannelRegistry channels, EventLog eventLog,
+                         @Value("${ha1f.startup.warm:false}") boolean enabled,
+                         @Value("${ha1f.startup.warm-iterations:2000}") int iterations,
+                         @Value("${ha1f.startup.warm-http:false}") boolean warmHttp,
+                         @Value("${ha1f.startup.warm-timeout-ms:3000}") long timeoutMillis,
+                         @Value("${ha1f.startup.exit-when-ready:false}") boolean exitWhenReady) {
+        this.context = context;
+        this.channels = channels;
+        this.eventLog = eventLog;
+        this.enabled = enabled;
+        this.iterations = iterations;
+        this.warmHttp = warmHttp;
+        this.timeoutMillis = timeoutMillis;
+        this.exitWhenReady = exitWhenReady;
+    }
+
+    @EventListener
+    public void warm(ContextRefreshedEvent event) throws InterruptedException {
+        // actuator の子コンテキストの refresh でも呼ばれる
+        if (!enabled || warmed || event.getApplicationContext() != context) {
+            return;
+        }
+        warmed = true;
+        final long startedAt = System.nanoTime();
+        context.getBeansWithAnnotation(Controller.class);
+        final List<BotChannel> all = new ArrayList<>();
+        all.add(channels.getDefault());
+        all.addAll(channels.getChannels());
+        warmRules(all);
+        if (warmHttp) {
+            warmClients(all);
+        }
+        warmMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+    }
+
+    private void warmRules(List<BotChannel> all) {
+        final Set<TextRuleEngine> engines = Collections.newSetFromMap(new IdentityHashMap<>());
+        all.forEach(channel -> engines.add(channel.getRules().current()));
+        for (TextRuleEngine engine : engines) {
+            for (int i = 0; i < iterations; i++) {
+                // キャッシュを通さずにルールを回す
+                engine.decide(SAMPLES[i % SAMPLES.length]);
+            }
+        }
+    }
+
+    /**
+     * Waits at most {@code ha1f.startup.warm-timeout-ms} for the answers.
+     */
+    private void warmClients(List<BotChannel> all) throws InterruptedException {
+        final Set<LineMessagingService> clients = Collections.newSetFromMap(new IdentityHashMap<>());
+        all.forEach(channel -> clients.add(channel.getClient()));
+        final CountDownLatch done = new CountDownLatch(clients.size());
+        for (LineMessagingService client : clients) {
+            client.getProfile(WARMUP_USER).enqueue(new Callback<UserProfileResponse>() {
+                @Override
+                public void onResponse(Call<UserProfileResponse> call, Response<UserProfileResponse> response) {
+                    if (!response.isSuccessful() && response.errorBody() != null) {
+                        response.errorBody().close();
+                    }
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Call<UserProfileResponse> call, Throwable t) {
+                    eventLog.failure("startup", "API client not warmed: " + t);
+                    done.countDown();
+                }
+            });
+        }
+        done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @EventListener
+    public void ready(ApplicationReadyEvent event) {
+        readyMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        if (exitWhenReady) {
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        }
+    }
+
+    /**
+     * @return how long warming up took, or -1 if it did not run
+     */
+    public long getWarmMillis() {
+        return warmMillis;
+    }
+
+    /**
+     * @return milliseconds from the JVM start to the application being ready, or -1 before then
+     */
+    public long getReadyMillis() {
+        return readyMillis;
+    }
+}
@@ -0,0 +1,129 @@
+package net.ha1f.sticker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.ha1f.util.LongObjectMap;
+
+/**
+ * Sticker replies loaded from a JSON table such as {@code stickers.json}:
+ * <pre>
+ * {"packages": [{"packageId": "1184321", "fallback": {"text": "..."},
+ *                "stickers": [{"stickerId": "7496267", "text": "...", "randomized": false}]}]}
+ * </pre>
+ * Package and sticker ids are packed into one {@code long}, so a lookup is a single hash probe
+ * however many stickers a package has.
+ */
+public final class StickerReplies {
+
+    private final LongObjectMap<StickerReply> stickers;
+    private final LongObjectMap<StickerReply> fallbacks;
+
+    private StickerReplies(LongObjectMap<StickerReply> stickers, LongObjectMap<StickerReply> fallbacks) {
+        this.stickers = stickers;
+        this.fallbacks = fallbacks;
+    }
+
+    public static StickerReplies fromClasspath(String resource) {
+        try (InputStream input = StickerReplies.class.getResourceAsStream(resource)) {
+            if (input == null) {
+                throw new IllegalArgumentException("sticker table not found: " + resource);
+            }
+            return load(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static StickerReplies load(InputStream input) throws IOException {
+        return parse(new ObjectMapper().readTree(input));
+    }
+
+    static StickerReplies parse(JsonNode root) {
+        final JsonNode packages = root.path("packages");
+        int count = 0;
+        for (JsonNode pack : packages) {
+            count += pack.path("stickers").size();
+        }
+        final LongObjectMap<StickerReply> stickers = new LongObjectMap<>(count);
+        final LongObjectMap<StickerReply> fallbacks = new LongObjectMap<>(packages.size());
+        for (JsonNode pack : packages) {
+            final long packageId = requireId(pack, "packageId");
+            if (pack.has("fallback")) {
+                fallbacks.put(packageId, reply(pack.get("fallback")));
+            }
+            for (JsonNode sticker : pack.path("stickers")) {
+                final long stickerId = requireId(sticker, "stickerId");
+                if (stickers.put(key(packageId, stickerId), reply(sticker)) != null) {
+                    throw new IllegalArgumentException("duplicate sticker " + packageId + " : " + stickerId);
+                }
+            }
+        }
+        return new StickerReplies(stickers, fallbacks);
+    }
+
+    private static StickerReply reply(JsonNode node) {
+        final JsonNode text = node.get("text");
+        if (text == null || !text.isTextual()) {
+            throw new IllegalArgumentException("sticker reply without text: " + node);
+        }
+        return new StickerReply(text.asText(), node.path("randomized").asBoolean(false));
+    }
+
+    private static long requireId(JsonNode node, String field) {
+        final long id = parseId(node.path(field).asText(""));
+        if (id < 0) {
+            throw new IllegalArgumentException("invalid " + field + ": " + node);
+        }
+        return id;
+    }
+
+    /**
+     * @return the id as an unsigned 32 bit number, or -1 if it is not one written in decimal without leading zeros
+     */
+    static long parseId(String id) {
+        // "01" と "1" が同じ key にならないように、0 で始まる id は受け付けない
+        if (id == null || id.isEmpty() || id.length() > 10 || id.length() > 1 && id.charAt(0) == '0') {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < id.length(); i++) {
+            final char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value > 0xFFFFFFFFL ? -1 : value;
+    }
+
+    static long key(long packageId, long stickerId) {
+        return packageId << 32 | stickerId;
+    }
+
+    /**
+     * @return the reply for the sticker, the fallback of its package, or {@code null} if the package is unknown
+     */
+    public StickerReply find(String packageId, String stickerId) {
+        final long pack = parseId(packageId);
+        if (pack < 0) {
+            return null;
+        }
+        final long sticker = parseId(stickerId);
+        if (sticker >= 0) {
+            final StickerReply reply = stickers.get(key(pack, sticker));
+            if (reply != null) {
+                return reply;
+            }
+        }
+        return fallbacks.get(pack);
+    }
+
+    public int size() {
+        return stickers.size();
+    }
+}
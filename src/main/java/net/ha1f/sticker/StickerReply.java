@@ -0,0 +1,44 @@
+package net.ha1f.sticker;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.linecorp.bot.model.message.Message;
+import com.linecorp.bot.model.message.TextMessage;
+
+/**
+ * Reply to a sticker. Messages are built once when the table is loaded;
+ * randomized replies only keep the text, since their suffix is chosen per event.
+ */
+public final class StickerReply {
+
+    private final String text;
+    private final boolean randomized;
+    private final List<Message> messages;
+
+    StickerReply(String text, boolean randomized) {
+        this.text = text;
+        this.randomized = randomized;
+        this.messages = randomized ? null : Collections.singletonList(new TextMessage(text));
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public boolean isRandomized() {
+        return randomized;
+    }
+
+    /**
+     * @return the prebuilt reply, or {@code null} if the reply is randomized
+     */
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    @Override
+    public String toString() {
+        return "StickerReply(" + text + (randomized ? ", randomized" : "") + ')';
+    }
+}
@@ -0,0 +1,78 @@
+package net.ha1f.text;
+
+/**
+ * Result of {@link TextNormalizer}, meant to be reused across messages.
+ * As a {@link CharSequence} it is the folded form of the message with the suffix already stripped;
+ * {@link #getText()} returns the same range of the message as written.
+ */
+public final class NormalizedText implements CharSequence {
+
+    String original = "";
+    int end;
+    boolean question;
+    boolean noContent;
+    private String text;
+
+    void reset(String original) {
+        this.original = original;
+        end = original.length();
+        question = false;
+        noContent = false;
+        text = null;
+    }
+
+    public String getOriginal() {
+        return original;
+    }
+
+    /**
+     * The message as written, without the trailing marks, and without "かなあ" if it is a question.
+     */
+    public String getText() {
+        if (text == null) {
+            text = original.substring(0, end);
+        }
+        return text;
+    }
+
+    /**
+     * Whether the message ends with a question mark.
+     */
+    public boolean isQuestion() {
+        return question;
+    }
+
+    /**
+     * Whether the message is made only of laughs and marks, optionally after a single hiragana.
+     */
+    public boolean isNoContent() {
+        return noContent;
+    }
+
+    @Override
+    public int length() {
+        return end;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= end) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return TextNormalizer.fold(original.charAt(index));
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        final char[] folded = new char[end];
+        for (int i = 0; i < end; i++) {
+            folded[i] = TextNormalizer.fold(original.charAt(i));
+        }
+        return new String(folded);
+    }
+}
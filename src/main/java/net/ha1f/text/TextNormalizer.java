@@ -0,0 +1,130 @@
+package net.ha1f.text;
+
+/**
+ * Strips the trailing marks of a message and classifies it in a single backward scan.
+ * Replaces the former regular expressions:
+ * <pre>
+ * NOCONTENT   ^[ぁ-ん]?[?？!！…・。、,.〜ーｗw笑 ]*$
+ * SUFFIX_MARK (なん|なの|やなぁ|だよ|やろ|やん|やんけ|[?？!！。、,.〜ーｗw笑])+$
+ * QUESTION    (なの|なん)*(かなあ|かなぁ)+$
+ * </pre>
+ * Characters are compared after {@link #fold(char)}, so "ＷＷ", "ｗｗ" and "ww" are all the same laugh.
+ */
+public final class TextNormalizer {
+
+    private static final String[] SUFFIX_WORDS = { "なん", "なの", "やなぁ", "だよ", "やろ", "やん", "やんけ" };
+    private static final String SUFFIX_MARKS = "?!。、,.〜ーw笑";
+    private static final String NOCONTENT_MARKS = "?!…・。、,.〜ーw笑 ";
+    private static final String[] QUESTION_WORDS = { "かなあ", "かなぁ" };
+    private static final String[] QUESTION_PREFIXES = { "なの", "なん" };
+    private static final int MAX_SUFFIX_WORD = 3;
+
+    private static final String HALFWIDTH_KANA =
+            "。「」、・をぁぃぅぇぉゃゅょっーあいうえおかきくけこさしすせそたちつてとなにぬねのはひふへほまみむめもやゆよらりるれろわん゛゜";
+
+    /**
+     * Folds katakana to hiragana, full-width and half-width forms to their common form and ASCII to lower case.
+     */
+    public static char fold(char c) {
+        if (c >= 'ァ' && c <= 'ヶ') {
+            return (char) (c - ('ァ' - 'ぁ'));
+        }
+        if (c >= '！' && c <= '～') {
+            c = (char) (c - ('！' - '!'));
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        if (c >= '｡' && c <= 'ﾟ') {
+            return HALFWIDTH_KANA.charAt(c - '｡');
+        }
+        if (c == '　') {
+            return ' ';
+        }
+        return c;
+    }
+
+    public static String fold(String text) {
+        final char[] folded = new char[text.length()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = fold(text.charAt(i));
+        }
+        return new String(folded);
+    }
+
+    public NormalizedText normalize(String text) {
+        return normalize(text, new NormalizedText());
+    }
+
+    public NormalizedText normalize(String text, NormalizedText result) {
+        result.reset(text);
+        final int length = text.length();
+
+        // 末尾から一度だけ走査する。
+        // reach の bit k は「位置 i+1+k から末尾までが語尾として読み切れる」ことを表す
+        int reach = 1;
+        int suffixStart = length;
+        int contentEnd = -1;
+        for (int i = length - 1; i >= 0 && (reach != 0 || contentEnd < 0); i--) {
+            final char c = fold(text.charAt(i));
+            if (reach != 0) {
+                boolean suffix = (reach & 1) != 0 && SUFFIX_MARKS.indexOf(c) >= 0;
+                for (int w = 0; !suffix && w < SUFFIX_WORDS.length; w++) {
+                    final String word = SUFFIX_WORDS[w];
+                    suffix = (reach & (1 << (word.length() - 1))) != 0 && regionMatches(text, i, word);
+                }
+                if (suffix) {
+                    suffixStart = i;
+                }
+                reach = ((reach << 1) | (suffix ? 1 : 0)) & ((1 << MAX_SUFFIX_WORD) - 1);
+            }
+            if (contentEnd < 0 && NOCONTENT_MARKS.indexOf(c) < 0) {
+                contentEnd = i;
+            }
+        }
+
+        result.question = length > 0 && fold(text.charAt(length - 1)) == '?';
+        result.noContent = contentEnd < 0 || contentEnd == 0 && isHiragana(fold(text.charAt(0)));
+
+        int end = suffixStart;
+        if (result.question) {
+            int start = stripTrailing(text, end, QUESTION_WORDS);
+            if (start < end) {
+                end = stripTrailing(text, start, QUESTION_PREFIXES);
+            }
+        }
+        result.end = end;
+        return result;
+    }
+
+    private static int stripTrailing(String text, int end, String[] words) {
+        boolean stripped = true;
+        while (stripped) {
+            stripped = false;
+            for (String word : words) {
+                if (end >= word.length() && regionMatches(text, end - word.length(), word)) {
+                    end -= word.length();
+                    stripped = true;
+                    break;
+                }
+            }
+        }
+        return end;
+    }
+
+    private static boolean regionMatches(String text, int offset, String word) {
+        if (offset + word.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (fold(text.charAt(offset + i)) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isHiragana(char c) {
+        return c >= 'ぁ' && c <= 'ん';
+    }
+}
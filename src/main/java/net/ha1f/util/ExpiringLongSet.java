@@ -0,0 +1,98 @@
+package net.ha1f.util;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Fixed-size set of recently added {@code long} values that forget them after a time-to-live.
+ * The table is split into stripes, each a small open addressing table guarded by its own lock,
+ * so concurrent callers rarely meet. When a probe window is full the entry closest to expiry is replaced,
+ * so memory never grows past the initial allocation.
+ * The value 0 is reserved and is stored as 1.
+ */
+public final class ExpiringLongSet {
+
+    private static final int PROBES = 8;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final LongAdder evictions = new LongAdder();
+
+    public ExpiringLongSet(int capacity, int stripes, long ttlMillis) {
+        this(capacity, stripes, ttlMillis, System::currentTimeMillis);
+    }
+
+    public ExpiringLongSet(int capacity, int stripes, long ttlMillis, LongSupplier clock) {
+        final int stripeCount = ceilingPowerOfTwo(Math.max(1, stripes));
+        final int stripeSize = Math.max(PROBES, ceilingPowerOfTwo((capacity + stripeCount - 1) / stripeCount));
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(stripeSize);
+        }
+        stripeMask = stripeCount - 1;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        final int highest = Integer.highestOneBit(Math.max(1, value));
+        return highest == value ? value : highest << 1;
+    }
+
+    /**
+     * Adds the value unless it was added within the time-to-live.
+     *
+     * @return {@code true} if the value was not present
+     */
+    public boolean add(long value) {
+        final long key = value == 0L ? 1L : value;
+        final int hash = LongObjectMap.hash(key);
+        // 上位ビットでストライプ、下位ビットでストライプ内の位置を決める
+        final Stripe stripe = stripes[(hash >>> 24) & stripeMask];
+        final long now = clock.getAsLong();
+        synchronized (stripe) {
+            return stripe.add(key, hash, now, now + ttlMillis);
+        }
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int capacity() {
+        return stripes.length * stripes[0].keys.length;
+    }
+
+    private final class Stripe {
+        private final long[] keys;
+        private final long[] expiries;
+        private final int mask;
+
+        private Stripe(int size) {
+            keys = new long[size];
+            expiries = new long[size];
+            mask = size - 1;
+        }
+
+        private boolean add(long key, int hash, long now, long expiry) {
+            int victim = -1;
+            for (int i = 0; i < PROBES; i++) {
+                final int index = (hash + i) & mask;
+                if (keys[index] == key && expiries[index] > now) {
+                    return false;
+                }
+                if (victim < 0 || expiries[index] < expiries[victim]) {
+                    victim = index;
+                }
+            }
+            if (keys[victim] != 0L && expiries[victim] > now) {
+                evictions.increment();
+            }
+            keys[victim] = key;
+            expiries[victim] = expiry;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package net.ha1f.util;
+
+/**
+ * Open addressing hash map from primitive {@code long} keys, without boxing on lookup.
+ * Not thread safe while being filled; safe to share once published and no longer modified.
+ */
+public final class LongObjectMap<V> {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+
+    public LongObjectMap() {
+        this(16);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        final int capacity = tableSizeFor((int) Math.ceil(Math.max(expectedSize, 2) / LOAD_FACTOR));
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int tableSizeFor(int n) {
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+
+    public static int hash(long key) {
+        // murmur3 の fmix64
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = hash(key) & mask;
+        Object value;
+        while ((value = values[index]) != null) {
+            if (keys[index] == key) {
+                return (V) value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return the previous value, or {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        int index = hash(key) & mask;
+        Object existing;
+        while ((existing = values[index]) != null) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return (V) existing;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size > keys.length * LOAD_FACTOR) {
+            resize();
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize() {
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int index = hash(oldKeys[i]) & mask;
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LongObjectMap(size=" + size + ", capacity=" + keys.length + ')';
+    }
+}
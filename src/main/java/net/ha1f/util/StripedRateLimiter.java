@@ -0,0 +1,96 @@
+package net.ha1f.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets spread over a fixed number of stripes, each one a single {@code long} updated by CAS
+ * (the generic cell rate algorithm: the stripe holds the time its bucket will be full again).
+ * Keys that hash to the same stripe share its bucket, so memory stays fixed however many keys appear.
+ */
+public final class StripedRateLimiter {
+
+    // まだ一度も使われていない
+    private static final long UNUSED = Long.MIN_VALUE;
+
+    private final AtomicLongArray theoreticalArrivals;
+    private final int mask;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final LongSupplier nanoClock;
+
+    /**
+     * @param permitsPerSecond 0 or less for no limit
+     * @param burst permits that can be taken at once after being idle
+     */
+    public StripedRateLimiter(int stripes, double permitsPerSecond, int burst) {
+        this(stripes, permitsPerSecond, burst, System::nanoTime);
+    }
+
+    public StripedRateLimiter(int stripes, double permitsPerSecond, int burst, LongSupplier nanoClock) {
+        final int size = ceilingPowerOfTwo(stripes);
+        theoreticalArrivals = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            theoreticalArrivals.set(i, UNUSED);
+        }
+        mask = size - 1;
+        intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0L;
+        toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.nanoClock = nanoClock;
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        final int highest = Integer.highestOneBit(Math.max(1, value));
+        return highest == value ? value : highest << 1;
+    }
+
+    public boolean isUnlimited() {
+        return intervalNanos == 0L;
+    }
+
+    public boolean tryAcquire(int hash) {
+        return reserve(hash, 0L) == 0L;
+    }
+
+    /**
+     * Gives back a permit taken from the stripe of {@code hash} that ended up not being used.
+     */
+    public void release(int hash) {
+        if (intervalNanos == 0L) {
+            return;
+        }
+        final int index = LongObjectMap.hash(hash) & mask;
+        while (true) {
+            final long current = theoreticalArrivals.get(index);
+            if (current == UNUSED || theoreticalArrivals.compareAndSet(index, current, current - intervalNanos)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes a permit now or reserves the next free one.
+     *
+     * @return 0 if the permit is available now, the nanoseconds to wait for the reserved permit,
+     *         or -1 if that would be longer than {@code maxWaitNanos} (nothing is reserved then)
+     */
+    public long reserve(int hash, long maxWaitNanos) {
+        if (intervalNanos == 0L) {
+            return 0L;
+        }
+        final int index = LongObjectMap.hash(hash) & mask;
+        while (true) {
+            final long now = nanoClock.getAsLong();
+            final long current = theoreticalArrivals.get(index);
+            final long arrival = current == UNUSED || current - now < 0 ? now : current;
+            final long wait = Math.max(0L, arrival - toleranceNanos - now);
+            if (wait > maxWaitNanos) {
+                return -1L;
+            }
+            if (theoreticalArrivals.compareAndSet(index, current, arrival + intervalNanos)) {
+                return wait;
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package net.ha1f.broadcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.linecorp.bot.model.Multicast;
+import com.linecorp.bot.model.response.BotApiResponse;
+
+import net.ha1f.log.EventLog;
+import net.ha1f.metrics.BotMetrics;
+import net.ha1f.reply.ReplyDispatcher;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+public class BroadcastEngineTests {
+
+	private static final EventLog LOG = new EventLog(16, EventLog.Overflow.DROP, 0);
+
+	// multicast を受け取って宛先ごとに数える。answered 件目より後は応答しない
+	private static final class StubMulticastApi {
+		private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+		private final Map<String, AtomicInteger> received = new ConcurrentHashMap<>();
+		private final AtomicInteger calls = new AtomicInteger();
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicInteger maxInFlight = new AtomicInteger();
+		private final int answered;
+
+		StubMulticastApi(int answered) {
+			this.answered = answered;
+		}
+
+		Call<BotApiResponse> multicast(Multicast multicast) {
+			return new Call<BotApiResponse>() {
+				@Override
+				public Response<BotApiResponse> execute() {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public void enqueue(Callback<BotApiResponse> callback) {
+					if (calls.incrementAndGet() > answered) {
+						return;
+					}
+					maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+					executor.schedule(() -> {
+						multicast.getTo().forEach(to -> received.computeIfAbsent(to, id -> new AtomicInteger())
+						                                        .incrementAndGet());
+						inFlight.decrementAndGet();
+						callback.onResponse(this, Response.success(new BotApiResponse("ok", Collections.emptyList())));
+					}, 5, TimeUnit.MILLISECONDS);
+				}
+
+				@Override
+				public boolean isExecuted() {
+					return false;
+				}
+
+				@Override
+				public void cancel() {
+				}
+
+				@Override
+				public boolean isCanceled() {
+					return false;
+				}
+
+				@Override
+				public Call<BotApiResponse> clone() {
+					return this;
+				}
+
+				@Override
+				public okhttp3.Request request() {
+					return null;
+				}
+			};
+		}
+	}
+
+	private static FollowerRegistry followers(int count) {
+		final FollowerRegistry followers = new FollowerRegistry((Path) null, LOG);
+		for (int i = 0; i < count; i++) {
+			followers.follow("U" + i);
+		}
+		return followers;
+	}
+
+	private static BroadcastEngine engine(StubMulticastApi api, FollowerRegistry followers, Path dir) {
+		final ReplyDispatcher dispatcher = new ReplyDispatcher(null, new BotMetrics(), 16, 64,
+		                                                       ReplyDispatcher.Overflow.REJECT, 0);
+		return new BroadcastEngine(api::multicast, dispatcher, followers, dir, 10, 3, 1000, true, LOG);
+	}
+
+	private static void awaitDone(BroadcastEngine.Broadcast broadcast) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!broadcast.isDone() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(broadcast.isDone());
+	}
+
+	@Test
+	public void sendsEveryFollowerOnceInBatches() throws Exception {
+		final StubMulticastApi api = new StubMulticastApi(Integer.MAX_VALUE);
+		final Path dir = Files.createTempDirectory("broadcasts");
+		final BroadcastEngine engine = engine(api, followers(95), dir);
+
+		final BroadcastEngine.Broadcast broadcast = engine.broadcast(Arrays.asList("お知らせ", "です"));
+		awaitDone(broadcast);
+
+		assertEquals(10, broadcast.getBatches());
+		assertEquals(10, broadcast.getSentBatches());
+		assertEquals(95, api.received.size());
+		api.received.values().forEach(count -> assertEquals(1, count.get()));
+		assertTrue(api.maxInFlight.get() <= 3);
+		assertTrue(broadcast.getRecipientsPerSecond() > 0);
+		assertTrue(Files.exists(dir.resolve(broadcast.getId()).resolve(BroadcastEngine.DONE_FILE)));
+		assertTrue(engine.resumeAll().isEmpty());
+		engine.close();
+	}
+
+	@Test
+	public void resumesWhereACrashedBroadcastStopped() throws Exception {
+		final Path dir = Files.createTempDirectory("broadcasts");
+		// 4 件目から応答がなくなったところで止まる
+		final StubMulticastApi crashing = new StubMulticastApi(3);
+		final BroadcastEngine first = engine(crashing, followers(95), dir);
+		final BroadcastEngine.Broadcast interrupted = first.broadcast(Collections.singletonList("お知らせ"));
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (interrupted.getSentBatches() < 3 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		first.close();
+		assertEquals(3, interrupted.getSentBatches());
+		assertTrue(!interrupted.isDone());
+
+		// 友だちが増えても、始めたときの宛先に送る
+		final StubMulticastApi api = new StubMulticastApi(Integer.MAX_VALUE);
+		final BroadcastEngine second = engine(api, followers(200), dir);
+		final List<BroadcastEngine.Broadcast> resumed = second.resumeAll();
+		assertEquals(1, resumed.size());
+		awaitDone(resumed.get(0));
+
+		assertEquals(3, resumed.get(0).getResumedBatches());
+		assertEquals(7, resumed.get(0).getSentBatches());
+		assertEquals(95 - 30, api.received.size());
+		crashing.received.keySet().forEach(id -> assertTrue(id, !api.received.containsKey(id)));
+		second.close();
+	}
+
+	@Test
+	public void abandonsABroadcastThatCannotBeRead() throws Exception {
+		final Path dir = Files.createTempDirectory("broadcasts");
+		final Path job = Files.createDirectory(dir.resolve("0000000000001"));
+		// 宛先を書く前に落ちた
+		Files.write(job.resolve(BroadcastEngine.MESSAGES_FILE), new byte[] { 0, 0, 0, 0 });
+		final BroadcastEngine engine = engine(new StubMulticastApi(Integer.MAX_VALUE), followers(1), dir);
+
+		assertTrue(engine.resumeAll().isEmpty());
+		assertTrue(Files.exists(job.resolve(BroadcastEngine.ABANDONED_FILE)));
+		// 宛先が読めるようになっても、もう試さない
+		Files.write(job.resolve(BroadcastEngine.RECIPIENTS_FILE), new byte[] { 0, 0, 0, 0 });
+		assertTrue(engine.resumeAll().isEmpty());
+		engine.close();
+	}
+
+	@Test
+	public void rejectsTooManyMessages() throws IOException {
+		try {
+			engine(new StubMulticastApi(0), followers(1), null).broadcast(Arrays.asList("1", "2", "3", "4", "5", "6"));
+			fail();
+		} catch (IllegalArgumentException expected) {
+			// 5 件まで
+		}
+	}
+}
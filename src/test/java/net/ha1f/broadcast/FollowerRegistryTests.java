@@ -0,0 +1,78 @@
+package net.ha1f.broadcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import net.ha1f.log.EventLog;
+
+public class FollowerRegistryTests {
+
+	private static final EventLog LOG = new EventLog(16, EventLog.Overflow.DROP, 0);
+
+	@Test
+	public void recordsFollowsAndUnfollowsOnce() throws Exception {
+		final Path file = Files.createTempDirectory("followers").resolve("followers.log");
+		final FollowerRegistry registry = new FollowerRegistry(file, LOG);
+		assertTrue(registry.follow("U1"));
+		assertTrue(registry.follow("U2"));
+		assertFalse(registry.follow("U1"));
+		assertTrue(registry.follow("U3"));
+		assertTrue(registry.unfollow("U2"));
+		assertFalse(registry.unfollow("U2"));
+		registry.close();
+		// 1 + 2 + 2 バイトの記録が 4 つ
+		assertEquals(4 * 5, Files.size(file));
+
+		final FollowerRegistry reloaded = new FollowerRegistry(file, LOG);
+		assertEquals(Arrays.asList("U1", "U3"), reloaded.snapshot());
+		assertTrue(reloaded.contains("U3"));
+		assertFalse(reloaded.contains("U2"));
+		reloaded.close();
+	}
+
+	@Test
+	public void dropsAPartialRecordAndKeepsAppending() throws Exception {
+		final Path file = Files.createTempDirectory("followers").resolve("followers.log");
+		final FollowerRegistry registry = new FollowerRegistry(file, LOG);
+		registry.follow("U1");
+		registry.close();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 1, 0, 2, 'U' }));
+		}
+
+		final FollowerRegistry recovered = new FollowerRegistry(file, LOG);
+		recovered.follow("U2");
+		recovered.close();
+		assertEquals(Arrays.asList("U1", "U2"), new FollowerRegistry(file, LOG).snapshot());
+	}
+
+	@Test
+	public void compactsAFileOfMostlyUnfollows() throws Exception {
+		final Path file = Files.createTempDirectory("followers").resolve("followers.log");
+		final FollowerRegistry registry = new FollowerRegistry(file, LOG);
+		for (int i = 0; i < 1000; i++) {
+			registry.follow("U" + i);
+			if (i % 10 != 0) {
+				registry.unfollow("U" + i);
+			}
+		}
+		registry.close();
+		final long before = Files.size(file);
+
+		final FollowerRegistry compacted = new FollowerRegistry(file, LOG);
+		assertEquals(100, compacted.size());
+		assertTrue(Files.size(file) < before / 10);
+		compacted.close();
+		assertEquals(compacted.snapshot(), new FollowerRegistry(file, LOG).snapshot());
+	}
+}
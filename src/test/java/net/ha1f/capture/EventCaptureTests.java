@@ -0,0 +1,145 @@
+package net.ha1f.capture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.linecorp.bot.model.event.BeaconEvent;
+import com.linecorp.bot.model.event.FollowEvent;
+import com.linecorp.bot.model.event.MessageEvent;
+import com.linecorp.bot.model.event.UnfollowEvent;
+import com.linecorp.bot.model.event.beacon.BeaconContent;
+import com.linecorp.bot.model.event.message.ImageMessageContent;
+import com.linecorp.bot.model.event.message.StickerMessageContent;
+import com.linecorp.bot.model.event.message.TextMessageContent;
+import com.linecorp.bot.model.event.source.GroupSource;
+import com.linecorp.bot.model.event.source.RoomSource;
+import com.linecorp.bot.model.event.source.UserSource;
+import com.linecorp.bot.model.message.Message;
+import com.linecorp.bot.model.message.StickerMessage;
+import com.linecorp.bot.model.message.TextMessage;
+
+import net.ha1f.log.EventLog;
+
+public class EventCaptureTests {
+
+	private static final EventLog LOG = new EventLog(16, EventLog.Overflow.DROP, 0);
+
+	private static final Instant TIMESTAMP = Instant.ofEpochMilli(1500000000000L);
+
+	@Test
+	public void readsBackEveryKindOfEventAndReplies() throws Exception {
+		final Path dir = Files.createTempDirectory("capture");
+		final EventCapture capture = new EventCapture(dir, 1 << 20, 64, LOG);
+		capture.event(new MessageEvent<>("r1", new GroupSource("G1", "U1"),
+		                                 new TextMessageContent("m1", "こんにちは"), TIMESTAMP));
+		capture.reply("r1", Arrays.<Message>asList(new TextMessage("やあ"),
+		                                           new StickerMessage("11537", "52002734")));
+		capture.event(new MessageEvent<>("r2", new RoomSource("U2", "R1"),
+		                                 new StickerMessageContent("m2", "11537", "52002734"), TIMESTAMP));
+		capture.event(new MessageEvent<>("r3", new UserSource("U3"), new ImageMessageContent("m3"), TIMESTAMP));
+		capture.event(new FollowEvent("r4", new UserSource("U4"), TIMESTAMP));
+		capture.event(new UnfollowEvent(new UserSource("U4"), TIMESTAMP));
+		capture.event(new BeaconEvent("r5", new UserSource("U5"), new BeaconContent("d41d8cd98f", "enter"),
+		                              TIMESTAMP));
+		capture.close();
+		assertEquals(7, capture.getCapturedCount());
+
+		try (CaptureReader reader = new CaptureReader(dir)) {
+			final CaptureRecord text = reader.next();
+			final MessageEvent<?> textEvent = (MessageEvent<?>) text.getEvent();
+			assertEquals("r1", textEvent.getReplyToken());
+			assertEquals(TIMESTAMP, textEvent.getTimestamp());
+			assertEquals("G1", ((GroupSource) textEvent.getSource()).getGroupId());
+			assertEquals("U1", textEvent.getSource().getUserId());
+			assertEquals("m1", textEvent.getMessage().getId());
+			assertEquals("こんにちは", ((TextMessageContent) textEvent.getMessage()).getText());
+
+			final CaptureRecord reply = reader.next();
+			assertTrue(reply.isReply());
+			assertEquals("r1", reply.getReplyToken());
+			assertEquals(Arrays.asList("やあ", "[StickerMessage]"), reply.getReplies());
+			assertTrue(reply.getArrivalMicros() >= text.getArrivalMicros());
+
+			final MessageEvent<?> sticker = (MessageEvent<?>) reader.next().getEvent();
+			assertEquals("R1", ((RoomSource) sticker.getSource()).getRoomId());
+			assertEquals("U2", sticker.getSource().getUserId());
+			assertEquals("52002734", ((StickerMessageContent) sticker.getMessage()).getStickerId());
+
+			final MessageEvent<?> image = (MessageEvent<?>) reader.next().getEvent();
+			assertEquals("m3", ((ImageMessageContent) image.getMessage()).getId());
+
+			assertEquals("r4", ((FollowEvent) reader.next().getEvent()).getReplyToken());
+			assertEquals("U4", reader.next().getEvent().getSource().getUserId());
+
+			final BeaconEvent beacon = (BeaconEvent) reader.next().getEvent();
+			assertEquals("d41d8cd98f", beacon.getBeacon().getHwid());
+			assertEquals("enter", beacon.getBeacon().getType());
+
+			assertNull(reader.next());
+		}
+	}
+
+	@Test
+	public void rotatesSegmentsAndReadsThemInOrder() throws Exception {
+		final Path dir = Files.createTempDirectory("capture");
+		final EventCapture capture = new EventCapture(dir, 1024, 4096, LOG);
+		for (int i = 0; i < 500; i++) {
+			capture.event(new MessageEvent<>("r" + i, new UserSource("U1"),
+			                                 new TextMessageContent("m" + i, "text " + i), TIMESTAMP));
+		}
+		capture.close();
+		assertEquals(500, capture.getCapturedCount() + capture.getDroppedCount());
+		assertTrue(CaptureReader.segmentsOf(dir).size() > 1);
+
+		try (CaptureReader reader = new CaptureReader(dir)) {
+			long previous = 0;
+			int count = 0;
+			CaptureRecord record;
+			while ((record = reader.next()) != null) {
+				assertTrue(record.getArrivalMicros() >= previous);
+				previous = record.getArrivalMicros();
+				count++;
+			}
+			assertEquals(capture.getCapturedCount(), count);
+		}
+	}
+
+	@Test
+	public void stopsAtAPartialRecord() throws Exception {
+		final Path dir = Files.createTempDirectory("capture");
+		final EventCapture capture = new EventCapture(dir, 1 << 20, 64, LOG);
+		capture.reply("r1", Collections.<Message>singletonList(new TextMessage("やあ")));
+		capture.reply("r2", Collections.<Message>singletonList(new TextMessage("またね")));
+		capture.close();
+
+		final List<Path> segments = CaptureReader.segmentsOf(dir);
+		assertEquals(1, segments.size());
+		try (FileChannel channel = FileChannel.open(segments.get(0), StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+		try (CaptureReader reader = new CaptureReader(dir)) {
+			assertEquals("r1", reader.next().getReplyToken());
+			assertNull(reader.next());
+		}
+	}
+
+	@Test
+	public void capturesNothingWhenDisabled() throws Exception {
+		final EventCapture capture = new EventCapture(null, 1 << 20, 64, LOG);
+		capture.event(new FollowEvent("r1", new UserSource("U1"), TIMESTAMP));
+		capture.close();
+		assertEquals(0, capture.getCapturedCount());
+	}
+}
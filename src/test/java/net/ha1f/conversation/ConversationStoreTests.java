@@ -0,0 +1,124 @@
+package net.ha1f.conversation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.linecorp.bot.model.event.source.GroupSource;
+import com.linecorp.bot.model.event.source.UserSource;
+
+import net.ha1f.log.EventLog;
+
+public class ConversationStoreTests {
+
+	private static final long IDLE = TimeUnit.MINUTES.toMillis(10);
+	private static final long FOLLOW_UP = TimeUnit.MINUTES.toMillis(1);
+	private static final EventLog LOG = new EventLog(16, EventLog.Overflow.DROP, 0);
+
+	@Test
+	public void remembersConversationsUntilTheyGoIdle() {
+		final AtomicLong now = new AtomicLong(1500000000000L);
+		final ConversationStore store = new ConversationStore(4, 100, IDLE, FOLLOW_UP, null, now::get, LOG);
+
+		assertNull(store.get("U1"));
+		store.message(new UserSource("U1"), "greeting");
+		now.addAndGet(1000);
+		final Conversation user = store.message(new UserSource("U1"), "tired");
+		assertEquals(2, user.getMessages());
+		assertEquals("tired", store.get("U1").getLastRule());
+		assertEquals(1500000000000L, user.getFirstSeenMillis());
+		assertTrue(!user.isMember());
+
+		store.message(new GroupSource("G1", "U1"), "greeting");
+		assertTrue(store.get("G1").isMember());
+		assertTrue(!store.left(new GroupSource("G1", "U1")).isMember());
+
+		now.addAndGet(IDLE);
+		assertNull(store.get("G1"));
+		store.sweep();
+		assertEquals(0, store.size());
+		assertEquals(2, store.getExpirationCount());
+		// 忘れたあとは最初から
+		assertEquals(1, store.message(new UserSource("U1"), "greeting").getMessages());
+	}
+
+	@Test
+	public void followsUpOnlyOnRecentReplies() {
+		final AtomicLong now = new AtomicLong(1500000000000L);
+		final ConversationStore store = new ConversationStore(4, 100, IDLE, FOLLOW_UP, null, now::get, LOG);
+		assertNull(store.previousRule("U1"));
+
+		store.message(new UserSource("U1"), "tired");
+		now.addAndGet(FOLLOW_UP - 1);
+		assertEquals("tired", store.previousRule("U1"));
+		now.incrementAndGet();
+		assertNull(store.previousRule("U1"));
+		// 覚えてはいる
+		assertEquals("tired", store.get("U1").getLastRule());
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUpdatedBeyondTheCap() {
+		final AtomicLong now = new AtomicLong();
+		final ConversationStore store = new ConversationStore(1, 3, IDLE, FOLLOW_UP, null, now::get, LOG);
+		for (int i = 0; i < 3; i++) {
+			store.message(new UserSource("U" + i), null);
+			now.incrementAndGet();
+		}
+		store.message(new UserSource("U0"), null);
+		store.message(new UserSource("U3"), null);
+
+		assertEquals(3, store.size());
+		assertEquals(1, store.getEvictionCount());
+		assertNull(store.get("U1"));
+		assertEquals(2, store.get("U0").getMessages());
+	}
+
+	@Test
+	public void restoresTheSnapshot() throws Exception {
+		final Path file = Files.createTempDirectory("conversations").resolve("conversations.snap");
+		final AtomicLong now = new AtomicLong(1500000000000L);
+		final ConversationStore store = new ConversationStore(8, 1000, IDLE, FOLLOW_UP, file, now::get, LOG);
+		for (int i = 0; i < 500; i++) {
+			store.message(new UserSource("U" + i), i % 2 == 0 ? "はるふ" : null);
+		}
+		store.left(new GroupSource("G1", "U1"));
+		now.addAndGet(IDLE / 2);
+		store.message(new UserSource("U0"), "つかれた");
+		store.snapshot();
+		assertEquals(501, store.getSnapshotCount());
+
+		final ConversationStore restored = new ConversationStore(8, 1000, IDLE, FOLLOW_UP, file, now::get, LOG);
+		restored.restore();
+		assertEquals(501, restored.getRestoredCount());
+		assertEquals(501, restored.size());
+		assertEquals("つかれた", restored.get("U0").getLastRule());
+		assertEquals(2, restored.get("U0").getMessages());
+		assertNull(restored.get("U1").getLastRule());
+		assertEquals("はるふ", restored.get("U2").getLastRule());
+		assertEquals(Conversation.Kind.GROUP, restored.get("G1").getKind());
+		assertTrue(!restored.get("G1").isMember());
+
+		// 止まっている間に古くなったものは読まない
+		now.addAndGet(IDLE / 2);
+		final ConversationStore later = new ConversationStore(8, 1000, IDLE, FOLLOW_UP, file, now::get, LOG);
+		later.restore();
+		assertEquals(1, later.getRestoredCount());
+	}
+
+	@Test
+	public void startsEmptyFromABrokenSnapshot() throws Exception {
+		final Path file = Files.createTempFile("conversations", ".snap");
+		Files.write(file, new byte[] { 1, 2, 3 });
+		final ConversationStore store = new ConversationStore(8, 1000, IDLE, FOLLOW_UP, file, System::currentTimeMillis, LOG);
+		store.restore();
+		assertEquals(0, store.size());
+	}
+}
@@ -0,0 +1,58 @@
+package net.ha1f.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.linecorp.bot.model.event.BeaconEvent;
+import com.linecorp.bot.model.event.beacon.BeaconContent;
+import com.linecorp.bot.model.event.source.UserSource;
+
+import net.ha1f.util.ExpiringLongSet;
+
+public class BeaconDebouncerTests {
+
+	private static BeaconEvent beacon(String userId, String hwid, String type) {
+		return new BeaconEvent("token", new UserSource(userId), new BeaconContent(hwid, type),
+		                       Instant.ofEpochMilli(1500000000000L));
+	}
+
+	@Test
+	public void absorbsRepeatedEntersUntilTheQuietPeriodEnds() {
+		final AtomicLong now = new AtomicLong();
+		final BeaconDebouncer debouncer = new BeaconDebouncer(true, new ExpiringLongSet(1024, 4, 1000, now::get));
+
+		assertTrue(debouncer.shouldReply(beacon("U1", "d41d8cd98f", "enter")));
+		now.set(500);
+		assertFalse(debouncer.shouldReply(beacon("U1", "d41d8cd98f", "enter")));
+		assertTrue(debouncer.shouldReply(beacon("U1", "0123456789", "enter")));
+		assertTrue(debouncer.shouldReply(beacon("U2", "d41d8cd98f", "enter")));
+		// enter 以外は数えない
+		assertTrue(debouncer.shouldReply(beacon("U1", "d41d8cd98f", "leave")));
+
+		// 続けて届いても、最初の enter から数える
+		now.set(999);
+		assertFalse(debouncer.shouldReply(beacon("U1", "d41d8cd98f", "enter")));
+		now.set(1000);
+		assertTrue(debouncer.shouldReply(beacon("U1", "d41d8cd98f", "enter")));
+
+		assertEquals(6, debouncer.getEnterCount());
+		assertEquals(2, debouncer.getSuppressedCount());
+	}
+
+	@Test
+	public void staysWithinItsCapacity() {
+		final ExpiringLongSet recent = new ExpiringLongSet(64, 1, 60000, () -> 0L);
+		final BeaconDebouncer debouncer = new BeaconDebouncer(true, recent);
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(debouncer.shouldReply(beacon("U" + i, "d41d8cd98f", "enter")));
+		}
+		assertEquals(64, recent.capacity());
+		assertTrue(debouncer.getEvictionCount() >= 1000 - 64);
+	}
+}
@@ -0,0 +1,72 @@
+package net.ha1f.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.linecorp.bot.model.event.FollowEvent;
+import com.linecorp.bot.model.event.MessageEvent;
+import com.linecorp.bot.model.event.UnfollowEvent;
+import com.linecorp.bot.model.event.message.TextMessageContent;
+import com.linecorp.bot.model.event.source.UserSource;
+
+import net.ha1f.util.ExpiringLongSet;
+
+public class EventDeduplicatorTests {
+
+	private static final Instant TIMESTAMP = Instant.ofEpochMilli(1500000000000L);
+
+	private static MessageEvent<TextMessageContent> text(String replyToken, String userId) {
+		return new MessageEvent<>(replyToken, new UserSource(userId), new TextMessageContent("1", "はるふ"), TIMESTAMP);
+	}
+
+	@Test
+	public void dropsRedeliveriesWithinTheTtl() {
+		final AtomicLong now = new AtomicLong();
+		final EventDeduplicator deduplicator = new EventDeduplicator(true, new ExpiringLongSet(1024, 4, 1000, now::get));
+
+		assertTrue(deduplicator.firstDelivery(text("token", "U1")));
+		assertFalse(deduplicator.firstDelivery(text("token", "U1")));
+		assertTrue(deduplicator.firstDelivery(text("token2", "U1")));
+		assertTrue(deduplicator.firstDelivery(text("token", "U2")));
+		assertEquals(1, deduplicator.getDuplicateCount());
+
+		now.set(1000);
+		assertTrue(deduplicator.firstDelivery(text("token", "U1")));
+	}
+
+	@Test
+	public void eventsWithoutReplyTokenAreToldApartByType() {
+		final UserSource source = new UserSource("U1");
+		assertNotEquals(EventDeduplicator.identity(new FollowEvent("token", source, TIMESTAMP)),
+		                EventDeduplicator.identity(new UnfollowEvent(source, TIMESTAMP)));
+		assertEquals(EventDeduplicator.identity(new UnfollowEvent(source, TIMESTAMP)),
+		             EventDeduplicator.identity(new UnfollowEvent(new UserSource("U1"), TIMESTAMP)));
+	}
+
+	@Test
+	public void staysWithinCapacityByEvictingTheOldest() {
+		final AtomicLong now = new AtomicLong();
+		final ExpiringLongSet seen = new ExpiringLongSet(64, 1, 1000000, now::get);
+		for (long i = 1; i <= 10000; i++) {
+			now.set(i);
+			assertTrue(seen.add(i * 0x9e3779b97f4a7c15L));
+		}
+		assertEquals(64, seen.capacity());
+		assertTrue(seen.getEvictionCount() >= 10000 - 64);
+		assertFalse(seen.add(10000 * 0x9e3779b97f4a7c15L));
+	}
+
+	@Test
+	public void disabledLetsEverythingThrough() {
+		final EventDeduplicator deduplicator = new EventDeduplicator(false, new ExpiringLongSet(16, 1, 1000));
+		assertTrue(deduplicator.firstDelivery(text("token", "U1")));
+		assertTrue(deduplicator.firstDelivery(text("token", "U1")));
+	}
+}
@@ -0,0 +1,102 @@
+package net.ha1f.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.linecorp.bot.model.event.source.UserSource;
+
+import net.ha1f.log.EventLog;
+import net.ha1f.metrics.BotMetrics;
+import net.ha1f.util.StripedRateLimiter;
+
+public class EventExecutorTests {
+
+	private static SourceThrottle unthrottled() {
+		return new SourceThrottle(false, new StripedRateLimiter(1, 0, 1), new StripedRateLimiter(1, 0, 1),
+		                          SourceThrottle.Excess.DROP, 0, log());
+	}
+
+	private static EventLog log() {
+		return new EventLog(16, EventLog.Overflow.DROP, 0);
+	}
+
+	@Test
+	public void callerModeHandlesOnTheRequestThread() throws Exception {
+		final EventExecutor executor = new EventExecutor(unthrottled(), log(), new BotMetrics(), EventExecutor.Mode.CALLER, 1, 1);
+		final Thread[] handledOn = new Thread[1];
+		executor.dispatch(new UserSource("U1"), () -> handledOn[0] = Thread.currentThread());
+
+		assertEquals(Thread.currentThread(), handledOn[0]);
+		assertNull(executor.getBlockingExecutor());
+	}
+
+	@Test
+	public void poolModeReturnsBeforeTheHandlerRuns() throws Exception {
+		final EventExecutor executor = new EventExecutor(unthrottled(), log(), new BotMetrics(), EventExecutor.Mode.POOL, 2, 16);
+		final CompletableFuture<Thread> handledOn = new CompletableFuture<>();
+		final CompletableFuture<Void> release = new CompletableFuture<>();
+		executor.dispatch(new UserSource("U1"), () -> {
+			release.get();
+			handledOn.complete(Thread.currentThread());
+		});
+		assertTrue(!handledOn.isDone());
+
+		release.complete(null);
+		assertNotEquals(Thread.currentThread(), handledOn.get(5, TimeUnit.SECONDS));
+		executor.close();
+	}
+
+	@Test
+	public void poolModeDropsEventsBeyondTheQueue() throws Exception {
+		final BotMetrics metrics = new BotMetrics();
+		final EventExecutor executor = new EventExecutor(unthrottled(), log(), metrics, EventExecutor.Mode.POOL, 1, 1);
+		final CompletableFuture<Void> release = new CompletableFuture<>();
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicInteger handled = new AtomicInteger();
+		// 1 件目がスレッドを塞ぎ、2 件目が待ち、3 件目は溢れる
+		executor.dispatch(new UserSource("U1"), () -> {
+			started.countDown();
+			release.get();
+			handled.incrementAndGet();
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		executor.dispatch(new UserSource("U2"), handled::incrementAndGet);
+		executor.dispatch(new UserSource("U3"), handled::incrementAndGet);
+		assertEquals(Long.valueOf(1), metrics.getRejected().get("events"));
+
+		release.complete(null);
+		executor.close();
+		assertEquals(2, handled.get());
+	}
+
+	@Test
+	public void virtualModeNeedsJava21() throws Exception {
+		final boolean supported = hasMethod(Thread.class, "ofVirtual");
+		try {
+			final EventExecutor executor = new EventExecutor(unthrottled(), log(), new BotMetrics(), EventExecutor.Mode.VIRTUAL, 1, 1);
+			assertTrue(supported);
+			executor.close();
+		} catch (IllegalStateException e) {
+			assertTrue(!supported);
+			assertTrue(e.getMessage(), e.getMessage().contains("Java 21"));
+		}
+	}
+
+	private static boolean hasMethod(Class<?> type, String name) {
+		try {
+			type.getMethod(name);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+}
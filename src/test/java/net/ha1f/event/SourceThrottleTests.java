@@ -0,0 +1,116 @@
+package net.ha1f.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.linecorp.bot.model.event.source.GroupSource;
+import com.linecorp.bot.model.event.source.UserSource;
+
+import net.ha1f.log.EventLog;
+import net.ha1f.util.StripedRateLimiter;
+
+public class SourceThrottleTests {
+
+	private static final EventLog LOG = new EventLog(16, EventLog.Overflow.DROP, 0);
+
+	private final AtomicLong now = new AtomicLong();
+
+	private SourceThrottle throttle(SourceThrottle.Excess excess, double sourceRate, int burst) {
+		return new SourceThrottle(true, new StripedRateLimiter(64, sourceRate, burst, now::get),
+		                          new StripedRateLimiter(1, 0, 1, now::get), excess, 5000, LOG);
+	}
+
+	@Test
+	public void bucketRefillsAtTheConfiguredRate() {
+		final StripedRateLimiter limiter = new StripedRateLimiter(1, 2.0, 3, now::get);
+		assertTrue(limiter.tryAcquire(1));
+		assertTrue(limiter.tryAcquire(1));
+		assertTrue(limiter.tryAcquire(1));
+		assertTrue(!limiter.tryAcquire(1));
+
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+		assertTrue(limiter.tryAcquire(1));
+		assertTrue(!limiter.tryAcquire(1));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(500), limiter.reserve(1, Long.MAX_VALUE));
+		assertEquals(-1, limiter.reserve(1, TimeUnit.MILLISECONDS.toNanos(100)));
+	}
+
+	@Test
+	public void dropsOnlyTheBusySource() throws Exception {
+		final SourceThrottle throttle = throttle(SourceThrottle.Excess.DROP, 1.0, 2);
+		final List<String> handled = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			throttle.submit(new GroupSource("G1", "U1"), () -> handled.add("G1"));
+		}
+		throttle.submit(new UserSource("U2"), () -> handled.add("U2"));
+
+		assertEquals(3, handled.size());
+		assertEquals(Collections.singletonList("U2"), handled.subList(2, 3));
+		assertEquals(3, throttle.getDroppedCount());
+		assertEquals(1, throttle.getThrottledSourceCount());
+		assertEquals(3, throttle.getMaxThrottledPerSource());
+	}
+
+	@Test
+	public void globalRejectionDoesNotChargeTheSource() throws Exception {
+		final StripedRateLimiter global = new StripedRateLimiter(1, 2.0, 1, now::get);
+		final SourceThrottle throttle = new SourceThrottle(true, new StripedRateLimiter(64, 1.0, 1, now::get),
+		                                                   global, SourceThrottle.Excess.DROP, 0, LOG);
+		final List<String> handled = new ArrayList<>();
+		assertTrue(global.tryAcquire(0));
+		throttle.submit(new UserSource("U1"), () -> handled.add("first"));
+		assertEquals(1, throttle.getDroppedCount());
+
+		// 送信元の 1 件/秒 は使っていないので、全体が空けばすぐ通る
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+		throttle.submit(new UserSource("U1"), () -> handled.add("second"));
+		assertEquals(Collections.singletonList("second"), handled);
+	}
+
+	@Test
+	public void coalescedEventsAnswerOnlyTheLatest() throws Exception {
+		final SourceThrottle throttle = new SourceThrottle(true, new StripedRateLimiter(64, 20.0, 1),
+		                                                   new StripedRateLimiter(1, 0, 1),
+		                                                   SourceThrottle.Excess.COALESCE, 5000, LOG);
+		final List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch flushed = new CountDownLatch(1);
+		for (int i = 0; i < 5; i++) {
+			final int n = i;
+			throttle.submit(new UserSource("U1"), () -> {
+				handled.add(n);
+				if (n > 0) {
+					flushed.countDown();
+				}
+			});
+		}
+		assertTrue(flushed.await(5, TimeUnit.SECONDS));
+		assertEquals(2, handled.size());
+		assertEquals(Integer.valueOf(4), handled.get(1));
+		assertEquals(3, throttle.getCoalescedCount());
+		throttle.close();
+	}
+
+	@Test
+	public void delayedEventsRunInTheirTurn() throws Exception {
+		final SourceThrottle throttle = new SourceThrottle(true, new StripedRateLimiter(64, 50.0, 1),
+		                                                   new StripedRateLimiter(1, 0, 1),
+		                                                   SourceThrottle.Excess.DELAY, 5000, LOG);
+		final CountDownLatch done = new CountDownLatch(4);
+		for (int i = 0; i < 4; i++) {
+			throttle.submit(new UserSource("U1"), done::countDown);
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(3, throttle.getDelayedCount());
+		assertEquals(0, throttle.getDroppedCount());
+		throttle.close();
+	}
+}
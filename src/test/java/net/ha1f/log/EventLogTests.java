@@ -0,0 +1,87 @@
+package net.ha1f.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.linecorp.bot.model.event.MessageEvent;
+import com.linecorp.bot.model.event.message.TextMessageContent;
+import com.linecorp.bot.model.event.source.UserSource;
+import com.linecorp.bot.model.response.BotApiResponse;
+
+public class EventLogTests {
+
+	@Test
+	public void writesEventsAndResponsesAsJsonLines() {
+		final StringWriter out = new StringWriter();
+		final EventLog log = new EventLog(4, EventLog.Overflow.DROP, 0, out);
+
+		log.event(new MessageEvent<>("token", new UserSource("U1"), new TextMessageContent("1", "はるふ"),
+		                             Instant.ofEpochMilli(1500000000000L)));
+		log.response("token", System.nanoTime(), new BotApiResponse("", Collections.emptyList()));
+		log.failure("token", System.nanoTime(), new IllegalStateException("a \"quoted\"\nerror"));
+		assertEquals(3, log.drain());
+
+		final String[] lines = out.toString().split("\n");
+		assertEquals(3, lines.length);
+		assertTrue(lines[0], lines[0].contains("\"kind\":\"event\",\"type\":\"TextMessageContent\""
+		                                      + ",\"source\":\"UserSource\",\"sourceId\":\"U1\""
+		                                      + ",\"replyToken\":\"token\",\"eventTime\":1500000000000}"));
+		assertTrue(lines[1], lines[1].contains("\"kind\":\"response\",\"replyToken\":\"token\""));
+		assertTrue(lines[2], lines[2].endsWith(
+				"\"error\":\"java.lang.IllegalStateException: a \\\"quoted\\\"\\nerror\"}"));
+		assertEquals(3, log.getWrittenCount());
+	}
+
+	@Test
+	public void writesComponentFailures() {
+		final StringWriter out = new StringWriter();
+		final EventLog log = new EventLog(4, EventLog.Overflow.DROP, 0, out);
+
+		log.failure("media", "m1 not archived: java.io.IOException: disk full");
+		assertEquals(1, log.drain());
+		assertTrue(out.toString(), out.toString().endsWith(
+				"\"kind\":\"failure\",\"component\":\"media\",\"error\":\"m1 not archived: java.io.IOException: disk full\"}\n"));
+	}
+
+	@Test
+	public void dropsWhenTheRingIsFull() {
+		final StringWriter out = new StringWriter();
+		final EventLog log = new EventLog(3, EventLog.Overflow.DROP, 0, out);
+		assertEquals(4, log.getCapacity());
+
+		for (int i = 0; i < 6; i++) {
+			log.failure("token" + i, System.nanoTime(), new RuntimeException());
+		}
+		assertEquals(2, log.getDroppedCount());
+		assertEquals(4, log.getBacklog());
+
+		assertEquals(4, log.drain());
+		assertEquals(0, log.getBacklog());
+		assertTrue(out.toString().contains("token3"));
+		assertTrue(!out.toString().contains("token4"));
+	}
+
+	@Test
+	public void blockedWritersGiveUpAfterTheTimeout() {
+		final EventLog log = new EventLog(1, EventLog.Overflow.BLOCK, 10, new StringWriter());
+		log.start();
+		try {
+			for (int i = 0; i < 1000; i++) {
+				log.failure("token", System.nanoTime(), new RuntimeException());
+			}
+		} finally {
+			try {
+				log.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		assertEquals(1000, log.getWrittenCount() + log.getDroppedCount());
+	}
+}
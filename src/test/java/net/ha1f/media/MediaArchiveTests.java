@@ -0,0 +1,177 @@
+package net.ha1f.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import net.ha1f.log.EventLog;
+import net.ha1f.metrics.BotMetrics;
+import net.ha1f.util.LongObjectMap;
+
+import okhttp3.ResponseBody;
+import okio.Okio;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+public class MediaArchiveTests {
+
+	private static int sizeOf(long messageId) {
+		return (int) (messageId * 10007 % 300000);
+	}
+
+	private static byte contentAt(long messageId, long position) {
+		return (byte) (messageId * 31 + position);
+	}
+
+	// GET /v2/bot/message/{id}/content の代わり。id が奇数なら長さを知らせずに chunked で返す
+	private static void serveContent(HttpExchange exchange) throws IOException {
+		final String[] path = exchange.getRequestURI().getPath().split("/");
+		final long messageId = Long.parseLong(path[path.length - 2]);
+		if (messageId == 404) {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+		final int size = sizeOf(messageId);
+		exchange.sendResponseHeaders(200, messageId % 2 == 0 ? size : 0);
+		try (OutputStream out = exchange.getResponseBody()) {
+			final byte[] chunk = new byte[8192];
+			for (int position = 0; position < size; position += chunk.length) {
+				final int length = Math.min(chunk.length, size - position);
+				for (int i = 0; i < length; i++) {
+					chunk[i] = contentAt(messageId, position + i);
+				}
+				out.write(chunk, 0, length);
+			}
+		}
+	}
+
+	// Retrofit の getMessageContent と同じく、中身を読まずに ResponseBody を返す Call
+	private static final class ContentCall implements Call<ResponseBody> {
+		private final URL url;
+
+		ContentCall(URL url) {
+			this.url = url;
+		}
+
+		@Override
+		public Response<ResponseBody> execute() throws IOException {
+			final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			if (connection.getResponseCode() != 200) {
+				return Response.error(connection.getResponseCode(), ResponseBody.create(null, ""));
+			}
+			final InputStream in = connection.getInputStream();
+			return Response.success(ResponseBody.create(null, connection.getContentLengthLong(),
+			                                            Okio.buffer(Okio.source(in))));
+		}
+
+		@Override
+		public void enqueue(Callback<ResponseBody> callback) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean isExecuted() {
+			return false;
+		}
+
+		@Override
+		public void cancel() {
+		}
+
+		@Override
+		public boolean isCanceled() {
+			return false;
+		}
+
+		@Override
+		public Call<ResponseBody> clone() {
+			return new ContentCall(url);
+		}
+
+		@Override
+		public okhttp3.Request request() {
+			return null;
+		}
+	}
+
+	@Test
+	public void streamsContentToDiskAndIndexesIt() throws Exception {
+		final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+		server.createContext("/", MediaArchiveTests::serveContent);
+		server.setExecutor(Executors.newFixedThreadPool(8));
+		server.start();
+		final String endpoint = "http://127.0.0.1:" + server.getAddress().getPort() + "/v2/bot/message/";
+		final Path dir = Files.createTempDirectory("media");
+		try {
+			final MediaArchive archive = new MediaArchive(messageId -> {
+				try {
+					return new ContentCall(new URL(endpoint + messageId + "/content"));
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}, new BotMetrics(), new EventLog(16, EventLog.Overflow.DROP, 0), dir, 4, 64);
+			long expectedBytes = 0;
+			for (long messageId = 1; messageId <= 40; messageId++) {
+				assertTrue(archive.archive(Long.toString(messageId), MediaArchive.Kind.values()[(int) messageId % 3]));
+				expectedBytes += sizeOf(messageId);
+			}
+			assertTrue(archive.archive("404", MediaArchive.Kind.IMAGE));
+			archive.close();
+
+			assertEquals(40, archive.getArchivedCount());
+			assertEquals(1, archive.getFailedCount());
+			assertEquals(expectedBytes, archive.getBytes());
+
+			final LongObjectMap<MediaArchive.Entry> index = MediaArchive.readIndex(dir.resolve(MediaArchive.INDEX_FILE));
+			assertEquals(40, index.size());
+			assertEquals(null, index.get(404));
+			try (FileChannel data = FileChannel.open(dir.resolve(MediaArchive.DATA_FILE))) {
+				assertEquals(expectedBytes, data.size());
+				for (long messageId = 1; messageId <= 40; messageId++) {
+					final MediaArchive.Entry entry = index.get(messageId);
+					assertEquals(sizeOf(messageId), entry.getSize());
+					assertEquals(MediaArchive.Kind.values()[(int) messageId % 3], entry.getKind());
+					final ByteBuffer content = ByteBuffer.allocate((int) entry.getSize());
+					while (content.hasRemaining() && data.read(content, entry.getOffset() + content.position()) > 0) {
+						// 読み切るまで
+					}
+					for (int i = 0; i < entry.getSize(); i++) {
+						assertEquals(contentAt(messageId, i), content.get(i));
+					}
+				}
+			}
+		} finally {
+			server.stop(0);
+			((ExecutorService) server.getExecutor()).shutdownNow();
+		}
+	}
+
+	@Test
+	public void archivesNothingWhenDisabled() throws Exception {
+		final MediaArchive archive = new MediaArchive(messageId -> {
+			throw new AssertionError(messageId);
+		}, new BotMetrics(), new EventLog(16, EventLog.Overflow.DROP, 0), null, 1, 1);
+		assertTrue(!archive.isEnabled());
+		assertTrue(!archive.archive("1", MediaArchive.Kind.VIDEO));
+		archive.close();
+	}
+}
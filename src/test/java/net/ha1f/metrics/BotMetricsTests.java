@@ -0,0 +1,62 @@
+package net.ha1f.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BotMetricsTests {
+
+	@Test
+	public void percentilesFallInPowerOfTwoBuckets() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(127, histogram.percentileMicros(0.5));
+		assertEquals(127, histogram.percentileMicros(0.99));
+		assertEquals(50000, histogram.percentileMicros(0.999));
+		assertEquals(0, new LatencyHistogram().percentileMicros(0.5));
+	}
+
+	@Test
+	public void apiErrorsAreCountedPerEndpoint() {
+		final BotMetrics metrics = new BotMetrics();
+		metrics.recordApiCall("reply", 1000, true);
+		metrics.recordApiCall("reply", 1000, false);
+		metrics.recordApiCall("leave", 1000, true);
+
+		final Map<String, Map<String, Number>> api = metrics.getApiCalls();
+		assertEquals(2L, api.get("reply").get("count"));
+		assertEquals(1L, api.get("reply").get("errors"));
+		assertEquals(0L, api.get("leave").get("errors"));
+	}
+
+	@Test
+	public void countsAreSafeUnderConcurrentUpdates() throws Exception {
+		final BotMetrics metrics = new BotMetrics();
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 10000; i++) {
+					metrics.countRule("greeting");
+					metrics.recordHandler("text", i);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(Long.valueOf(40000), metrics.getRules().get("greeting"));
+		assertEquals(40000L, metrics.getHandlers().get("text").get("count"));
+		assertTrue(metrics.getStickerPacks().isEmpty());
+	}
+}
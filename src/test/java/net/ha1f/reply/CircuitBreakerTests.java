@@ -0,0 +1,59 @@
+package net.ha1f.reply;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class CircuitBreakerTests {
+
+	@Test
+	public void opensAfterConsecutiveFailuresAndLetsOneTrialThrough() {
+		final AtomicLong now = new AtomicLong();
+		final CircuitBreaker breaker = new CircuitBreaker(3, 1000, now::get);
+
+		breaker.onFailure();
+		breaker.onFailure();
+		breaker.onSuccess();
+		breaker.onFailure();
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertTrue(!breaker.tryAcquire());
+
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+		assertTrue(breaker.tryAcquire());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		// 試しの 1 件の結果が出るまでは通さない
+		assertTrue(!breaker.tryAcquire());
+
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertTrue(!breaker.tryAcquire());
+
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+		assertTrue(breaker.tryAcquire());
+		breaker.release();
+		assertTrue(breaker.tryAcquire());
+		breaker.onSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+
+		assertEquals(2, breaker.getOpenedCount());
+		assertEquals(3, breaker.getRejectedCount());
+	}
+
+	@Test
+	public void neverOpensWithoutThreshold() {
+		final CircuitBreaker breaker = new CircuitBreaker(0, 1000);
+		for (int i = 0; i < 100; i++) {
+			breaker.onFailure();
+		}
+		assertTrue(breaker.tryAcquire());
+		assertEquals(0, breaker.getOpenedCount());
+	}
+}
@@ -0,0 +1,128 @@
+package net.ha1f.reply;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.linecorp.bot.model.response.BotApiResponse;
+
+import net.ha1f.log.EventLog;
+import net.ha1f.metrics.BotMetrics;
+
+import retrofit2.Response;
+
+public class LeavePipelineTests {
+
+	private static final BotApiResponse OK = new BotApiResponse("ok", Collections.emptyList());
+
+	private static LeavePipeline pipeline() {
+		final ApiResilience resilience = new ApiResilience(0, "", "leave", 3, 1, 0, 0);
+		final ReplyDispatcher dispatcher = new ReplyDispatcher(null, new BotMetrics(), resilience, 4, 16,
+		                                                       ReplyDispatcher.Overflow.REJECT, 0, Runnable::run);
+		return new LeavePipeline(dispatcher, new EventLog(16, EventLog.Overflow.DROP, 0), 1000);
+	}
+
+	@Test
+	public void leavesOnlyAfterTheFarewellEvenIfItFailed() throws Exception {
+		final LeavePipeline pipeline = pipeline();
+		final AtomicInteger executions = new AtomicInteger();
+		final CompletableFuture<BotApiResponse> farewell = new CompletableFuture<>();
+		final CompletableFuture<BotApiResponse> left = pipeline.leave(
+				() -> farewell, new ScriptedCall(executions, Response.success(OK)));
+
+		assertEquals(0, executions.get());
+		assertEquals(1, pipeline.getPendingCount());
+		farewell.completeExceptionally(new IOException("farewell lost"));
+
+		assertEquals("ok", left.get(5, TimeUnit.SECONDS).getMessage());
+		assertEquals(1, pipeline.getFarewellFailureCount());
+		assertEquals(0, pipeline.getPendingCount());
+	}
+
+	@Test
+	public void retriesTransientFailuresOfTheLeaveCall() throws Exception {
+		final LeavePipeline pipeline = pipeline();
+		final AtomicInteger executions = new AtomicInteger();
+		final CompletableFuture<BotApiResponse> left = pipeline.leave(
+				() -> CompletableFuture.completedFuture(null),
+				new ScriptedCall(executions, ScriptedCall.status(503), new IOException("reset"), Response.success(OK)));
+
+		assertEquals("ok", left.get(5, TimeUnit.SECONDS).getMessage());
+		assertEquals(3, executions.get());
+		assertEquals(1, pipeline.getCompletedCount());
+	}
+
+	@Test
+	public void doesNotRetryClientErrors() throws Exception {
+		final LeavePipeline pipeline = pipeline();
+		final AtomicInteger executions = new AtomicInteger();
+		final CompletableFuture<BotApiResponse> left = pipeline.leave(
+				() -> CompletableFuture.completedFuture(null),
+				new ScriptedCall(executions, ScriptedCall.status(400)));
+		try {
+			left.get(5, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			assertEquals(400, ((LineApiException) e.getCause()).getStatus());
+		}
+		assertEquals(1, executions.get());
+		assertEquals(1, pipeline.getFailedCount());
+	}
+
+	@Test
+	public void sendsNothingAfterShutdown() throws Exception {
+		final LeavePipeline pipeline = pipeline();
+		pipeline.close();
+		final AtomicInteger farewells = new AtomicInteger();
+		final AtomicInteger executions = new AtomicInteger();
+
+		// 呼び出し側は何も返事をしない
+		assertNull(pipeline.leave(() -> CompletableFuture.completedFuture(farewells.incrementAndGet()),
+		                          new ScriptedCall(executions, Response.success(OK))));
+		assertEquals(0, farewells.get());
+		assertEquals(0, executions.get());
+		assertEquals(0, pipeline.getPendingCount());
+	}
+
+	@Test
+	public void shutdownWaitsForAcceptedLeavesAndRejectsNewOnes() throws Exception {
+		final LeavePipeline pipeline = pipeline();
+		final AtomicInteger executions = new AtomicInteger();
+		final CompletableFuture<BotApiResponse> farewell = new CompletableFuture<>();
+		final CompletableFuture<BotApiResponse> left = pipeline.leave(
+				() -> farewell, new ScriptedCall(executions, Response.success(OK)));
+
+		final Thread closer = new Thread(() -> {
+			try {
+				pipeline.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		closer.start();
+		// 閉じ始めるまでは受け付けられてすぐ終わる
+		while (pipeline.leave(() -> CompletableFuture.completedFuture(null),
+		                      new ScriptedCall(new AtomicInteger(), Response.success(OK))) != null) {
+			Thread.sleep(1);
+		}
+		// 断った退出はお別れも言わない
+		final AtomicInteger farewells = new AtomicInteger();
+		assertNull(pipeline.leave(() -> CompletableFuture.completedFuture(farewells.incrementAndGet()),
+		                          new ScriptedCall(new AtomicInteger(), Response.success(OK))));
+		assertEquals(0, farewells.get());
+		assertTrue(!left.isDone());
+		farewell.complete(OK);
+		closer.join(5000);
+
+		assertTrue(left.isDone());
+		assertEquals(1, executions.get());
+	}
+}
@@ -0,0 +1,177 @@
+package net.ha1f.reply;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.linecorp.bot.model.response.BotApiResponse;
+
+import net.ha1f.metrics.BotMetrics;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+public class ReplyDispatcherTests {
+
+	// enqueue されたまま応答を返さない Call
+	private static final class PendingCall implements Call<BotApiResponse> {
+		private Callback<BotApiResponse> callback;
+		// execute() の結果。null なら IOException
+		private Response<BotApiResponse> executeResponse;
+
+		void succeed() {
+			callback.onResponse(this, Response.success(new BotApiResponse("ok", Collections.emptyList())));
+		}
+
+		void fail() {
+			callback.onFailure(this, new IOException("timeout"));
+		}
+
+		@Override
+		public Response<BotApiResponse> execute() throws IOException {
+			if (executeResponse == null) {
+				throw new IOException("timeout");
+			}
+			return executeResponse;
+		}
+
+		@Override
+		public void enqueue(Callback<BotApiResponse> callback) {
+			this.callback = callback;
+		}
+
+		@Override
+		public boolean isExecuted() {
+			return callback != null;
+		}
+
+		@Override
+		public void cancel() {
+		}
+
+		@Override
+		public boolean isCanceled() {
+			return false;
+		}
+
+		@Override
+		public Call<BotApiResponse> clone() {
+			return new PendingCall();
+		}
+
+		@Override
+		public okhttp3.Request request() {
+			return null;
+		}
+	}
+
+	@Test
+	public void limitsCallsInFlightAndRejectsWhenQueueIsFull() throws Exception {
+		final ReplyDispatcher dispatcher = new ReplyDispatcher(null, new BotMetrics(), 2, 1, ReplyDispatcher.Overflow.REJECT, 0);
+		final List<PendingCall> calls = new ArrayList<>();
+		final List<CompletableFuture<BotApiResponse>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			final PendingCall call = new PendingCall();
+			calls.add(call);
+			futures.add(dispatcher.dispatch(call));
+		}
+
+		assertEquals(2, dispatcher.getInFlight());
+		assertEquals(1, dispatcher.getQueueDepth());
+		assertTrue(calls.get(0).isExecuted());
+		assertTrue(!calls.get(2).isExecuted());
+		assertEquals(1, dispatcher.getRejectedCount());
+		assertTrue(futures.get(3).isCompletedExceptionally());
+		try {
+			futures.get(3).get();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+
+		calls.get(0).succeed();
+		assertEquals("ok", futures.get(0).get().getMessage());
+		assertTrue(calls.get(2).isExecuted());
+		assertEquals(0, dispatcher.getQueueDepth());
+
+		calls.get(1).fail();
+		calls.get(2).succeed();
+		assertTrue(futures.get(1).isCompletedExceptionally());
+		assertEquals(0, dispatcher.getInFlight());
+		assertEquals(2, dispatcher.getCompletedCount());
+		assertEquals(1, dispatcher.getFailedCount());
+	}
+
+	@Test
+	public void runsBlockingCallsOnTheGivenExecutor() throws Exception {
+		final List<Runnable> executed = new ArrayList<>();
+		final ReplyDispatcher dispatcher = new ReplyDispatcher(null, new BotMetrics(), ApiResilience.none(), 2, 4,
+		                                                       ReplyDispatcher.Overflow.REJECT, 0, executed::add);
+		final PendingCall ok = new PendingCall();
+		ok.executeResponse = Response.success(new BotApiResponse("ok", Collections.emptyList()));
+		final PendingCall broken = new PendingCall();
+		final CompletableFuture<BotApiResponse> okFuture = dispatcher.dispatch(ok);
+		final CompletableFuture<BotApiResponse> brokenFuture = dispatcher.dispatch(broken);
+
+		assertEquals(2, executed.size());
+		assertEquals(2, dispatcher.getInFlight());
+		assertTrue(!ok.isExecuted());
+		executed.forEach(Runnable::run);
+
+		assertEquals("ok", okFuture.get().getMessage());
+		assertTrue(brokenFuture.isCompletedExceptionally());
+		assertEquals(0, dispatcher.getInFlight());
+		assertEquals(1, dispatcher.getFailedCount());
+	}
+
+	@Test
+	public void timesOutAndOnlyRetriesCallsThatAreSafeToRepeat() throws Exception {
+		final ApiResilience resilience = new ApiResilience(50, "", "leave", 3, 1, 0, 0);
+		final ReplyDispatcher dispatcher = new ReplyDispatcher(null, new BotMetrics(), resilience, 2, 4,
+		                                                       ReplyDispatcher.Overflow.REJECT, 0, null);
+		try {
+			final CompletableFuture<BotApiResponse> reply = dispatcher.dispatch("reply", new PendingCall());
+			try {
+				reply.get(5, TimeUnit.SECONDS);
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+			assertTrue(reply.isCompletedExceptionally());
+
+			// 429 は送られていないので reply でもやり直す
+			final AtomicInteger executions = new AtomicInteger();
+			final ReplyDispatcher blocking = new ReplyDispatcher(null, new BotMetrics(), resilience, 2, 4,
+			                                                     ReplyDispatcher.Overflow.REJECT, 0, Runnable::run);
+			final BotApiResponse ok = new BotApiResponse("ok", Collections.emptyList());
+			assertEquals("ok", blocking.dispatch("reply", new ScriptedCall(executions, ScriptedCall.status(429),
+			                                                                Response.success(ok)))
+			                           .get(5, TimeUnit.SECONDS).getMessage());
+			assertEquals(2, executions.get());
+
+			executions.set(0);
+			final CompletableFuture<BotApiResponse> serverError = blocking.dispatch(
+					"reply", new ScriptedCall(executions, ScriptedCall.status(503), Response.success(ok)));
+			assertTrue(serverError.isCompletedExceptionally());
+			assertEquals(1, executions.get());
+
+			final Map<String, Object> replyStats = resilience.getEndpoints().get("reply");
+			assertEquals(1L, replyStats.get("timeouts"));
+			assertEquals(1L, replyStats.get("retries"));
+		} finally {
+			resilience.close();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package net.ha1f.reply;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class ReplySelectorTests {
+
+	private static final List<String> CANDIDATES = ImmutableList.of("あそぼ", "あそんで", "約束やで", "ハグしよ");
+
+	@Test
+	public void rotatesWithinConversation() {
+		final ReplySelector selector = new ReplySelector(true, 100, 60);
+		for (int round = 0; round < 100; round++) {
+			final Set<String> seen = new HashSet<>();
+			for (int i = 0; i < CANDIDATES.size(); i++) {
+				seen.add(selector.choose("group" + round, CANDIDATES));
+			}
+			assertEquals(CANDIDATES.size(), seen.size());
+		}
+	}
+
+	@Test
+	public void neverRepeatsBackToBackWithTwoCandidates() {
+		final ReplySelector selector = new ReplySelector(true, 100, 60);
+		final List<String> two = ImmutableList.of("すごい！", "すごいね！");
+		String previous = selector.choose("user", two);
+		for (int i = 0; i < 50; i++) {
+			final String next = selector.choose("user", two);
+			assertNotSame(previous, next);
+			previous = next;
+		}
+	}
+
+	@Test
+	public void choosesFromCandidatesWithoutRotation() {
+		final ReplySelector selector = new ReplySelector(false, 0, 0);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(CANDIDATES.contains(selector.choose("user", CANDIDATES)));
+			assertTrue(selector.randomized("やった").startsWith("やった"));
+		}
+	}
+}
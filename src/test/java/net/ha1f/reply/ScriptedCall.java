@@ -0,0 +1,73 @@
+package net.ha1f.reply;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.linecorp.bot.model.response.BotApiResponse;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+// execute() のたびに台本の次の結果を返す。clone しても台本は共有する
+final class ScriptedCall implements Call<BotApiResponse> {
+	private final Deque<Object> script;
+	private final AtomicInteger executions;
+
+	ScriptedCall(AtomicInteger executions, Object... outcomes) {
+		this(new ArrayDeque<>(Arrays.asList(outcomes)), executions);
+	}
+
+	private ScriptedCall(Deque<Object> script, AtomicInteger executions) {
+		this.script = script;
+		this.executions = executions;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Response<BotApiResponse> execute() throws IOException {
+		executions.incrementAndGet();
+		final Object outcome = script.poll();
+		if (outcome instanceof IOException) {
+			throw (IOException) outcome;
+		}
+		return (Response<BotApiResponse>) outcome;
+	}
+
+	@Override
+	public void enqueue(Callback<BotApiResponse> callback) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean isExecuted() {
+		return false;
+	}
+
+	@Override
+	public void cancel() {
+	}
+
+	@Override
+	public boolean isCanceled() {
+		return false;
+	}
+
+	@Override
+	public Call<BotApiResponse> clone() {
+		return new ScriptedCall(script, executions);
+	}
+
+	@Override
+	public okhttp3.Request request() {
+		return null;
+	}
+
+	static Response<BotApiResponse> status(int code) {
+		return Response.error(code, ResponseBody.create(null, ""));
+	}
+}
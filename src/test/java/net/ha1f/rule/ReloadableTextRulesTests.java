@@ -0,0 +1,115 @@
+package net.ha1f.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ReloadableTextRulesTests {
+
+	private static final String RULES = "{\"rules\": [{\"name\": \"yade\", \"suffix\": \"%s\"}]}";
+
+	private Path dir;
+	private ReloadableTextRules rules;
+
+	private Path write(String content) throws Exception {
+		if (dir == null) {
+			dir = Files.createTempDirectory("rules");
+		}
+		final Path file = dir.resolve("rules.json");
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (rules != null) {
+			rules.close();
+		}
+	}
+
+	@Test
+	public void usesBundledRulesWithoutFile() {
+		rules = new ReloadableTextRules("");
+		assertEquals("greeting", rules.current().decide("おはよう").getRule());
+	}
+
+	@Test
+	public void rejectsMalformedFileAndKeepsSnapshot() throws Exception {
+		final Path file = write(String.format(RULES, "やで"));
+		rules = new ReloadableTextRules(file.toString());
+		final TextRuleEngine before = rules.current();
+		assertEquals("ラーメンやで", before.decide("ラーメン").getCandidates().get(0));
+
+		write("{\"rules\": [{\"name\": \"broken\", \"choose\": []}]}");
+		assertTrue(!rules.reload());
+		assertSame(before, rules.current());
+		assertEquals(1, rules.getRejectedCount());
+		assertNotNull(rules.getLastError());
+
+		write(String.format(RULES, "やん"));
+		assertTrue(rules.reload());
+		assertEquals("ラーメンやん", rules.current().decide("ラーメン").getCandidates().get(0));
+		assertNull(rules.getLastError());
+	}
+
+	@Test
+	public void refusesToStartWithAMalformedFile() throws Exception {
+		final Path file = write("{\"rules\": []}");
+		try {
+			rules = new ReloadableTextRules(file.toString());
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("no rules"));
+		}
+	}
+
+	@Test
+	public void refusesToStartWithoutACatchAllRule() throws Exception {
+		final Path file = write("{\"rules\": [{\"name\": \"ramen\", \"when\": [{\"contains\": [\"ラーメン\"]}], "
+		                        + "\"choose\": [\"ラーメンええな\"]}]}");
+		try {
+			rules = new ReloadableTextRules(file.toString());
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("the last rule must answer every message"));
+		}
+	}
+
+	@Test
+	public void keepsTheSnapshotWhenAReloadDropsTheCatchAllRule() throws Exception {
+		final Path file = write(String.format(RULES, "やで"));
+		rules = new ReloadableTextRules(file.toString());
+		final TextRuleEngine before = rules.current();
+
+		write("{\"rules\": [{\"name\": \"ramen\", \"when\": [{\"contains\": [\"ラーメン\"]}], "
+		      + "\"choose\": [\"ラーメンええな\"]}]}");
+		assertTrue(!rules.reload());
+		assertSame(before, rules.current());
+		assertEquals("おはようやで", rules.current().decide("おはよう").getCandidates().get(0));
+	}
+
+	@Test
+	public void reloadsWhenFileChanges() throws Exception {
+		final Path file = write(String.format(RULES, "やで"));
+		rules = new ReloadableTextRules(file.toString());
+		rules.watch();
+		final long version = rules.getVersion();
+
+		write(String.format(RULES, "だよ"));
+		final long deadline = System.currentTimeMillis() + 30000;
+		while (rules.getVersion() == version && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertEquals("ラーメンだよ", rules.current().decide("ラーメン").getCandidates().get(0));
+	}
+}
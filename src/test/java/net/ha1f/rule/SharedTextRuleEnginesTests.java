@@ -0,0 +1,62 @@
+package net.ha1f.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import net.ha1f.log.EventLog;
+
+public class SharedTextRuleEnginesTests {
+
+	private static final String RULES = "{\"rules\": [{\"name\": \"yade\", \"suffix\": \"%s\"}]}";
+
+	private static byte[] rules(String suffix) {
+		return String.format(RULES, suffix).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void compilesIdenticalContentOnce() throws Exception {
+		final SharedTextRuleEngines engines = new SharedTextRuleEngines();
+		final TextRuleEngine first = engines.compile(rules("やで"));
+		assertSame(first, engines.compile(rules("やで")));
+		assertNotSame(first, engines.compile(rules("やん")));
+		assertEquals(2, engines.getCompiledCount());
+		assertEquals(1, engines.getSharedCount());
+	}
+
+	@Test
+	public void rejectsInvalidRulesWithTheParserError() throws Exception {
+		final SharedTextRuleEngines engines = new SharedTextRuleEngines();
+		try {
+			engines.compile("{\"rules\": []}".getBytes(StandardCharsets.UTF_8));
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("no rules", e.getMessage());
+		}
+		assertEquals("ラーメンやで", engines.compile(rules("やで")).decide("ラーメン").getCandidates().get(0));
+	}
+
+	@Test
+	public void filesWithTheSameContentShareOneEngine() throws Exception {
+		final Path dir = Files.createTempDirectory("rules");
+		final Path shop = Files.write(dir.resolve("shop.json"), rules("やで"));
+		final Path event = Files.write(dir.resolve("event.json"), rules("やで"));
+		final SharedTextRuleEngines engines = new SharedTextRuleEngines();
+		final EventLog log = new EventLog(16, EventLog.Overflow.DROP, 0);
+		final ReloadableTextRules shopRules = new ReloadableTextRules(shop.toString(), engines, log);
+		final ReloadableTextRules eventRules = new ReloadableTextRules(event.toString(), engines, log);
+		assertSame(shopRules.current(), eventRules.current());
+
+		Files.write(event, rules("やん"));
+		eventRules.reload();
+		assertNotSame(shopRules.current(), eventRules.current());
+		assertEquals("ラーメンやん", eventRules.current().decide("ラーメン").getCandidates().get(0));
+	}
+}
@@ -0,0 +1,53 @@
+package net.ha1f.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class TextDecisionCacheTests {
+
+	@Test
+	public void countsHitsAndMisses() {
+		final TextDecisionCache cache = new TextDecisionCache(new ReloadableTextRules(""), true, 2, 32);
+		final ReplyDecision first = cache.decide("おはよう");
+		assertSame(first, cache.decide("おはよう"));
+		cache.decide("ww");
+		cache.decide("ｗｗ");
+		assertEquals("ｗｗ", cache.decide("ｗｗ").getCandidates().get(0));
+
+		assertEquals(2, cache.getHitCount());
+		assertEquals(3, cache.getMissCount());
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+	}
+
+	@Test
+	public void skipsLongTextsAndCanBeDisabled() {
+		final TextDecisionCache cache = new TextDecisionCache(new ReloadableTextRules(""), true, 16, 4);
+		cache.decide("とても長いメッセージ");
+		assertEquals(0, cache.size());
+
+		cache.setEnabled(false);
+		cache.decide("ww");
+		assertEquals(0, cache.getMissCount());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void forgetsDecisionsOfReplacedRules() throws Exception {
+		final Path file = Files.createTempFile("rules", ".json");
+		Files.write(file, "{\"rules\": [{\"name\": \"a\", \"suffix\": \"やで\"}]}".getBytes(StandardCharsets.UTF_8));
+		final ReloadableTextRules rules = new ReloadableTextRules(file.toString());
+		final TextDecisionCache cache = new TextDecisionCache(rules, true, 16, 32);
+		assertEquals("a", cache.decide("ラーメン").getRule());
+
+		Files.write(file, "{\"rules\": [{\"name\": \"b\", \"suffix\": \"やで\"}]}".getBytes(StandardCharsets.UTF_8));
+		rules.reload();
+		assertEquals("b", cache.decide("ラーメン").getRule());
+	}
+}
@@ -0,0 +1,149 @@
+package net.ha1f.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class TextRuleEngineTests {
+
+	private final TextRuleEngine engine = DefaultTextRules.engine();
+
+	private void assertRule(String rule, String text) {
+		assertEquals(text, rule, engine.decide(text).getRule());
+	}
+
+	@Test
+	public void resolvesRulesInPriorityOrder() {
+		assertRule("echo", "ww");
+		assertRule("echo", "あ");
+		assertRule("leave", "はるふまたね");
+		assertRule("greeting", "おはよう！");
+		assertRule("greeting", "はるふ？");
+		assertRule("praised", "はるふ好き");
+		assertRule("blamed", "はるふひどい");
+		assertRule("like-question", "好きなのかなぁ？");
+		assertRule("like", "すき");
+		assertRule("dislike-question", "嫌い？");
+		assertRule("dislike", "うざい");
+		assertRule("tired", "つかれた〜");
+		assertRule("lonely", "さみしいなぁ");
+		assertRule("great-question", "すごい？");
+		assertRule("great", "すごい");
+		assertRule("happy", "わーいわーい");
+		assertRule("thanks", "thanks");
+		assertRule("despair", "しにたい");
+		assertRule("praise-me", "ほめて");
+		assertRule("play", "ハグして");
+		assertRule("request", "勉強したいの");
+		assertRule("yade", "ラーメン");
+	}
+
+	@Test
+	public void buildsRepliesFromTheMessage() {
+		assertEquals(ImmutableList.of("ラーメンやで"), engine.decide("ラーメンやで").getCandidates());
+		assertEquals(ImmutableList.of("もしかする"), engine.decide("もしかして").getCandidates());
+		assertEquals(ImmutableList.of("まかせて", "まかしとき", "約束やで", "勉強する"),
+		             engine.decide("勉強したいの").getCandidates());
+		assertEquals(ImmutableList.of("ww"), engine.decide("ww").getCandidates());
+
+		final ReplyDecision leave = engine.decide("はるふばいばい");
+		assertTrue(leave.isLeave());
+		assertTrue(leave.isRandomized());
+		assertEquals(ImmutableList.of("二人きりの時間を楽しもうな！"), leave.getFallback());
+		assertFalse(engine.decide("ばいばい").isLeave());
+	}
+
+	@Test
+	public void automatonReportsContainsSuffixAndExactGroups() {
+		final KeywordAutomaton.Builder builder = new KeywordAutomaton.Builder();
+		builder.add("はるふ", 0);
+		builder.add("ふ", 1);
+		builder.add("るふま", 2);
+		final int whole = builder.add("はるふまたね", 3);
+		final KeywordAutomaton automaton = builder.build();
+		final KeywordAutomaton.Hits hits = new KeywordAutomaton.Hits();
+
+		automaton.scan("はるふまたね", hits);
+		assertEquals(0b1111L, hits.contains);
+		assertEquals(0b1000L, hits.endsWith);
+		assertEquals(0b1000L, hits.exact);
+		assertEquals(whole, hits.exactState);
+
+		automaton.scan("ははるふ", hits);
+		assertEquals(0b0011L, hits.contains);
+		assertEquals(0b0011L, hits.endsWith);
+		assertEquals(0L, hits.exact);
+		assertEquals(-1, hits.exactState);
+	}
+
+	@Test
+	public void foldsKatakanaAndWidth() {
+		assertRule("greeting", "オハヨウ");
+		assertRule("echo", "ＷＷ");
+		assertRule("thanks", "Ｔｈａｎｋｓ！");
+		assertEquals(ImmutableList.of("ポム"), engine.decide("おむらいす").getCandidates());
+	}
+
+	@Test
+	public void followsUpOnThePreviousRule() {
+		final ReplyDecision thanks = engine.decide("ありがとう");
+		assertSame(thanks, thanks.after(null));
+		assertSame(thanks, thanks.after("greeting"));
+		final ReplyDecision afterTired = thanks.after("tired");
+		assertEquals("thanks", afterTired.getRule());
+		assertEquals(ImmutableList.of("ええんやで、ゆっくり休んでね", "いつでも話聞くで〜"), afterTired.getCandidates());
+		assertSame(afterTired, engine.decide("ありがとう").after("tired"));
+	}
+
+	@Test
+	public void rejectsFollowUpsOnGeneratedReplies() throws Exception {
+		final String json = "{\"rules\": [{\"name\": \"yade\", \"suffix\": \"やで\", "
+		                    + "\"followUps\": {\"tired\": [\"おつかれやで\"]}}]}";
+		try {
+			new TextRuleParser().parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("followUps need choose or table"));
+		}
+	}
+
+	@Test
+	public void rejectsMisspelledKeys() throws Exception {
+		final String[] misspelled = {
+				"{\"rules\": [{\"name\": \"why\", \"questoin\": true, \"choose\": [\"なんでやろ\"]}]}",
+				"{\"rules\": [{\"name\": \"tired\", \"when\": [{\"contain\": [\"疲れ\"]}], \"choose\": [\"休も\"]}]}",
+				"{\"rules\": [{\"name\": \"bye\", \"leave\": {\"farewells\": [\"ばいばい\"], \"fallback\": [\"いやや\"], "
+				+ "\"fallbak\": [\"いやや\"]}}]}"
+		};
+		for (String json : misspelled) {
+			try {
+				new TextRuleParser().parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+				fail(json);
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("unknown key"));
+			}
+		}
+	}
+
+	@Test
+	public void rejectsRulesThatLeaveMessagesUnanswered() {
+		try {
+			TextRuleEngine.builder()
+			              .add(TextRule.builder("greeting").contains("おはよう").choose("おはよう！").build())
+			              .add(TextRule.builder("yade").question(false).suffix("やで").build())
+			              .build();
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("the last rule must answer every message"));
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package net.ha1f.sticker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class StickerRepliesTests {
+
+	private final StickerReplies replies = StickerReplies.fromClasspath("/stickers.json");
+
+	@Test
+	public void loadsBothPacks() {
+		assertEquals(47, replies.size());
+		assertEquals("ムカつかんで！！", replies.find("1184321", "7496267").getText());
+		assertEquals("うんうん！またね！", replies.find("1252013", "10221111").getText());
+	}
+
+	@Test
+	public void keepsRandomizedMarker() {
+		final StickerReply reply = replies.find("1252013", "10221074");
+		assertEquals("おはおは", reply.getText());
+		assertTrue(reply.isRandomized());
+		assertNull(reply.getMessages());
+		assertFalse(replies.find("1252013", "10221072").isRandomized());
+	}
+
+	@Test
+	public void fallsBackPerPackage() {
+		assertEquals("博多弁かわいいね", replies.find("1184321", "1").getText());
+		assertNull(replies.find("1252013", "1"));
+		assertNull(replies.find("999", "7496267"));
+		assertNull(replies.find("abc", "7496267"));
+	}
+
+	@Test
+	public void reusesPrebuiltMessages() {
+		assertSame(replies.find("1184321", "7496267").getMessages(),
+		           replies.find("1184321", "7496267").getMessages());
+	}
+
+	@Test
+	public void onlyMatchesCanonicalIds() {
+		assertNull(replies.find("01184321", "7496267"));
+		assertEquals("博多弁かわいいね", replies.find("1184321", "07496267").getText());
+		assertEquals(-1, StickerReplies.parseId("1a"));
+		assertEquals(0, StickerReplies.parseId("0"));
+	}
+
+	@Test
+	public void rejectsNonCanonicalIdsInTheTable() throws Exception {
+		for (String id : new String[] { "01", "1a", "", "4294967296" }) {
+			final String json = "{\"packages\": [{\"packageId\": \"1\", \"stickers\": [{\"stickerId\": \"" + id
+			                    + "\", \"text\": \"x\"}]}]}";
+			try {
+				StickerReplies.load(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+				fail(id);
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("invalid stickerId"));
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package net.ha1f.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class TextNormalizerTests {
+
+	// 置き換える前の正規表現
+	private static final Pattern NOCONTENT_PATTERN = Pattern.compile("^[ぁ-ん]?[?？!！…・。、,.〜ーｗw笑 ]*$");
+	private static final Pattern SUFFIX_MARK = Pattern.compile("(なん|なの|やなぁ|だよ|やろ|やん|やんけ|[?？!！。、,.〜ーｗw笑])+$");
+	private static final Pattern QUESTION_SUFFIX = Pattern.compile("(なの|なん)*(かなあ|かなぁ)+$");
+
+	private final TextNormalizer normalizer = new TextNormalizer();
+
+	@Test
+	public void matchesRegexOnGoldenCorpus() throws Exception {
+		final NormalizedText result = new NormalizedText();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				getClass().getResourceAsStream("/normalizer-corpus.txt"), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final boolean question = line.endsWith("?") || line.endsWith("？");
+				String text = SUFFIX_MARK.matcher(line).replaceFirst("");
+				if (question) {
+					text = QUESTION_SUFFIX.matcher(text).replaceFirst("");
+				}
+
+				normalizer.normalize(line, result);
+				assertEquals(line, text, result.getText());
+				assertEquals(line, question, result.isQuestion());
+				assertEquals(line, NOCONTENT_PATTERN.matcher(line).matches(), result.isNoContent());
+			}
+		}
+	}
+
+	@Test
+	public void foldsWidthAndKana() {
+		assertTrue(normalizer.normalize("ＷＷ").isNoContent());
+		assertTrue(normalizer.normalize("ｗｗ").isNoContent());
+		assertTrue(normalizer.normalize("WW").isNoContent());
+		assertTrue(normalizer.normalize("ア笑").isNoContent());
+		assertFalse(normalizer.normalize("ラーメン").isNoContent());
+		assertEquals("スキ", normalizer.normalize("スキナノカナア？").getText());
+		assertEquals("すき", normalizer.normalize("スキナノカナア？").toString());
+		assertEquals("thanks", TextNormalizer.fold("Ｔｈａｎｋｓ"));
+		assertEquals("かたかな", TextNormalizer.fold("ｶﾀｶﾅ"));
+	}
+
+	@Test
+	public void reusesResult() {
+		final NormalizedText result = new NormalizedText();
+		normalizer.normalize("好きかなあ？", result);
+		assertEquals("好き", result.getText());
+		normalizer.normalize("ww", result);
+		assertEquals("", result.getText());
+		assertTrue(result.isNoContent());
+		assertFalse(result.isQuestion());
+	}
+}